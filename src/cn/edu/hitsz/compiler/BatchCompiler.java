@@ -0,0 +1,119 @@
+package cn.edu.hitsz.compiler;
+
+import cn.edu.hitsz.compiler.parser.table.LRTable;
+import cn.edu.hitsz.compiler.utils.CompilerOptions;
+import cn.edu.hitsz.compiler.utils.DumpWriter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Stream;
+
+/**
+ * 批量编译: 并发地编译一个目录下的所有源文件 (*.txt)
+ * <br>
+ * 各源文件的编译互相独立 (见 {@link Compilation}), 作为一个个任务提交到 ForkJoinPool 上并行执行,
+ * 共享同一张 LR 分析表. 源文件 {@code a.txt} 的各阶段结果输出到输出目录下的 {@code a/} 中,
+ * 某个文件编译失败不影响其他文件. 全部完成后在输出目录下写一份汇总 summary.txt, 每行一个源文件.
+ * 指定 --no-dump 时不输出各阶段的结果, 也不创建各文件的输出目录, 只写汇总.
+ * 指定 --incremental 时各文件共用一个 {@link StatementCache}, 不同文件中相同的语句只分析一次.
+ */
+public class BatchCompiler {
+    /**
+     * 一个源文件的编译结果
+     *
+     * @param source 源文件名
+     * @param value  模拟执行的结果, 编译失败时为空
+     * @param error  编译失败时的错误信息, 成功时为 null
+     */
+    public record Result(String source, Optional<Integer> value, String error) {
+        @Override
+        public String toString() {
+            if (error != null) {
+                return "%s: error: %s".formatted(source, error);
+            }
+            return "%s: %s".formatted(source, value.map(String::valueOf).orElse("No return value"));
+        }
+    }
+
+    /**
+     * @param lrTable     所有编译共用的 LR 分析表
+     * @param options     所有编译共用的编译选项
+     * @param parallelism 同时进行的编译数
+     */
+    public BatchCompiler(LRTable lrTable, CompilerOptions options, int parallelism) {
+        this.lrTable = lrTable;
+        this.options = options;
+        this.parallelism = parallelism;
+        this.cache = StatementCache.of(options);
+    }
+
+    /**
+     * @param sourceDir 源文件目录
+     * @param outputDir 输出目录, 不存在时创建
+     * @return 按文件名排序的各源文件的编译结果
+     */
+    public List<Result> compileAll(String sourceDir, String outputDir) {
+        final List<Path> sources;
+        try (Stream<Path> files = Files.list(Path.of(sourceDir))) {
+            sources = files
+                .filter(path -> Files.isRegularFile(path) && path.getFileName().toString().endsWith(".txt"))
+                .sorted()
+                .toList();
+            Files.createDirectories(Path.of(outputDir));
+        } catch (IOException e) {
+            throw new RuntimeException("IO Exception for " + sourceDir, e);
+        }
+
+        final var pool = new ForkJoinPool(parallelism);
+        try {
+            final var tasks = new ArrayList<ForkJoinTask<Result>>(sources.size());
+            for (final var source : sources) {
+                tasks.add(pool.submit(() -> compileOne(source, Path.of(outputDir))));
+            }
+
+            final var results = new ArrayList<Result>(tasks.size());
+            for (final var task : tasks) {
+                results.add(task.join());
+            }
+            // 错误信息可能带有源文件中不能编码的字符, 不能因此写不出汇总
+            try (final var out = DumpWriter.open(Path.of(outputDir, "summary.txt").toString()).replacingMalformed()) {
+                for (final var result : results) {
+                    out.append(result.toString()).newLine();
+                }
+            }
+            return results;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    //==================== 以下为实现相关代码 ==============================//
+
+    private final LRTable lrTable;
+    private final CompilerOptions options;
+    private final int parallelism;
+    private final StatementCache cache;
+
+    private Result compileOne(Path source, Path outputDir) {
+        final var fileName = source.getFileName().toString();
+        final var name = fileName.substring(0, fileName.length() - ".txt".length());
+        try {
+            final var output = outputDir.resolve(name);
+            if (!options.has("no-dump")) {
+                Files.createDirectories(output);
+            }
+            final var value = new Compilation(source.toString(), output.toString(), lrTable, options)
+                .withCache(cache)
+                .run();
+            return new Result(fileName, value, null);
+        } catch (IOException | RuntimeException e) {
+            return new Result(fileName, Optional.empty(), String.valueOf(e.getMessage()));
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package cn.edu.hitsz.compiler;
+
+import cn.edu.hitsz.compiler.asm.AssemblyGenerator;
+import cn.edu.hitsz.compiler.asm.GraphColoringAllocator;
+import cn.edu.hitsz.compiler.asm.LinearScanAllocator;
+import cn.edu.hitsz.compiler.ir.IRVariable;
+import cn.edu.hitsz.compiler.ir.Instruction;
+import cn.edu.hitsz.compiler.lexer.CharPointer;
+import cn.edu.hitsz.compiler.lexer.LexicalAnalyzer;
+import cn.edu.hitsz.compiler.lexer.Token;
+import cn.edu.hitsz.compiler.opt.IROptimizer;
+import cn.edu.hitsz.compiler.parser.IRGenerator;
+import cn.edu.hitsz.compiler.parser.ProductionCollector;
+import cn.edu.hitsz.compiler.parser.SemanticAnalyzer;
+import cn.edu.hitsz.compiler.parser.SyntaxAnalyzer;
+import cn.edu.hitsz.compiler.parser.table.GrammarInfo;
+import cn.edu.hitsz.compiler.parser.table.LRTable;
+import cn.edu.hitsz.compiler.symtab.SymbolTable;
+import cn.edu.hitsz.compiler.utils.CompilerOptions;
+import cn.edu.hitsz.compiler.utils.DumpWriter;
+import cn.edu.hitsz.compiler.utils.FilePathConfig;
+import cn.edu.hitsz.compiler.utils.FileUtils;
+import cn.edu.hitsz.compiler.utils.IREmulator;
+import cn.edu.hitsz.compiler.utils.IRJit;
+
+import java.io.StringReader;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * 一次编译: 对一个源文件完成从词法分析到汇编生成的整个流程, 各阶段的结果输出到给定的目录中,
+ * 文件名与 {@link FilePathConfig} 中的相同. 也可以直接编译内存中的源代码 (见 {@link #ofSource}), 这时不输出文件,
+ * 结果在编译后通过各 getter 取得. 给定 {@link StatementCache} 时前端按语句增量地进行.
+ * <br>
+ * 每次编译有自己的符号表与 IR 变量的编号空间 (见 {@link IRVariable.Namespace}), 所以多个编译可以在不同线程上同时进行.
+ * 码点表 (TokenKind), 语法 (GrammarInfo) 与 LR 分析表在编译之间共享, 加载之后只会被读取; 调用者需要在开始编译之前
+ * 调用 {@link cn.edu.hitsz.compiler.lexer.TokenKind#loadTokenKinds()} 并准备好分析表.
+ */
+public class Compilation {
+    /**
+     * @param sourcePath 源文件路径
+     * @param outputDir  输出目录, 需已存在
+     * @param lrTable    LR 分析表
+     * @param options    编译选项
+     */
+    public Compilation(String sourcePath, String outputDir, LRTable lrTable, CompilerOptions options) {
+        this(sourcePath, null, Path.of(outputDir), lrTable, options);
+    }
+
+    /**
+     * @param source  源代码
+     * @param lrTable LR 分析表
+     * @param options 编译选项
+     * @return 不输出任何文件的编译
+     */
+    public static Compilation ofSource(String source, LRTable lrTable, CompilerOptions options) {
+        return new Compilation(null, source, null, lrTable, options);
+    }
+
+    /**
+     * 使用按语句的缓存进行增量编译 (见 {@link StatementCache}), 流式词法分析时不使用
+     *
+     * @param cache 缓存, 为 null 时不使用
+     * @return this
+     */
+    public Compilation withCache(StatementCache cache) {
+        this.cache = cache;
+        return this;
+    }
+
+    /**
+     * 执行编译
+     *
+     * @return IR 模拟执行的结果
+     */
+    public Optional<Integer> run() {
+        return IRVariable.withNamespace(new IRVariable.Namespace(), this::compile);
+    }
+
+    /**
+     * @return 词法分析得到的 token, 流式词法分析时为空. 在 run 之后可用
+     */
+    public Iterable<Token> getTokens() {
+        return tokens;
+    }
+
+    /**
+     * @return 用于模拟执行与汇编生成的 (优化后的) IR, 在 run 之后可用
+     */
+    public List<Instruction> getInstructions() {
+        return instructions;
+    }
+
+    /**
+     * @return 生成的汇编代码, 在 run 之后可用
+     */
+    public List<String> getAssembly() {
+        return assembly;
+    }
+
+    //==================== 以下为实现相关代码 ==============================//
+
+    private final String sourcePath;
+    private final String source; // 直接给出的源代码, 从文件读入时为 null
+    private final Path outputDir; // 不输出文件时为 null
+    private final LRTable lrTable;
+    private final CompilerOptions options;
+    private StatementCache cache = null;
+
+    private Iterable<Token> tokens = List.of();
+    private List<Instruction> instructions = List.of();
+    private List<String> assembly = List.of();
+
+    private Compilation(String sourcePath, String source, Path outputDir, LRTable lrTable, CompilerOptions options) {
+        this.sourcePath = sourcePath;
+        this.source = source;
+        this.outputDir = outputDir;
+        this.lrTable = lrTable;
+        this.options = options;
+    }
+
+    /**
+     * @return 是否输出各阶段的结果, 不输出文件的编译或指定了 --no-dump 时为 false
+     */
+    private boolean dumps() {
+        return outputDir != null && !options.has("no-dump");
+    }
+
+    /**
+     * @param configPath FilePathConfig 中的输出路径
+     * @return 输出目录中的同名文件
+     */
+    private String output(String configPath) {
+        return outputDir.resolve(Path.of(configPath).getFileName()).toString();
+    }
+
+    private Optional<Integer> compile() {
+        final SymbolTable symbolTable = new SymbolTable();
+
+        // 词法分析, 语法分析与 IR 生成
+        final List<Instruction> ir;
+        if (cache != null && !options.has("stream")) {
+            // 直接扫描映射的文件, 不会把整个文件读成 String
+            final var pointer = source != null ? CharPointer.from(source) : CharPointer.from(FileUtils.mapFile(sourcePath));
+            ir = cache.split(pointer, lrTable)
+                .map(program -> incrementalFrontEnd(program, symbolTable))
+                .orElseGet(() -> frontEnd(symbolTable, source));
+        } else {
+            ir = frontEnd(symbolTable, source);
+        }
+
+        // 优化 IR, 之后的模拟执行与汇编生成都使用优化后的 IR
+        if (options.has("no-opt")) {
+            instructions = ir;
+        } else {
+            // 可选基于 SSA 形式的优化流程
+            final var optimizer = options.get("opt", "local").equals("ssa") ? IROptimizer.ssa() : IROptimizer.standard();
+            instructions = optimizer.optimize(ir);
+            if (dumps()) {
+                DumpWriter.writeLines(output(FilePathConfig.OPTIMIZED_CODE_PATH), instructions, Instruction::writeTo);
+            }
+        }
+
+        // 模拟执行 IR 并输出结果
+        // 程序可能永远不结束, 向回跳转的次数有上限
+        final var emulatorMode = options.get("emulator", "interpreter");
+        final int loopLimit = Integer.parseInt(options.get("loop-limit", String.valueOf(IREmulator.DEFAULT_LOOP_LIMIT)));
+        final Optional<Integer> emulateResult;
+        if (emulatorMode.equals("jit")) {
+            // 编译成 JVM 字节码执行
+            emulateResult = loadJit(instructions).withLoopLimit(loopLimit).execute();
+        } else if (emulatorMode.equals("check")) {
+            // 两种方式都执行一遍, 以解释执行的结果为准比对
+            emulateResult = IREmulator.load(instructions).withLoopLimit(loopLimit).execute();
+            final var jitResult = loadJit(instructions).withLoopLimit(loopLimit).execute();
+            if (!emulateResult.equals(jitResult)) {
+                throw new RuntimeException("IRJit returns %s but IREmulator returns %s".formatted(jitResult, emulateResult));
+            }
+        } else {
+            emulateResult = IREmulator.load(instructions).withLoopLimit(loopLimit).execute();
+        }
+        if (dumps()) {
+            FileUtils.writeFile(output(FilePathConfig.EMULATE_RESULT),
+                    emulateResult.map(Objects::toString).orElse("No return value"));
+        }
+
+        // 由 IR 生成汇编
+        final var asmGenerator = new AssemblyGenerator(options.get("regalloc", "linear").equals("coloring")
+            ? new GraphColoringAllocator()
+            : new LinearScanAllocator());
+        asmGenerator.loadIR(instructions);
+        asmGenerator.run();
+        assembly = asmGenerator.getAssembly();
+        if (dumps()) {
+            asmGenerator.dump(output(FilePathConfig.ASSEMBLY_LANGUAGE_PATH));
+        }
+
+        return emulateResult;
+    }
+
+    /**
+     * 完整的前端: 词法分析, 语法分析, 语义分析与 IR 生成
+     *
+     * @param text 源代码, 为 null 时从源文件读入
+     * @return 生成的 IR
+     */
+    private List<Instruction> frontEnd(SymbolTable symbolTable, String text) {
+        // 词法分析
+        final LexicalAnalyzer lexer = new LexicalAnalyzer(symbolTable);
+        final Iterable<Token> tokens;
+        if (options.has("stream")) {
+            // 流式词法分析: token 在语法分析过程中按需产生,
+            // 因此不输出 token 列表与语义分析前的符号表
+            tokens = text != null ? lexer.streamTokens(new StringReader(text)) : lexer.streamFile(sourcePath);
+        } else {
+            if (text != null) {
+                lexer.loadSource(text);
+            } else {
+                lexer.loadFile(sourcePath);
+            }
+            if (options.get("scanner", "default").equals("dfa")) {
+                // 表驱动的 DFA 扫描器
+                lexer.runDfa();
+            } else {
+                lexer.run();
+            }
+            tokens = lexer.getTokens();
+            this.tokens = tokens;
+            if (dumps()) {
+                lexer.dumpTokens(output(FilePathConfig.TOKEN_PATH));
+                symbolTable.dumpTable(output(FilePathConfig.OLD_SYMBOL_TABLE));
+            }
+        }
+
+        // 加载 LR 分析驱动程序
+        final SyntaxAnalyzer parser = new SyntaxAnalyzer(symbolTable);
+        parser.loadTokens(tokens);
+        parser.loadLRTable(lrTable);
+
+        // 加入生成规约列表的 Observer
+        final ProductionCollector productionCollector = new ProductionCollector(GrammarInfo.getBeginProduction());
+        parser.registerObserver(productionCollector);
+
+        // 加入用作语义检查的 Observer
+        final var semanticAnalyzer = new SemanticAnalyzer();
+        parser.registerObserver(semanticAnalyzer);
+
+        // 加入用作 IR 生成的 Observer
+        final var irGenerator = new IRGenerator();
+        parser.registerObserver(irGenerator);
+
+        // 执行语法解析并在解析过程中依次调用各 Observer
+        parser.run();
+
+        // 各 Observer 输出结果
+        if (dumps()) {
+            productionCollector.dumpToFile(output(FilePathConfig.PARSER_PATH));
+            symbolTable.dumpTable(output(FilePathConfig.NEW_SYMBOL_TABLE));
+            irGenerator.dumpIR(output(FilePathConfig.INTERMEDIATE_CODE_PATH));
+        }
+
+        return irGenerator.getIR();
+    }
+
+    /**
+     * @return 编译成 JVM 字节码的 IR; 程序太大而退回解释执行时在标准错误上说明
+     */
+    private static IRJit loadJit(List<Instruction> instructions) {
+        final var jit = IRJit.load(instructions);
+        if (!jit.isCompiled()) {
+            System.err.println("IR is too large to compile to bytecode, falling back to the interpreter");
+        }
+        return jit;
+    }
+
+    /**
+     * 增量的前端: 各语句的结果取自缓存, 输出与完整的前端相同
+     *
+     * @return 生成的 IR
+     */
+    private List<Instruction> incrementalFrontEnd(StatementCache.Program program, SymbolTable symbolTable) {
+        // 词法分析
+        program.registerSymbols(symbolTable);
+        final var tokens = program.tokens();
+        this.tokens = tokens;
+        if (dumps()) {
+            DumpWriter.writeLines(output(FilePathConfig.TOKEN_PATH), tokens, LexicalAnalyzer::writeToken);
+            symbolTable.dumpTable(output(FilePathConfig.OLD_SYMBOL_TABLE));
+        }
+
+        // 语法分析, 语义分析与 IR 生成
+        program.declareSymbols(symbolTable);
+        final var ir = program.instructions();
+        if (dumps()) {
+            DumpWriter.writeLines(output(FilePathConfig.PARSER_PATH), program.reductions(),
+                    ProductionCollector::writeProduction);
+            symbolTable.dumpTable(output(FilePathConfig.NEW_SYMBOL_TABLE));
+            DumpWriter.writeLines(output(FilePathConfig.INTERMEDIATE_CODE_PATH), ir, Instruction::writeTo);
+        }
+        return ir;
+    }
+}
@@ -0,0 +1,219 @@
+package cn.edu.hitsz.compiler;
+
+import cn.edu.hitsz.compiler.parser.table.GrammarInfo;
+import cn.edu.hitsz.compiler.parser.table.LRTable;
+import cn.edu.hitsz.compiler.utils.CompilerOptions;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.Semaphore;
+
+/**
+ * 常驻的编译服务
+ * <br>
+ * 码点表, 语法与 LR 分析表只在启动时加载一次, 之后的编译请求都在已经预热的 JVM 中进行,
+ * 不再为每段小程序付出启动 JVM 与读取分析表的代价. 请求与响应经由标准输入输出或 Unix 域套接字, 以行为单位:
+ * <pre>
+ * 请求: COMPILE &lt;id&gt; &lt;n&gt;     其后紧跟 n 行源代码; QUIT 表示不再有请求
+ * 响应: BEGIN &lt;id&gt; ok          其后依次为 #tokens, #ir, #result, #asm 四部分, 每部分的标题之后为其内容
+ *       END &lt;id&gt;
+ * 出错: BEGIN &lt;id&gt; error       其后一行为错误信息
+ *       END &lt;id&gt;
+ * </pre>
+ * #ir 为用于模拟执行与汇编生成的 (优化后的) IR, 编译选项对所有请求相同, 由启动服务时的命令行给出.
+ * <br>
+ * 请求在固定大小的线程池上并发编译, 同一连接上的响应按完成的先后输出, 由 id 与请求对应.
+ * 正在编译与排队的请求总数有上限, 达到上限时暂停读取新的请求, 直到有请求完成.
+ * 一个连接的输入结束后, 等该连接上已收到的请求全部响应完再返回.
+ * 编译包括模拟执行, 永远不结束的程序在向回跳转的次数超过上限 (--loop-limit) 时以出错响应, 不会一直占着工作线程.
+ * <br>
+ * 指定 --incremental 时所有请求共用一个 {@link StatementCache}, 反复提交的, 只有少量改动的源代码只需重新分析改动过的语句.
+ */
+public class CompileServer {
+    /**
+     * @param lrTable       所有请求共用的 LR 分析表
+     * @param options       所有请求共用的编译选项
+     * @param threads       同时进行的编译数
+     * @param queueCapacity 等待编译的请求数的上限
+     */
+    public CompileServer(LRTable lrTable, CompilerOptions options, int threads, int queueCapacity) {
+        this.lrTable = lrTable;
+        this.options = options;
+        this.workers = Executors.newFixedThreadPool(threads);
+        this.permits = new Semaphore(threads + queueCapacity);
+        this.cache = StatementCache.of(options);
+
+        // 预热: 语法与编译后的分析表在第一个请求到来之前就准备好
+        GrammarInfo.getBeginProduction();
+        lrTable.compile();
+    }
+
+    /**
+     * 处理一个连接上的全部请求
+     *
+     * @param in  请求
+     * @param out 响应
+     */
+    public void serve(InputStream in, OutputStream out) throws IOException {
+        final var reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        final var writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        // 读请求的线程自己占一份, 每个尚未响应的请求各占一份
+        final var pending = new Phaser(1);
+
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isBlank()) {
+                continue;
+            }
+            final var words = line.trim().split("\\s+");
+            if (words[0].equals("QUIT")) {
+                break;
+            }
+
+            final int lineCount;
+            try {
+                if (!words[0].equals("COMPILE") || words.length != 3) {
+                    throw new NumberFormatException();
+                }
+                lineCount = Integer.parseInt(words[2]);
+            } catch (NumberFormatException e) {
+                respond(writer, error(words.length > 1 ? words[1] : "-", "Illegal request: " + line));
+                continue;
+            }
+
+            final var id = words[1];
+            final var source = new StringBuilder();
+            boolean truncated = false;
+            for (int i = 0; i < lineCount; i++) {
+                final var sourceLine = reader.readLine();
+                if (sourceLine == null) {
+                    truncated = true;
+                    break;
+                }
+                source.append(sourceLine).append('\n');
+            }
+            if (truncated) {
+                // 源代码不完整, 不编译; 输入已经结束, 不会再有请求
+                respond(writer, error(id, "Unexpected end of input"));
+                break;
+            }
+
+            permits.acquireUninterruptibly();
+            pending.register();
+            workers.execute(() -> {
+                try {
+                    respond(writer, compile(id, source.toString()));
+                } finally {
+                    permits.release();
+                    pending.arriveAndDeregister();
+                }
+            });
+        }
+
+        pending.arriveAndAwaitAdvance();
+    }
+
+    /**
+     * 在 Unix 域套接字上接受连接, 每个连接由一个虚拟线程读取请求. 不会返回
+     *
+     * @param socketPath 套接字文件的路径, 已存在时先删除
+     */
+    public void listen(Path socketPath) throws IOException {
+        Files.deleteIfExists(socketPath);
+        try (final var server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(socketPath));
+            while (true) {
+                final var channel = server.accept();
+                Thread.ofVirtual().start(() -> {
+                    try (channel) {
+                        serve(Channels.newInputStream(channel), Channels.newOutputStream(channel));
+                    } catch (IOException e) {
+                        // 客户端断开连接, 只影响这一个连接
+                        System.err.println("Connection closed: " + e.getMessage());
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * 停止接受新的编译, 已提交的编译仍会完成
+     */
+    public void shutdown() {
+        workers.shutdown();
+    }
+
+    //==================== 以下为实现相关代码 ==============================//
+
+    private final LRTable lrTable;
+    private final CompilerOptions options;
+    private final ExecutorService workers;
+    private final Semaphore permits;
+    private final StatementCache cache;
+
+    /**
+     * @return 完整的响应文本
+     */
+    private String compile(String id, String source) {
+        final var response = new StringBuilder();
+        try {
+            final var compilation = Compilation.ofSource(source, lrTable, options).withCache(cache);
+            final var result = compilation.run();
+
+            response.append("BEGIN ").append(id).append(" ok\n");
+            response.append("#tokens\n");
+            for (final var token : compilation.getTokens()) {
+                response.append(token).append('\n');
+            }
+            response.append("#ir\n");
+            for (final var instruction : compilation.getInstructions()) {
+                response.append(instruction).append('\n');
+            }
+            response.append("#result\n").append(result.map(String::valueOf).orElse("No return value")).append('\n');
+            response.append("#asm\n");
+            for (final var asm : compilation.getAssembly()) {
+                response.append(asm).append('\n');
+            }
+            response.append("END ").append(id).append('\n');
+            return response.toString();
+        } catch (RuntimeException e) {
+            return error(id, String.valueOf(e.getMessage()));
+        }
+    }
+
+    private static String error(String id, String message) {
+        // 错误信息中的换行会破坏按行的协议
+        return "BEGIN %s error\n%s\nEND %s\n".formatted(id, message.replace('\n', ' '), id);
+    }
+
+    /**
+     * 一个连接上的响应由多个线程写出, 每个响应整体写出, 互不穿插
+     */
+    private static void respond(Writer writer, String response) {
+        synchronized (writer) {
+            try {
+                writer.write(response);
+                writer.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
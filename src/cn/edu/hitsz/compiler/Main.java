@@ -1,81 +1,69 @@
 package cn.edu.hitsz.compiler;
 
-import cn.edu.hitsz.compiler.asm.AssemblyGenerator;
-import cn.edu.hitsz.compiler.lexer.LexicalAnalyzer;
 import cn.edu.hitsz.compiler.lexer.TokenKind;
-import cn.edu.hitsz.compiler.parser.IRGenerator;
-import cn.edu.hitsz.compiler.parser.ProductionCollector;
-import cn.edu.hitsz.compiler.parser.SemanticAnalyzer;
-import cn.edu.hitsz.compiler.parser.SyntaxAnalyzer;
-import cn.edu.hitsz.compiler.parser.table.GrammarInfo;
+import cn.edu.hitsz.compiler.parser.table.BinaryTableCache;
 import cn.edu.hitsz.compiler.parser.table.LRTable;
+import cn.edu.hitsz.compiler.parser.table.TableGenerator;
 import cn.edu.hitsz.compiler.parser.table.TableLoader;
-import cn.edu.hitsz.compiler.symtab.SymbolTable;
+import cn.edu.hitsz.compiler.utils.CompilerOptions;
 import cn.edu.hitsz.compiler.utils.FilePathConfig;
-import cn.edu.hitsz.compiler.utils.FileUtils;
-import cn.edu.hitsz.compiler.utils.IREmulator;
 
-import java.util.Objects;
+import java.nio.file.Path;
 
 public class Main {
     public static void main(String[] args) throws Exception {
+        final var options = CompilerOptions.parse(args);
+
         // 构建符号表以供各部分使用
         TokenKind.loadTokenKinds(); // [<'int', 1>, <'return', 2> ...]
-        final SymbolTable symbolTable = new SymbolTable();
-
-        // 词法分析
-        final LexicalAnalyzer lexer = new LexicalAnalyzer(symbolTable);
-        lexer.loadFile(FilePathConfig.SRC_CODE_PATH);
-        lexer.run();
-        lexer.dumpTokens(FilePathConfig.TOKEN_PATH);
-        final var tokens = lexer.getTokens();
-        symbolTable.dumpTable(FilePathConfig.OLD_SYMBOL_TABLE);
-
-        // 读取第三方程序构造的 LR 分析表
-        final TableLoader tableLoader = new TableLoader();
-        final LRTable lrTable = tableLoader.load(FilePathConfig.LR1_TABLE_PATH);
-
-        // // 或使用框架自带部分直接从 grammar.txt 构造 LR 分析表
-        // final var tableGenerator = new TableGenerator();
-        // tableGenerator.run();
-        // final var lrTable = tableGenerator.getTable();
-        // lrTable.dumpTable("data/out/lrTable.csv");
-
-        // 加载 LR 分析驱动程序
-        final SyntaxAnalyzer parser = new SyntaxAnalyzer(symbolTable);
-        parser.loadTokens(tokens);
-        parser.loadLRTable(lrTable);
-
-        // 加入生成规约列表的 Observer
-        final ProductionCollector productionCollector = new ProductionCollector(GrammarInfo.getBeginProduction());
-        parser.registerObserver(productionCollector);
-
-        // 加入用作语义检查的 Observer
-        final var semanticAnalyzer = new SemanticAnalyzer();
-        parser.registerObserver(semanticAnalyzer);
-
-        // 加入用作 IR 生成的 Observer
-        final var irGenerator = new IRGenerator();
-        parser.registerObserver(irGenerator);
-
-        // 执行语法解析并在解析过程中依次调用各 Observer
-        parser.run();
-
-        // 各 Observer 输出结果
-        productionCollector.dumpToFile(FilePathConfig.PARSER_PATH);
-        symbolTable.dumpTable(FilePathConfig.NEW_SYMBOL_TABLE);
-        final var instructions = irGenerator.getIR();
-        irGenerator.dumpIR(FilePathConfig.INTERMEDIATE_CODE_PATH);
 
-        // 模拟执行 IR 并输出结果
-        final var emulator = IREmulator.load(instructions);
-        FileUtils.writeFile(FilePathConfig.EMULATE_RESULT,
-                emulator.execute().map(Objects::toString).orElse("No return value"));
+        // 获得 LR 分析表
+        final LRTable lrTable;
+        final var tableMode = options.get("table", "csv");
+        if (!tableMode.equals("csv")) {
+            // 使用框架自带部分直接从 grammar.txt 构造 LR 分析表, 可选 slr, lr1 与 lalr
+            final var tableGenerator = new TableGenerator(TableGenerator.Mode.valueOf(tableMode.toUpperCase()));
+            if (options.has("no-dump")) {
+                tableGenerator.generate();
+                lrTable = tableGenerator.getTable();
+            } else {
+                tableGenerator.run();
+                lrTable = tableGenerator.getTable();
+                lrTable.dumpTable("data/out/lrTable.csv");
+            }
+        } else if (options.has("table-cache")) {
+            // 使用 CSV 旁的二进制缓存, 输入文件变化时自动退回读取 CSV
+            lrTable = new BinaryTableCache().load(FilePathConfig.LR1_TABLE_PATH);
+        } else {
+            // 读取第三方程序构造的 LR 分析表
+            final TableLoader tableLoader = new TableLoader();
+            lrTable = tableLoader.load(FilePathConfig.LR1_TABLE_PATH);
+        }
 
-        // 由 IR 生成汇编
-        final var asmGenerator = new AssemblyGenerator();
-        asmGenerator.loadIR(instructions);
-        asmGenerator.run();
-        asmGenerator.dump(FilePathConfig.ASSEMBLY_LANGUAGE_PATH);
+        if (options.has("server") || options.get("server", null) != null) {
+            // 常驻的编译服务: --server 从标准输入读请求, --server=<path> 在 Unix 域套接字上监听
+            final var threads = Integer.parseInt(
+                options.get("threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+            final var server = new CompileServer(lrTable, options, threads, Integer.parseInt(options.get("queue", "64")));
+            final var socketPath = options.get("server", null);
+            if (socketPath != null) {
+                server.listen(Path.of(socketPath));
+            } else {
+                server.serve(System.in, System.out);
+            }
+            server.shutdown();
+        } else if (options.get("batch", null) != null) {
+            // 批量编译一个目录下的所有源文件, 各编译共用上面的分析表
+            final var parallelism = Integer.parseInt(
+                options.get("threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+            final var batch = new BatchCompiler(lrTable, options, parallelism);
+            final var results = batch.compileAll(options.get("batch", null), options.get("batch-out", "data/out/batch"));
+            final var failed = results.stream().filter(result -> result.error() != null).count();
+            System.out.printf("Compiled %d files, %d failed%n", results.size(), failed);
+        } else {
+            new Compilation(FilePathConfig.SRC_CODE_PATH, "data/out", lrTable, options)
+                .withCache(StatementCache.of(options))
+                .run();
+        }
     }
 }
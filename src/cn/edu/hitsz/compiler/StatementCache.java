@@ -0,0 +1,371 @@
+package cn.edu.hitsz.compiler;
+
+import cn.edu.hitsz.compiler.ir.IRLabel;
+import cn.edu.hitsz.compiler.ir.IRVariable;
+import cn.edu.hitsz.compiler.ir.Instruction;
+import cn.edu.hitsz.compiler.lexer.CharPointer;
+import cn.edu.hitsz.compiler.lexer.LexicalAnalyzer;
+import cn.edu.hitsz.compiler.lexer.Token;
+import cn.edu.hitsz.compiler.lexer.TokenKind;
+import cn.edu.hitsz.compiler.parser.ActionObserver;
+import cn.edu.hitsz.compiler.parser.IRGenerator;
+import cn.edu.hitsz.compiler.parser.SemanticAnalyzer;
+import cn.edu.hitsz.compiler.parser.SyntaxAnalyzer;
+import cn.edu.hitsz.compiler.parser.table.GrammarInfo;
+import cn.edu.hitsz.compiler.parser.table.LRTable;
+import cn.edu.hitsz.compiler.parser.table.Production;
+import cn.edu.hitsz.compiler.parser.table.Status;
+import cn.edu.hitsz.compiler.symtab.SourceCodeType;
+import cn.edu.hitsz.compiler.symtab.SymbolTable;
+import cn.edu.hitsz.compiler.utils.CompilerOptions;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * 按语句缓存的增量编译前端
+ * <br>
+ * 源语言的程序是一串以分号结尾的语句 (S_list), 各语句的分析互不影响: 分号总是单独成为一个 token, 所以源代码可以在每个分号之后切开,
+ * 各段的 token 拼起来就是整个程序的 token; 每条语句内部的规约序列只取决于它自己的 token; 每条语句生成的 IR 也只取决于它自己,
+ * 只有 IR 变量的编号与临时变量的名字取决于前面的语句创建了多少变量.
+ * <br>
+ * 因此以每段语句的文本 (连同前面的空白与结尾的分号) 为键, 缓存它的 token, 语句内部的规约序列, 它声明的变量, 以及在独立的编号空间中
+ * 生成的 IR 片段. 编译时只有缓存中没有的语句需要做词法与语法分析, 整个程序的结果由各语句的结果拼接得到, IR 片段中的变量按整体编译时
+ * 的创建顺序重新编号, 因此与完整的编译流程的结果完全相同.
+ * <br>
+ * 语句对符号表的影响 (登记标识符, 为声明的变量设置类型) 在拼接时按语句的顺序重放, 重复声明之类的错误也就在重放时照常报告,
+ * 所以缓存的键不必包含符号表的状态. 某段语句不能单独完成分析 (词法或语法错误等), 或源代码不能按语句切开时, 应退回完整的编译流程,
+ * 以报告与之完全相同的错误.
+ * <br>
+ * 缓存可以被同时进行的多个编译共享, 超过容量时淘汰最久未使用的语句.
+ */
+public class StatementCache {
+    /**
+     * @param capacity 最多缓存的语句数
+     */
+    public StatementCache(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @param options 编译选项
+     * @return 指定了 --incremental 时按 --cache-size (默认 65536 条语句) 创建的缓存, 否则为 null
+     */
+    public static StatementCache of(CompilerOptions options) {
+        if (!options.has("incremental")) {
+            return null;
+        }
+        return new StatementCache(Integer.parseInt(options.get("cache-size", "65536")));
+    }
+
+    /**
+     * 切分好的程序, 各方法按完整的编译流程中的顺序调用
+     */
+    public final class Program {
+        /**
+         * @return 整个程序的 token, 最后一个为 EOF
+         */
+        public List<Token> tokens() {
+            final var result = new ArrayList<Token>();
+            for (final var fragment : fragments) {
+                result.addAll(fragment.tokens());
+            }
+            result.add(Token.eof());
+            return result;
+        }
+
+        /**
+         * 重放词法分析对符号表的影响: 登记除标号之外的所有标识符. 标号与它前后的 token 总在同一条语句中
+         */
+        public void registerSymbols(SymbolTable symbolTable) {
+            final var id = TokenKind.fromString("id");
+            for (final var fragment : fragments) {
+                final var tokens = fragment.tokens();
+                for (int i = 0; i < tokens.size(); i++) {
+                    final var token = tokens.get(i);
+                    if (token.getKind() == id && !isLabel(tokens, i) && !symbolTable.has(token.getText())) {
+                        symbolTable.add(token.getText());
+                    }
+                }
+            }
+        }
+
+        /**
+         * 重放语义分析对符号表的影响: 按顺序为各语句声明的变量设置类型
+         *
+         * @throws RuntimeException 变量被重复声明
+         */
+        public void declareSymbols(SymbolTable symbolTable) {
+            for (final var fragment : fragments) {
+                if (fragment.declared() != null) {
+                    symbolTable.get(fragment.declared()).setType(fragment.declaredType());
+                }
+            }
+        }
+
+        /**
+         * @return 整个程序的规约序列
+         */
+        public List<Production> reductions() {
+            final var productions = GrammarInfo.getProductionsInOrder();
+            final var result = new ArrayList<Production>();
+            for (final var fragment : fragments) {
+                result.addAll(fragment.reductions());
+            }
+            // S_list 是右递归的, 所有语句都移进之后才从最后一条语句开始依次规约
+            result.add(productions.get(LIST_END - 1));
+            for (int i = 1; i < fragments.size(); i++) {
+                result.add(productions.get(LIST_CONS - 1));
+            }
+            result.add(GrammarInfo.getBeginProduction());
+            return result;
+        }
+
+        /**
+         * 拼接各语句的 IR 片段, 其中的变量在当前的编号空间中按整体编译时的顺序创建, 同名的标号换成整个程序共用的同一个标号
+         *
+         * @return 整个程序的 IR
+         */
+        public List<Instruction> instructions() {
+            final var result = new ArrayList<Instruction>();
+            final var labels = new HashMap<String, IRLabel>();
+            for (final var fragment : fragments) {
+                final var relocated = new IRVariable[fragment.variables().size()];
+                for (final var variable : fragment.variables()) {
+                    relocated[variable.getId()] = variable.isTemp() ? IRVariable.temp() : IRVariable.named(variable.getName());
+                }
+                for (final var instruction : fragment.instructions()) {
+                    result.add(relocate(instruction, relocated, labels));
+                }
+            }
+            return result;
+        }
+
+        private final List<Fragment> fragments;
+
+        private Program(List<Fragment> fragments) {
+            this.fragments = fragments;
+        }
+    }
+
+    /**
+     * 把源代码切分成语句, 缓存中没有的语句单独进行分析并加入缓存
+     * <br>
+     * 源代码通过 CharPointer 逐字符读取, 映射的文件不会整体解码成 String, 只有每条语句的文本 (缓存的键) 会被取出.
+     *
+     * @param source  指向源代码的指针
+     * @param lrTable LR 分析表
+     * @return 切分好的程序; 源代码不能按语句切开, 或有语句不能单独完成分析时为空, 这时应使用完整的编译流程
+     * @throws RuntimeException 源代码不是合法的 UTF-8
+     */
+    public Optional<Program> split(CharPointer source, LRTable lrTable) {
+        final var fragments = new ArrayList<Fragment>();
+        int begin = source.position();
+        boolean trailing = false; // 上一个分号之后是否有非空白的字符
+        while (source.inBound()) {
+            final char ch = source.next();
+            if (ch != ';') {
+                trailing |= !Character.isWhitespace(ch);
+                continue;
+            }
+            final var text = source.text(begin, source.position());
+            var fragment = lookup(text);
+            if (fragment == null) {
+                try {
+                    fragment = analyze(text, lrTable);
+                } catch (RuntimeException e) {
+                    return Optional.empty();
+                }
+                store(text, fragment);
+            }
+            fragments.add(fragment);
+            begin = source.position();
+            trailing = false;
+        }
+
+        // 最后一个分号之后只能是空白, 至少要有一条语句
+        if (trailing || fragments.isEmpty()) {
+            return Optional.empty();
+        }
+        return Optional.of(new Program(fragments));
+    }
+
+    //==================== 以下为实现相关代码 ==============================//
+
+    // S_list -> S Semicolon S_list 与 S_list -> S Semicolon 的编号
+    private static final int LIST_CONS = 2;
+    private static final int LIST_END = 3;
+
+    /**
+     * 一条语句的分析结果
+     *
+     * @param tokens       不含 EOF 的 token
+     * @param reductions   语句内部的规约序列
+     * @param declared     声明的变量, 不是声明语句时为 null
+     * @param declaredType 声明的类型
+     * @param variables    独立编号空间中创建的全部 IR 变量, 按 id 排列, 即创建的顺序
+     * @param instructions 使用上述变量的 IR 片段
+     */
+    private record Fragment(List<Token> tokens, List<Production> reductions, String declared,
+                            SourceCodeType declaredType, List<IRVariable> variables, List<Instruction> instructions) {
+    }
+
+    private final int capacity;
+    private final Map<String, Fragment> fragments = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Fragment> eldest) {
+            return size() > capacity;
+        }
+    };
+
+    private Fragment lookup(String text) {
+        synchronized (fragments) {
+            return fragments.get(text);
+        }
+    }
+
+    private void store(String text, Fragment fragment) {
+        synchronized (fragments) {
+            fragments.put(text, fragment);
+        }
+    }
+
+    /**
+     * 把一条语句当作只有一条语句的程序, 用自己的符号表与 IR 变量编号空间完成分析
+     */
+    private static Fragment analyze(String text, LRTable lrTable) {
+        final var symbolTable = new SymbolTable();
+        final var lexer = new LexicalAnalyzer(symbolTable);
+        lexer.loadSource(text);
+        lexer.run();
+        final var tokens = new ArrayList<Token>();
+        lexer.getTokens().forEach(tokens::add);
+
+        return IRVariable.withNamespace(new IRVariable.Namespace(), () -> {
+            final var parser = new SyntaxAnalyzer(symbolTable);
+            parser.loadTokens(tokens);
+            parser.loadLRTable(lrTable);
+            final var recorder = new ReductionRecorder();
+            parser.registerObserver(recorder);
+            parser.registerObserver(new SemanticAnalyzer());
+            final var irGenerator = new IRGenerator();
+            parser.registerObserver(irGenerator);
+            parser.run();
+
+            // 单条语句的程序最后两次规约是 S_list -> S Semicolon 与 P -> S_list, 不属于语句本身
+            final var reductions = recorder.reductions;
+            final int size = reductions.size();
+            if (!recorder.accepted || size < 2
+                || reductions.get(size - 2).index() != LIST_END
+                || !reductions.get(size - 1).equals(GrammarInfo.getBeginProduction())) {
+                throw new RuntimeException("Not a single statement: " + text);
+            }
+
+            // 语句创建的变量: 移进的每个不是标号的标识符, 以及作为运算结果的临时变量
+            final var id = TokenKind.fromString("id");
+            // 语句在自己的编号空间中分析, 其中创建过的变量都要找到
+            final var variables = new IRVariable[Math.max(IRVariable.count(), IRVariable.idBound(irGenerator.getIR()))];
+            String declared = null;
+            SourceCodeType declaredType = null;
+            for (int i = 0; i < tokens.size(); i++) {
+                final var token = tokens.get(i);
+                if (token.getKind() == id && !isLabel(tokens, i)) {
+                    final var variable = IRVariable.named(token.getText());
+                    variables[variable.getId()] = variable;
+                    final var type = symbolTable.get(token.getText()).getType();
+                    if (type != null) {
+                        declared = token.getText();
+                        declaredType = type;
+                    }
+                }
+            }
+            for (final var instruction : irGenerator.getIR()) {
+                if (instruction.getKind().hasResult() && instruction.getResult().isTemp()) {
+                    variables[instruction.getResult().getId()] = instruction.getResult();
+                }
+            }
+            for (final var variable : variables) {
+                if (variable == null) {
+                    throw new IllegalStateException("Unknown IR variable created in statement: " + text);
+                }
+            }
+
+            return new Fragment(
+                List.copyOf(tokens.subList(0, tokens.size() - 1)),
+                List.copyOf(reductions.subList(0, size - 2)),
+                declared,
+                declaredType,
+                List.of(variables),
+                List.copyOf(irGenerator.getIR()));
+        });
+    }
+
+    /**
+     * @return 第 index 个 token 是否为标号
+     */
+    private static boolean isLabel(List<Token> tokens, int index) {
+        return LexicalAnalyzer.isLabel(
+            index > 0 ? tokens.get(index - 1) : null,
+            tokens.get(index),
+            index + 1 < tokens.size() ? tokens.get(index + 1) : null);
+    }
+
+    /**
+     * @param relocated 以片段中变量的 id 为下标的新变量
+     * @param labels    整个程序中已有的标号, 按名字索引
+     * @return 把片段中的变量与标号换成新变量与新标号后的指令
+     */
+    private static Instruction relocate(Instruction instruction, IRVariable[] relocated, Map<String, IRLabel> labels) {
+        final var operands = instruction.getOperands().stream()
+            .map(operand -> operand instanceof IRVariable variable ? relocated[variable.getId()] : operand)
+            .toList();
+        return switch (instruction.getKind()) {
+            case ADD -> Instruction.createAdd(relocated[instruction.getResult().getId()], operands.get(0), operands.get(1));
+            case SUB -> Instruction.createSub(relocated[instruction.getResult().getId()], operands.get(0), operands.get(1));
+            case MUL -> Instruction.createMul(relocated[instruction.getResult().getId()], operands.get(0), operands.get(1));
+            case MOV -> Instruction.createMov(relocated[instruction.getResult().getId()], operands.get(0));
+            case RET -> Instruction.createRet(operands.get(0));
+            case BEQZ -> Instruction.createBeqz(operands.get(0), relocate(instruction.getLabel(), labels));
+            case BGTZ -> Instruction.createBgtz(operands.get(0), relocate(instruction.getLabel(), labels));
+            case LABEL -> Instruction.createLabel(relocate(instruction.getLabel(), labels));
+            case JMP -> Instruction.createJmp(relocate(instruction.getLabel(), labels));
+        };
+    }
+
+    private static IRLabel relocate(IRLabel label, Map<String, IRLabel> labels) {
+        return labels.computeIfAbsent(label.getName(), IRLabel::named);
+    }
+
+    /**
+     * 记录规约序列, ProductionCollector 只能输出到文件
+     */
+    private static class ReductionRecorder implements ActionObserver {
+        private final List<Production> reductions = new ArrayList<>();
+        private boolean accepted = false;
+
+        @Override
+        public void whenShift(Status currentStatus, Token currentToken) {
+            // do nothing
+        }
+
+        @Override
+        public void whenReduce(Status currentStatus, Production production) {
+            reductions.add(production);
+        }
+
+        @Override
+        public void whenAccept(Status currentStatus) {
+            reductions.add(GrammarInfo.getBeginProduction());
+            accepted = true;
+        }
+
+        @Override
+        public void setSymbolTable(SymbolTable table) {
+            // do nothing
+        }
+    }
+}
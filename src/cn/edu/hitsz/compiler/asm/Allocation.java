@@ -0,0 +1,105 @@
+package cn.edu.hitsz.compiler.asm;
+
+import cn.edu.hitsz.compiler.ir.IRVariable;
+
+import java.util.Arrays;
+
+/**
+ * 寄存器分配的结果: 每个变量要么在一个寄存器里, 要么被溢出到栈帧中的一个 4 字节槽位上
+ * <br>
+ * 内部用以 IRVariable 的 id 为下标的数组存放.
+ */
+public class Allocation {
+    /**
+     * @param variable 变量
+     * @param register 分配给它的寄存器
+     */
+    public void assignRegister(IRVariable variable, String register) {
+        ensureCapacity(variable.getId());
+        registers[variable.getId()] = register;
+        spillSlots[variable.getId()] = -1;
+    }
+
+    /**
+     * 把变量溢出到一个新的栈槽上
+     *
+     * @param variable 变量
+     */
+    public void spill(IRVariable variable) {
+        ensureCapacity(variable.getId());
+        registers[variable.getId()] = null;
+        spillSlots[variable.getId()] = spillCount++;
+    }
+
+    /**
+     * 把变量溢出到另一个已溢出变量的栈槽上, 用于活跃范围互不冲突的变量 (比如被合并的 MOV 两端)
+     *
+     * @param variable 变量
+     * @param owner    已被溢出的变量
+     */
+    public void spillTo(IRVariable variable, IRVariable owner) {
+        if (!isSpilled(owner)) {
+            throw new RuntimeException("Variable is not spilled: " + owner);
+        }
+        ensureCapacity(variable.getId());
+        registers[variable.getId()] = null;
+        spillSlots[variable.getId()] = spillSlots[owner.getId()];
+    }
+
+    /**
+     * @param variable 变量
+     * @return 变量所在的寄存器, 被溢出或从未分配时为 null
+     */
+    public String registerOf(IRVariable variable) {
+        return variable.getId() < registers.length ? registers[variable.getId()] : null;
+    }
+
+    /**
+     * @param variable 变量
+     * @return 变量是否被溢出到了栈上
+     */
+    public boolean isSpilled(IRVariable variable) {
+        return variable.getId() < spillSlots.length && spillSlots[variable.getId()] >= 0;
+    }
+
+    /**
+     * @param variable 被溢出的变量
+     * @return 其栈槽相对于 sp 的偏移
+     */
+    public int spillOffset(IRVariable variable) {
+        if (!isSpilled(variable)) {
+            throw new RuntimeException("Variable is not spilled: " + variable);
+        }
+        return spillSlots[variable.getId()] * 4;
+    }
+
+    /**
+     * @return 使用的栈槽数, 即溢出的次数
+     */
+    public int spillCount() {
+        return spillCount;
+    }
+
+    /**
+     * @return 存放溢出变量所需的栈帧大小, 按 16 字节对齐
+     */
+    public int frameSize() {
+        return (spillCount * 4 + 15) / 16 * 16;
+    }
+
+    //==================== 以下为实现相关代码 ==============================//
+
+    private String[] registers = new String[0];
+    private int[] spillSlots = new int[0];
+    private int spillCount = 0;
+
+    private void ensureCapacity(int id) {
+        if (id >= registers.length) {
+            final int oldLength = registers.length;
+            final int capacity = Math.max(id + 1, oldLength * 2);
+            registers = Arrays.copyOf(registers, capacity);
+            spillSlots = Arrays.copyOf(spillSlots, capacity);
+            Arrays.fill(spillSlots, oldLength, capacity, -1);
+        }
+    }
+}
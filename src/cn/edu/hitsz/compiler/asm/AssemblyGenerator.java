@@ -1,15 +1,19 @@
 package cn.edu.hitsz.compiler.asm;
 
 // import cn.edu.hitsz.compiler.NotImplementedException;
+import cn.edu.hitsz.compiler.ir.ControlFlowGraph;
+import cn.edu.hitsz.compiler.ir.IRImmediate;
+import cn.edu.hitsz.compiler.ir.IRLabel;
 import cn.edu.hitsz.compiler.ir.IRValue;
+import cn.edu.hitsz.compiler.ir.IRVariable;
 import cn.edu.hitsz.compiler.ir.Instruction;
+import cn.edu.hitsz.compiler.ir.InstructionKind;
+import cn.edu.hitsz.compiler.ir.Liveness;
+import cn.edu.hitsz.compiler.utils.DumpWriter;
 
-import java.io.FileWriter;
-import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 
 /**
  * TODO: 实验四: 实现汇编生成
@@ -30,13 +34,27 @@ public class AssemblyGenerator {
     /* ---------- fields ---------- */
 
     private List<Instruction> instructions;
-    private final Map<Integer, String> reg = new HashMap<>();
-    private final Map<String, Integer> var = new HashMap<>();
+    private Liveness liveness;
+    private final RegisterAllocator allocator;
+    private Allocation allocation;
+    // 标识符中不会出现 '.', 所以不会与 IR 中的标号重名
+    private static final String EXIT_LABEL = ".Lmain.exit";
     private final List<String> assembly = new ArrayList<>(
             List.of("\t.text\n\t.align 1\n\t.globl main\n\t.type main, @function\nmain:"));
 
     /* ---------- func ---------- */
 
+    public AssemblyGenerator() {
+        this(new LinearScanAllocator());
+    }
+
+    /**
+     * @param allocator 使用的寄存器分配器
+     */
+    public AssemblyGenerator(RegisterAllocator allocator) {
+        this.allocator = allocator;
+    }
+
     /**
      * 加载前端提供的中间代码
      * <br>
@@ -46,8 +64,15 @@ public class AssemblyGenerator {
      * @param originInstructions 前端提供的中间代码
      */
     public void loadIR(List<Instruction> originInstructions) {
-        // TODO: 读入前端提供的中间代码并生成所需要的信息
-        instructions = originInstructions;
+        // 不可达的基本块 (比如直线代码中第一条 RET 之后的指令) 不会被执行, 也就不用生成
+        ControlFlowGraph graph = ControlFlowGraph.build(originInstructions);
+        instructions = new ArrayList<>();
+        for (ControlFlowGraph.BasicBlock block : graph.blocks()) {
+            if (graph.isReachable(block.index())) {
+                instructions.addAll(originInstructions.subList(block.begin(), block.end()));
+            }
+        }
+        liveness = Liveness.analyze(instructions);
     }
 
     /**
@@ -60,88 +85,125 @@ public class AssemblyGenerator {
      * 成前完成建立, 与代码生成的过程相关的信息可自行设计数据结构进行记录并动态维护.
      */
     public void run() {
-        // TODO: 执行寄存器分配与代码生成
-        for (Instruction ins : instructions) {
-            boolean hasReturn = false;
+        // 先根据活跃变量分析完成寄存器分配, 再逐条生成代码
+        allocation = allocator.allocate(liveness);
+        final int frameSize = allocation.frameSize();
+        if (frameSize > 0) {
+            // 栈帧超过 2048 字节时调整量放不进 addi, 借临时寄存器完成
+            final var prologue = InstructionSelector.addImmediate("sp", "sp", -frameSize, scratch(0));
+            for (int i = 0; i < prologue.size() - 1; i++) {
+                assembly.add("\t" + prologue.get(i));
+            }
+            assembly.add("\t%s\t\t#  spill slots".formatted(prologue.getLast()));
+        }
+
+        boolean jumpsToExit = false;
+        for (int i = 0; i < instructions.size(); i++) {
+            Instruction ins = instructions.get(i);
             switch (ins.getKind()) {
                 case ADD -> {
-                    int resultReg = getReg(ins.getResult().toString());
                     List<IRValue> operands = ins.getOperands();
-                    String ope2 = operands.getLast().toString();
-                    int reg1, reg2;
-                    if (operands.getFirst().isImmediate()) {
-                        reg1 = getReg("temp1");
-                        assembly.add("\tli x%d, %s".formatted(reg1, operands.getFirst().toString()));
-                    } else {
-                        reg1 = getReg(ins.getOperands().getFirst().toString());
+                    IRValue lhs = operands.getFirst();
+                    IRValue rhs = operands.getLast();
+                    // 加法可交换, 尽量把立即数放在右边以使用 addi
+                    if (lhs.isImmediate() && !rhs.isImmediate()) {
+                        lhs = operands.getLast();
+                        rhs = operands.getFirst();
                     }
-                    if (operands.getLast().isImmediate()) {
-                        assembly.add("\taddi x%d, x%d, %s\t\t#  %s".formatted(resultReg, reg1, ope2, ins.toString()));
+                    String resultReg = target(ins.getResult());
+                    String reg1 = use(lhs, 0);
+                    if (rhs instanceof IRImmediate immediate) {
+                        emit(InstructionSelector.addImmediate(resultReg, reg1, immediate.getValue(), scratch(1)), ins);
                     } else {
-                        reg2 = getReg(ope2);
-                        assembly.add("\tadd x%d, x%d, x%d\t\t#  %s".formatted(resultReg, reg1, reg2, ins.toString()));
+                        emit("add %s, %s, %s".formatted(resultReg, reg1, use(rhs, 1)), ins);
                     }
+                    store(ins.getResult(), resultReg);
                 }
                 case SUB -> {
-                    int resultReg = getReg(ins.getResult().toString());
-                    List<IRValue> operands = ins.getOperands();
-                    String ope2 = operands.getLast().toString();
-                    int reg1, reg2;
-                    if (operands.getFirst().isImmediate()) {
-                        reg1 = getReg("temp1");
-                        assembly.add("\tli x%d, %s".formatted(reg1, operands.getFirst().toString()));
-                    } else {
-                        reg1 = getReg(ins.getOperands().getFirst().toString());
-                    }
-                    if (operands.getLast().isImmediate()) {
-                        assembly.add("\tsubi x%d, x%d, %s\t\t#  %s".formatted(resultReg, reg1, ope2, ins.toString()));
+                    String resultReg = target(ins.getResult());
+                    if (ins.getRHS() instanceof IRImmediate immediate) {
+                        // 减去立即数即加上其相反数
+                        String reg1 = use(ins.getLHS(), 0);
+                        emit(InstructionSelector.subImmediate(resultReg, reg1, immediate.getValue(), scratch(1)), ins);
+                    } else if (ins.getLHS() instanceof IRImmediate immediate) {
+                        String reg2 = use(ins.getRHS(), 0);
+                        emit(InstructionSelector.reverseSubImmediate(resultReg, immediate.getValue(), reg2, scratch(1)), ins);
                     } else {
-                        reg2 = getReg(ope2);
-                        assembly.add("\tsub x%d, x%d, x%d\t\t#  %s".formatted(resultReg, reg1, reg2, ins.toString()));
+                        emit("sub %s, %s, %s".formatted(resultReg, use(ins.getLHS(), 0), use(ins.getRHS(), 1)), ins);
                     }
+                    store(ins.getResult(), resultReg);
                 }
                 case MUL -> {
-                    int resultReg = getReg(ins.getResult().toString());
-                    List<IRValue> operands = ins.getOperands();
-                    String ope2 = operands.getLast().toString();
-                    int reg1, reg2;
-                    if (operands.getFirst().isImmediate()) {
-                        reg1 = getReg("temp1");
-                        assembly.add("\tli x%d, %s".formatted(reg1, operands.getFirst().toString()));
-                    } else {
-                        reg1 = getReg(ins.getOperands().getFirst().toString());
+                    IRValue lhs = ins.getLHS();
+                    IRValue rhs = ins.getRHS();
+                    // 乘法可交换, 尽量把立即数放在右边以做强度削弱
+                    if (lhs.isImmediate() && !rhs.isImmediate()) {
+                        lhs = ins.getRHS();
+                        rhs = ins.getLHS();
                     }
-                    if (operands.getLast().isImmediate()) {
-                        reg2 = getReg("temp2");
-                        assembly.add("\tli x%d, %s".formatted(reg1, ope2));
+                    String resultReg = target(ins.getResult());
+                    String reg1 = use(lhs, 0);
+                    if (rhs instanceof IRImmediate immediate) {
+                        emit(InstructionSelector.mulImmediate(resultReg, reg1, immediate.getValue(), scratch(1)), ins);
                     } else {
-                        reg2 = getReg(ope2);
+                        emit("mul %s, %s, %s".formatted(resultReg, reg1, use(rhs, 1)), ins);
                     }
-                    assembly.add("\tmul x%d, x%d, x%d\t\t#  %s".formatted(resultReg, reg1, reg2, ins.toString()));
+                    store(ins.getResult(), resultReg);
                 }
                 case MOV -> {
-                    int resultReg = getReg(ins.getResult().toString());
-                    List<IRValue> operands = ins.getOperands();
-                    String ope = operands.getFirst().toString();
-                    if (operands.getFirst().isImmediate()) {
-                        assembly.add("\tli x%d, %s\t\t#  %s".formatted(resultReg, ope, ins.toString()));
+                    IRValue from = ins.getFrom();
+                    if (from instanceof IRVariable variable && allocation.isSpilled(variable)
+                            && allocation.isSpilled(ins.getResult())
+                            && allocation.spillOffset(variable) == allocation.spillOffset(ins.getResult())) {
+                        // 两端共用一个栈槽
+                        continue;
+                    }
+                    String resultReg = target(ins.getResult());
+                    if (from instanceof IRImmediate immediate) {
+                        emit(InstructionSelector.loadImmediate(resultReg, immediate.getValue()), ins);
                     } else {
-                        assembly.add("\tmv x%d, x%d\t\t#  %s".formatted(resultReg, getReg(ope), ins.toString()));
+                        String fromReg = use(from, 0);
+                        // 两端分到了同一个寄存器 (比如被图着色分配合并了) 时不需要 mv
+                        if (!fromReg.equals(resultReg)) {
+                            emit("mv %s, %s".formatted(resultReg, fromReg), ins);
+                        }
                     }
+                    store(ins.getResult(), resultReg);
                 }
                 case RET -> {
-                    List<IRValue> operands = ins.getOperands();
-                    String ope = operands.getFirst().toString();
-                    if (operands.getFirst().isImmediate()) {
-                        assembly.add("\tli x10, %s\t\t#  %s".formatted(ope, ins.toString()));
+                    IRValue value = ins.getReturnValue();
+                    if (value instanceof IRImmediate immediate) {
+                        emit(InstructionSelector.loadImmediate("a0", immediate.getValue()), ins);
                     } else {
-                        assembly.add("\tmv x10, x%d\t\t#  %s".formatted(getReg(ope), ins.toString()));
+                        emit("mv a0, %s".formatted(use(value, 0)), ins);
+                    }
+                    // 不是最后一条指令的 RET 跳到函数末尾去恢复栈指针并退出
+                    if (i != instructions.size() - 1) {
+                        assembly.add("\tj %s".formatted(EXIT_LABEL));
+                        jumpsToExit = true;
+                    }
+                }
+                case LABEL -> assembly.add("%s:\t\t#  %s".formatted(label(ins.getLabel()), ins));
+                case JMP -> {
+                    // 跳到紧接着的标号的 JMP 不需要生成
+                    if (i + 1 < instructions.size() && instructions.get(i + 1).getKind() == InstructionKind.LABEL
+                            && instructions.get(i + 1).getLabel().equals(ins.getLabel())) {
+                        continue;
                     }
-                    hasReturn = true;
+                    emit("j %s".formatted(label(ins.getLabel())), ins);
                 }
+                case BEQZ -> emit("beqz %s, %s".formatted(use(ins.getCondition(), 0), label(ins.getLabel())), ins);
+                case BGTZ -> emit("bgtz %s, %s".formatted(use(ins.getCondition(), 0), label(ins.getLabel())), ins);
+            }
+        }
+
+        if (jumpsToExit) {
+            assembly.add(EXIT_LABEL + ":");
+        }
+        if (frameSize > 0) {
+            for (String asm : InstructionSelector.addImmediate("sp", "sp", frameSize, scratch(0))) {
+                assembly.add("\t" + asm);
             }
-            if (hasReturn)
-                break;
         }
         assembly.add("\tli a7, 93\n\tecall #exit\n\t.size main, .-main");
     }
@@ -152,34 +214,93 @@ public class AssemblyGenerator {
      * @param path 输出文件路径
      */
     public void dump(String path) {
-        // TODO: 输出汇编代码到文件
-        try (FileWriter writer = new FileWriter(path)) {
-            for (String asm : assembly) {
-                writer.write(asm + "\n");
+        try (final var out = DumpWriter.open(path)) {
+            for (final String asm : assembly) {
+                out.append(asm).append('\n');
             }
-        } catch (IOException e) {
-            e.printStackTrace();
         }
     }
 
     /**
-     * 寄存器分配很简单, 应该这么说: 不会考虑寄存器溢出的情况 😋
-     * 
-     * @param varName
-     * @return
+     * @return 生成的汇编代码, 在 run 之后可用. 与 dump 输出的内容相同, 一个元素可能包含多行
+     */
+    public List<String> getAssembly() {
+        return Collections.unmodifiableList(assembly);
+    }
+
+    /**
+     * @return 寄存器分配的结果, 在 run 之后可用
+     */
+    public Allocation getAllocation() {
+        return allocation;
+    }
+
+    /**
+     * 把操作数放进寄存器: 立即数装入临时寄存器, 溢出的变量用 lw 从栈上读入临时寄存器
+     *
+     * @param value   操作数
+     * @param scratch 可以使用的临时寄存器的编号
+     * @return 操作数所在的寄存器
      */
-    private int getReg(String varName) {
-        if (var.get(varName) == null) {
-            for (int i = 1; i < 32; i++) {
-                if (reg.get(i) == null) {
-                    var.put(varName, i);
-                    reg.put(i, varName);
-                    return i;
+    private String use(IRValue value, int scratch) {
+        String scratchReg = scratch(scratch);
+        if (value instanceof IRVariable variable) {
+            if (allocation.isSpilled(variable)) {
+                for (String asm : InstructionSelector.loadWord(scratchReg, allocation.spillOffset(variable))) {
+                    assembly.add("\t" + asm);
                 }
+                return scratchReg;
+            }
+            return allocation.registerOf(variable);
+        }
+
+        for (String asm : InstructionSelector.loadImmediate(scratchReg, ((IRImmediate) value).getValue())) {
+            assembly.add("\t" + asm);
+        }
+        return scratchReg;
+    }
+
+    /**
+     * @return 写结果的寄存器, 溢出的变量先写到临时寄存器再由 store 写回栈上
+     */
+    private String target(IRVariable result) {
+        return allocation.isSpilled(result) ? RegisterAllocator.SCRATCH.getFirst() : allocation.registerOf(result);
+    }
+
+    private void store(IRVariable result, String reg) {
+        if (allocation.isSpilled(result)) {
+            // 结果已经算出, 两个临时寄存器中不存放 reg 的那个可以用来算地址
+            final String addressReg = reg.equals(scratch(1)) ? scratch(0) : scratch(1);
+            for (String asm : InstructionSelector.storeWord(reg, allocation.spillOffset(result), addressReg)) {
+                assembly.add("\t" + asm);
             }
-            throw new RuntimeException("No available register");
-        } else {
-            return var.get(varName);
         }
     }
+
+    private void emit(String asm, Instruction ins) {
+        assembly.add("\t%s\t\t#  %s".formatted(asm, ins));
+    }
+
+    /**
+     * 输出指令选择得到的一组指令, 注释标在最后一条上
+     */
+    private void emit(List<String> asms, Instruction ins) {
+        for (int i = 0; i < asms.size() - 1; i++) {
+            assembly.add("\t" + asms.get(i));
+        }
+        if (!asms.isEmpty()) {
+            emit(asms.getLast(), ins);
+        }
+    }
+
+    /**
+     * IR 中的标号对应的汇编标号. 汇编器把 .L 开头的标号视为局部标号, 不会导出到符号表中
+     */
+    private static String label(IRLabel label) {
+        return ".L" + label.getName();
+    }
+
+    private static String scratch(int index) {
+        return RegisterAllocator.SCRATCH.get(index);
+    }
 }
@@ -0,0 +1,344 @@
+package cn.edu.hitsz.compiler.asm;
+
+import cn.edu.hitsz.compiler.ir.IRVariable;
+import cn.edu.hitsz.compiler.ir.InstructionKind;
+import cn.edu.hitsz.compiler.ir.Liveness;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * 图着色寄存器分配 (Chaitin-Briggs)
+ * <ol>
+ *     <li>建图: 每条指令定值的变量与该指令之后活跃的所有变量冲突. 对 MOV x, y, x 不与 y 冲突, 以便合并</li>
+ *     <li>合并: 对每条变量到变量的 MOV, 若两端不冲突且满足 Briggs 条件 (合并后的结点的高度数邻居少于 K 个), 就把两端合并成一个结点,
+ *     这样它们分到同一个寄存器, 这条 MOV 就不用生成了</li>
+ *     <li>简化: 反复删去度数小于 K 的结点并压栈; 没有这样的结点时, 按溢出启发式选一个结点乐观地压栈, 而不是立即溢出.
+ *     三种启发式 (见 SpillHeuristic) 各做一遍简化与选择, 取溢出代价之和最小的结果</li>
+ *     <li>选择: 依次弹栈并分配一个邻居都没用的寄存器, 优先选与之有 MOV 关系的结点的寄存器; 实在没有空闲寄存器时才真正溢出</li>
+ * </ol>
+ * 溢出代价为变量在指令中出现 (读与写) 的次数. 溢出的变量由 AssemblyGenerator 借助保留的临时寄存器读写, 所以不需要重写代码再来一轮;
+ * 合并过的结点被溢出时其中的变量共用一个栈槽, 它们之间的 MOV 同样不用生成.
+ */
+public class GraphColoringAllocator implements RegisterAllocator {
+    public GraphColoringAllocator() {
+        this(ALLOCATABLE);
+    }
+
+    /**
+     * @param registers 可分配的寄存器, 主要用于在寄存器很少时观察溢出
+     */
+    public GraphColoringAllocator(List<String> registers) {
+        this.registers = List.copyOf(registers);
+    }
+
+    @Override
+    public Allocation allocate(Liveness liveness) {
+        final var variables = liveness.variables();
+        final int n = variables.size();
+        final int k = registers.size();
+        final var nodeOf = new int[IRVariable.idBound(liveness.instructions())];
+        for (int i = 0; i < n; i++) {
+            nodeOf[variables.get(i).getId()] = i;
+        }
+
+        // ============================== 建图 ==============================
+        final var adjacency = new BitSet[n];
+        for (int i = 0; i < n; i++) {
+            adjacency[i] = new BitSet(n);
+        }
+        final var cost = new int[n];
+        final var moves = new ArrayList<int[]>();
+
+        final var instructions = liveness.instructions();
+        // 在第一条指令之前就活跃的变量 (先用后定值) 两两冲突
+        final var entry = instructions.isEmpty() ? new BitSet() : liveness.blockIn(0);
+        for (int a = entry.nextSetBit(0); a >= 0; a = entry.nextSetBit(a + 1)) {
+            for (int b = entry.nextSetBit(a + 1); b >= 0; b = entry.nextSetBit(b + 1)) {
+                addEdge(adjacency, nodeOf[a], nodeOf[b]);
+            }
+        }
+
+        for (int i = 0; i < instructions.size(); i++) {
+            final var instruction = instructions.get(i);
+            for (final var operand : instruction.getOperands()) {
+                if (operand instanceof IRVariable variable) {
+                    cost[nodeOf[variable.getId()]]++;
+                }
+            }
+            if (!instruction.getKind().hasResult()) {
+                continue;
+            }
+
+            final int def = nodeOf[instruction.getResult().getId()];
+            cost[def]++;
+            if (instruction.getKind() == InstructionKind.MOV && instruction.getFrom() instanceof IRVariable from) {
+                moves.add(new int[]{def, nodeOf[from.getId()]});
+            }
+        }
+        liveness.forEachLiveOut((i, liveOut) -> {
+            final var instruction = instructions.get(i);
+            if (!instruction.getKind().hasResult()) {
+                return;
+            }
+
+            final int def = nodeOf[instruction.getResult().getId()];
+            final int moveSource = instruction.getKind() == InstructionKind.MOV
+                && instruction.getFrom() instanceof IRVariable from ? nodeOf[from.getId()] : -1;
+            for (int id = liveOut.nextSetBit(0); id >= 0; id = liveOut.nextSetBit(id + 1)) {
+                final int other = nodeOf[id];
+                if (other != def && other != moveSource) {
+                    addEdge(adjacency, def, other);
+                }
+            }
+        });
+
+        // ============================== 合并 ==============================
+        final var alias = new int[n];
+        for (int i = 0; i < n; i++) {
+            alias[i] = i;
+        }
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (final var move : moves) {
+                final int x = find(alias, move[0]);
+                final int y = find(alias, move[1]);
+                if (x == y || adjacency[x].get(y) || !briggs(adjacency, x, y, k)) {
+                    continue;
+                }
+
+                // 把 y 合并进 x
+                adjacency[x].or(adjacency[y]);
+                for (int other = adjacency[y].nextSetBit(0); other >= 0; other = adjacency[y].nextSetBit(other + 1)) {
+                    adjacency[other].clear(y);
+                    adjacency[other].set(x);
+                }
+                adjacency[y].clear();
+                adjacency[x].clear(x);
+                alias[y] = x;
+                cost[x] += cost[y];
+                changed = true;
+            }
+        }
+
+        // ============================== 简化与选择 ==============================
+        // 依次用几种溢出启发式着色, 取溢出代价之和最小的结果
+        int[] color = null;
+        long bestCost = Long.MAX_VALUE;
+        for (final var heuristic : SpillHeuristic.values()) {
+            final var candidate = simplifyAndSelect(adjacency, alias, moves, cost, k, heuristic);
+            long spillCost = 0;
+            for (int i = 0; i < n; i++) {
+                if (alias[i] == i && candidate[i] < 0) {
+                    spillCost += cost[i];
+                }
+            }
+            if (spillCost < bestCost) {
+                bestCost = spillCost;
+                color = candidate;
+            }
+        }
+
+        // 合并在一起的变量共用一个寄存器, 被溢出时也共用一个栈槽
+        final var allocation = new Allocation();
+        for (int i = 0; i < n; i++) {
+            if (alias[i] == i && color[i] < 0) {
+                allocation.spill(variables.get(i));
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            final int representative = find(alias, i);
+            if (color[representative] < 0) {
+                if (representative != i) {
+                    allocation.spillTo(variables.get(i), variables.get(representative));
+                }
+            } else {
+                allocation.assignRegister(variables.get(i), registers.get(color[representative]));
+            }
+        }
+        return allocation;
+    }
+
+    //==================== 以下为实现相关代码 ==============================//
+
+    private final List<String> registers;
+
+    /**
+     * 简化时选择乐观压栈结点的启发式 (Bernstein 等人的 "best of three"): 代价 / 度数, 代价 / 度数的平方,
+     * 代价 / 面积. 面积本应是活跃范围内各点的活跃变量数之和, 这里用尚未删去的邻居的 (当前) 度数之和近似
+     */
+    private enum SpillHeuristic {
+        COST_PER_DEGREE, COST_PER_DEGREE_SQUARED, COST_PER_AREA
+    }
+
+    /**
+     * 简化时维护每个结点在尚未删去的结点中的邻居与度数, 度数小于 K 的结点另放在一个工作表中, 面积随删除结点增量地更新,
+     * 不必在每次选择时重新扫描整个图
+     *
+     * @return 每个结点 (只对合并后的代表结点有意义) 的寄存器下标, 被溢出的为 -1
+     */
+    private static int[] simplifyAndSelect(BitSet[] adjacency, int[] alias, List<int[]> moves, int[] cost, int k,
+                                           SpillHeuristic heuristic) {
+        final int n = adjacency.length;
+        final var neighbors = new BitSet[n];
+        final var degree = new int[n];
+        final var remaining = new BitSet(n);
+        final var lowDegree = new BitSet(n);
+        final var stack = new ArrayDeque<Integer>();
+        for (int i = 0; i < n; i++) {
+            if (alias[i] == i) {
+                neighbors[i] = (BitSet) adjacency[i].clone();
+                degree[i] = neighbors[i].cardinality();
+                remaining.set(i);
+                if (degree[i] < k) {
+                    lowDegree.set(i);
+                }
+            }
+        }
+        final boolean tracksArea = heuristic == SpillHeuristic.COST_PER_AREA;
+        final var area = new long[tracksArea ? n : 0];
+        final var scratch = new BitSet(n);
+        if (tracksArea) {
+            for (int i = remaining.nextSetBit(0); i >= 0; i = remaining.nextSetBit(i + 1)) {
+                area[i] = 1;
+                for (int other = neighbors[i].nextSetBit(0); other >= 0; other = neighbors[i].nextSetBit(other + 1)) {
+                    area[i] += degree[other];
+                }
+            }
+        }
+
+        // 简化
+        while (!remaining.isEmpty()) {
+            int chosen = lowDegree.nextSetBit(0);
+            if (chosen < 0) {
+                // 没有低度数结点, 按启发式选一个结点乐观地压栈
+                double best = Double.MAX_VALUE;
+                for (int i = remaining.nextSetBit(0); i >= 0; i = remaining.nextSetBit(i + 1)) {
+                    final double weight = switch (heuristic) {
+                        case COST_PER_DEGREE -> (double) cost[i] / degree[i];
+                        case COST_PER_DEGREE_SQUARED -> (double) cost[i] / ((double) degree[i] * degree[i]);
+                        case COST_PER_AREA -> (double) cost[i] / area[i];
+                    };
+                    if (weight < best) {
+                        best = weight;
+                        chosen = i;
+                    }
+                }
+            }
+
+            remaining.clear(chosen);
+            lowDegree.clear(chosen);
+            stack.push(chosen);
+            final var removed = neighbors[chosen];
+            for (int other = removed.nextSetBit(0); other >= 0; other = removed.nextSetBit(other + 1)) {
+                neighbors[other].clear(chosen);
+                if (--degree[other] == k - 1) {
+                    lowDegree.set(other);
+                }
+                if (tracksArea) {
+                    // other 少了一个邻居 chosen
+                    area[other] -= degree[chosen];
+                }
+            }
+            if (tracksArea) {
+                updateArea(area, neighbors, remaining, removed, area[chosen] - 1, scratch);
+            }
+        }
+
+        // 选择
+        final var color = new int[n];
+        Arrays.fill(color, -1);
+        while (!stack.isEmpty()) {
+            final int node = stack.pop();
+            final var used = new BitSet(k);
+            for (int other = adjacency[node].nextSetBit(0); other >= 0; other = adjacency[node].nextSetBit(other + 1)) {
+                if (color[other] >= 0) {
+                    used.set(color[other]);
+                }
+            }
+
+            // 优先选择与之有 MOV 关系且已着色的结点的寄存器 (未能合并的 MOV 仍有机会变成同一寄存器)
+            int chosen = -1;
+            for (final var move : moves) {
+                final int x = find(alias, move[0]);
+                final int y = find(alias, move[1]);
+                final int partner = x == node ? y : y == node ? x : -1;
+                if (partner >= 0 && color[partner] >= 0 && !used.get(color[partner])) {
+                    chosen = color[partner];
+                    break;
+                }
+            }
+            if (chosen < 0) {
+                chosen = used.nextClearBit(0);
+            }
+
+            // 实在没有空闲寄存器时才真正溢出
+            color[node] = chosen < k ? chosen : -1;
+        }
+        return color;
+    }
+
+    /**
+     * 删去一个结点后, 它的每个邻居的度数少了 1, 所以其余每个结点的面积要减去它与被删结点的公共邻居数.
+     * 逐个邻居的邻居去减的代价为被删结点的邻居的度数之和, 图稠密时这接近结点数的平方,
+     * 这时改为让每个剩余结点与被删结点的邻居集合求交, 代价为剩余结点数乘以 BitSet 的字数
+     *
+     * @param removed    被删结点在删除前的邻居
+     * @param secondHops 被删结点的邻居的度数之和
+     */
+    private static void updateArea(long[] area, BitSet[] neighbors, BitSet remaining, BitSet removed, long secondHops,
+                                   BitSet scratch) {
+        final int words = neighbors.length / 64 + 1;
+        if (secondHops <= (long) remaining.cardinality() * words) {
+            for (int other = removed.nextSetBit(0); other >= 0; other = removed.nextSetBit(other + 1)) {
+                final var second = neighbors[other];
+                for (int node = second.nextSetBit(0); node >= 0; node = second.nextSetBit(node + 1)) {
+                    area[node]--;
+                }
+            }
+            return;
+        }
+
+        for (int node = remaining.nextSetBit(0); node >= 0; node = remaining.nextSetBit(node + 1)) {
+            scratch.clear();
+            scratch.or(neighbors[node]);
+            scratch.and(removed);
+            area[node] -= scratch.cardinality();
+        }
+    }
+
+    private static void addEdge(BitSet[] adjacency, int a, int b) {
+        if (a != b) {
+            adjacency[a].set(b);
+            adjacency[b].set(a);
+        }
+    }
+
+    private static int find(int[] alias, int node) {
+        while (alias[node] != node) {
+            alias[node] = alias[alias[node]];
+            node = alias[node];
+        }
+        return node;
+    }
+
+    /**
+     * Briggs 条件: 合并后的结点中度数不小于 K 的邻居少于 K 个, 合并后图的可着色性不会变差
+     */
+    private static boolean briggs(BitSet[] adjacency, int x, int y, int k) {
+        final var neighbors = (BitSet) adjacency[x].clone();
+        neighbors.or(adjacency[y]);
+        int significant = 0;
+        for (int other = neighbors.nextSetBit(0); other >= 0; other = neighbors.nextSetBit(other + 1)) {
+            if (adjacency[other].cardinality() >= k) {
+                significant++;
+            }
+        }
+        return significant < k;
+    }
+}
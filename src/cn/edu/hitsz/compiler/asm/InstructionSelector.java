@@ -0,0 +1,157 @@
+package cn.edu.hitsz.compiler.asm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 带立即数操作数的运算的指令选择
+ * <br>
+ * 尽量把立即数直接放进 I 型指令的 12 位立即数字段, 并对乘法做强度削弱:
+ * <ul>
+ *     <li>加减: {@code addi}, 减去立即数即加上其相反数 (RISC-V 没有 subi)</li>
+ *     <li>乘以 0, 1, -1 与 (正负) 2 的幂: {@code li 0}, {@code mv}, {@code neg}, {@code slli} (必要时再接 {@code neg})</li>
+ *     <li>装入立即数: 12 位以内用一条 {@code li} (即 addi rd, zero, imm), 否则用 {@code lui} + {@code addi}, 低 12 位为 0 时省去 addi</li>
+ *     <li>栈上的读写: 偏移在 12 位以内时直接 {@code lw}/{@code sw}, 否则先用 {@code lui} + {@code add} 算出高位部分的地址,
+ *     低 12 位留在指令的偏移字段中</li>
+ * </ul>
+ * 立即数放不进指令时先装入调用者给出的临时寄存器, 再用寄存器形式的指令. 各方法返回的是不带注释的汇编指令文本.
+ */
+final class InstructionSelector {
+    /**
+     * @return 把 value 装入 rd 的指令
+     */
+    static List<String> loadImmediate(String rd, int value) {
+        if (isImm12(value)) {
+            return List.of("li %s, %d".formatted(rd, value));
+        }
+
+        final int lower = lowerOf(value);
+        final var result = new ArrayList<String>(2);
+        result.add("lui %s, %d".formatted(rd, upperOf(value)));
+        if (lower != 0) {
+            result.add("addi %s, %s, %d".formatted(rd, rd, lower));
+        }
+        return result;
+    }
+
+    /**
+     * @return rd = rs + imm 的指令
+     */
+    static List<String> addImmediate(String rd, String rs, int imm, String scratch) {
+        if (imm == 0) {
+            return move(rd, rs);
+        }
+        if (isImm12(imm)) {
+            return List.of("addi %s, %s, %d".formatted(rd, rs, imm));
+        }
+        return withImmediate(scratch, imm, "add %s, %s, %s".formatted(rd, rs, scratch));
+    }
+
+    /**
+     * @return rd = rs - imm 的指令
+     */
+    static List<String> subImmediate(String rd, String rs, int imm, String scratch) {
+        // imm 为 Integer.MIN_VALUE 时其相反数溢出, 放不进 12 位, 会走到 sub
+        if (imm != Integer.MIN_VALUE && isImm12(-imm)) {
+            return addImmediate(rd, rs, -imm, scratch);
+        }
+        return withImmediate(scratch, imm, "sub %s, %s, %s".formatted(rd, rs, scratch));
+    }
+
+    /**
+     * @return rd = imm - rs 的指令
+     */
+    static List<String> reverseSubImmediate(String rd, int imm, String rs, String scratch) {
+        if (imm == 0) {
+            return List.of("neg %s, %s".formatted(rd, rs));
+        }
+        return withImmediate(scratch, imm, "sub %s, %s, %s".formatted(rd, scratch, rs));
+    }
+
+    /**
+     * @return rd = rs * imm 的指令
+     */
+    static List<String> mulImmediate(String rd, String rs, int imm, String scratch) {
+        if (imm == 0) {
+            return List.of("li %s, 0".formatted(rd));
+        }
+        if (imm == 1) {
+            return move(rd, rs);
+        }
+        if (imm == -1) {
+            return List.of("neg %s, %s".formatted(rd, rs));
+        }
+        if (Integer.bitCount(imm) == 1) {
+            // 包括 Integer.MIN_VALUE, 即 2 的 31 次方在 32 位下回绕的结果
+            return List.of("slli %s, %s, %d".formatted(rd, rs, Integer.numberOfTrailingZeros(imm)));
+        }
+        if (imm != Integer.MIN_VALUE && Integer.bitCount(-imm) == 1) {
+            return List.of(
+                "slli %s, %s, %d".formatted(rd, rs, Integer.numberOfTrailingZeros(-imm)),
+                "neg %s, %s".formatted(rd, rd));
+        }
+        return withImmediate(scratch, imm, "mul %s, %s, %s".formatted(rd, rs, scratch));
+    }
+
+    /**
+     * @return 从 offset(sp) 读入 rd 的指令, 地址的高位部分也算在 rd 中
+     */
+    static List<String> loadWord(String rd, int offset) {
+        if (isImm12(offset)) {
+            return List.of("lw %s, %d(sp)".formatted(rd, offset));
+        }
+        final var result = new ArrayList<>(stackAddress(rd, offset));
+        result.add("lw %s, %d(%s)".formatted(rd, lowerOf(offset), rd));
+        return result;
+    }
+
+    /**
+     * @param scratch 偏移放不进 12 位时用来计算地址的临时寄存器, 不能与 rs 相同
+     * @return 把 rs 写到 offset(sp) 的指令
+     */
+    static List<String> storeWord(String rs, int offset, String scratch) {
+        if (isImm12(offset)) {
+            return List.of("sw %s, %d(sp)".formatted(rs, offset));
+        }
+        final var result = new ArrayList<>(stackAddress(scratch, offset));
+        result.add("sw %s, %d(%s)".formatted(rs, lowerOf(offset), scratch));
+        return result;
+    }
+
+    static boolean isImm12(int value) {
+        return value >= -2048 && value <= 2047;
+    }
+
+    //==================== 以下为实现相关代码 ==============================//
+
+    private InstructionSelector() {
+    }
+
+    /**
+     * addi 与访存指令的立即数是符号扩展的, 低 12 位的最高位为 1 时高 20 位要加 1 来抵消
+     */
+    private static int upperOf(int value) {
+        return ((value + 0x800) >>> 12) & 0xfffff;
+    }
+
+    private static int lowerOf(int value) {
+        return value - (upperOf(value) << 12);
+    }
+
+    /**
+     * @return 把 sp + offset 的高位部分装入 rd 的指令
+     */
+    private static List<String> stackAddress(String rd, int offset) {
+        return List.of("lui %s, %d".formatted(rd, upperOf(offset)), "add %s, %s, sp".formatted(rd, rd));
+    }
+
+    private static List<String> move(String rd, String rs) {
+        return rd.equals(rs) ? List.of() : List.of("mv %s, %s".formatted(rd, rs));
+    }
+
+    private static List<String> withImmediate(String scratch, int imm, String instruction) {
+        final var result = new ArrayList<>(loadImmediate(scratch, imm));
+        result.add(instruction);
+        return result;
+    }
+}
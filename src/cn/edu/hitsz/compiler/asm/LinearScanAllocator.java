@@ -0,0 +1,152 @@
+package cn.edu.hitsz.compiler.asm;
+
+import cn.edu.hitsz.compiler.ir.IRVariable;
+import cn.edu.hitsz.compiler.ir.Liveness;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * 线性扫描寄存器分配 (Poletto & Sarkar)
+ * <br>
+ * 先由活跃变量分析得到每个变量的活跃区间. 为了让 "本条指令最后一次使用的操作数" 与 "本条指令的结果" 可以共用寄存器,
+ * 第 i 条指令读操作数的位置记为 2i, 写结果的位置记为 2i + 1.
+ * <br>
+ * 然后按区间起点依次处理: 先释放所有已经结束的区间占用的寄存器, 若仍有空闲寄存器则分配之 (优先分配靠前的寄存器),
+ * 否则在当前区间与已分配的区间中选结束得最晚的那个溢出到栈上.
+ */
+public class LinearScanAllocator implements RegisterAllocator {
+    public LinearScanAllocator() {
+        this(ALLOCATABLE);
+    }
+
+    /**
+     * @param registers 可分配的寄存器, 主要用于在寄存器很少时观察溢出
+     */
+    public LinearScanAllocator(List<String> registers) {
+        this.registers = List.copyOf(registers);
+    }
+
+    @Override
+    public Allocation allocate(Liveness liveness) {
+        final var allocation = new Allocation();
+        final var intervals = buildIntervals(liveness);
+        intervals.sort(Comparator.comparingInt(Interval::start).thenComparingInt(Interval::end));
+
+        // 按区间终点排序的已分配区间, 以及按寄存器下标排序的空闲寄存器
+        final var active = new TreeSet<Interval>(
+            Comparator.comparingInt(Interval::end).thenComparingInt(interval -> interval.variable().getId()));
+        final var free = new TreeSet<Integer>();
+        for (int i = 0; i < registers.size(); i++) {
+            free.add(i);
+        }
+        final var registerOf = new int[IRVariable.idBound(liveness.instructions())];
+
+        for (final var current : intervals) {
+            // 释放已经结束的区间
+            while (!active.isEmpty() && active.first().end() < current.start()) {
+                free.add(registerOf[active.pollFirst().variable().getId()]);
+            }
+
+            if (!free.isEmpty()) {
+                final int register = free.pollFirst();
+                registerOf[current.variable().getId()] = register;
+                allocation.assignRegister(current.variable(), registers.get(register));
+                active.add(current);
+                continue;
+            }
+
+            // 没有空闲寄存器了, 溢出结束得最晚的区间
+            final var last = active.isEmpty() ? null : active.last();
+            if (last != null && last.end() > current.end()) {
+                final int register = registerOf[last.variable().getId()];
+                active.remove(last);
+                allocation.spill(last.variable());
+                registerOf[current.variable().getId()] = register;
+                allocation.assignRegister(current.variable(), registers.get(register));
+                active.add(current);
+            } else {
+                allocation.spill(current.variable());
+            }
+        }
+
+        return allocation;
+    }
+
+    //==================== 以下为实现相关代码 ==============================//
+
+    private final List<String> registers;
+
+    /**
+     * 变量的活跃区间 [start, end], 位置的含义见类注释
+     */
+    private record Interval(IRVariable variable, int start, int end) {
+    }
+
+    /**
+     * 在指令 i 之前活跃的变量 (包括本条指令的操作数) 在读操作数的位置 2i 上活跃. 在每个基本块内从后往前扫描,
+     * 块内一个变量连续活跃的一段指令 [lo, hi] 整体并入它的区间, 不必逐条指令地遍历活跃集合
+     */
+    private static List<Interval> buildIntervals(Liveness liveness) {
+        final var instructions = liveness.instructions();
+        final int count = IRVariable.idBound(instructions);
+        final var start = new int[count];
+        final var end = new int[count];
+        Arrays.fill(start, Integer.MAX_VALUE);
+        Arrays.fill(end, -1);
+
+        // 扫描到的活跃变量, 以及它们当前这一段活跃的最后一条指令
+        final var last = new int[count];
+        for (final var block : liveness.controlFlowGraph().blocks()) {
+            final var live = liveness.blockOut(block.index());
+            for (int id = live.nextSetBit(0); id >= 0; id = live.nextSetBit(id + 1)) {
+                last[id] = block.end() - 1;
+            }
+
+            for (int i = block.end() - 1; i >= block.begin(); i--) {
+                final var instruction = instructions.get(i);
+                if (instruction.getKind().hasResult()) {
+                    // 定值处结束一段活跃; 即使结果不再被使用, 写结果时也需要一个寄存器
+                    final int id = instruction.getResult().getId();
+                    if (live.get(id)) {
+                        extend(start, end, id, i + 1, last[id]);
+                        live.clear(id);
+                    }
+                    start[id] = Math.min(start[id], 2 * i + 1);
+                    end[id] = Math.max(end[id], 2 * i + 1);
+                }
+                for (final var operand : instruction.getOperands()) {
+                    if (operand instanceof IRVariable variable && !live.get(variable.getId())) {
+                        live.set(variable.getId());
+                        last[variable.getId()] = i;
+                    }
+                }
+            }
+
+            // 在块的入口处仍活跃的变量活跃到块的第一条指令
+            for (int id = live.nextSetBit(0); id >= 0; id = live.nextSetBit(id + 1)) {
+                extend(start, end, id, block.begin(), last[id]);
+            }
+        }
+
+        final var intervals = new ArrayList<Interval>();
+        for (final var variable : liveness.variables()) {
+            final int id = variable.getId();
+            intervals.add(new Interval(variable, start[id], end[id]));
+        }
+        return intervals;
+    }
+
+    /**
+     * 把指令 [lo, hi] 读操作数的位置并入变量的区间, lo > hi 时为空
+     */
+    private static void extend(int[] start, int[] end, int id, int lo, int hi) {
+        if (lo <= hi) {
+            start[id] = Math.min(start[id], 2 * lo);
+            end[id] = Math.max(end[id], 2 * hi);
+        }
+    }
+}
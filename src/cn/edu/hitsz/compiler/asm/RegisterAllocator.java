@@ -0,0 +1,35 @@
+package cn.edu.hitsz.compiler.asm;
+
+import cn.edu.hitsz.compiler.ir.Liveness;
+
+import java.util.List;
+
+/**
+ * 寄存器分配器
+ * <br>
+ * 只在 RISC-V 的可分配寄存器中分配: x0 (zero), ra, sp, gp, tp 与 s0 (帧指针) 从不分配,
+ * a0 用于存放返回值, a7 用于系统调用号; 另外保留 t5, t6 作为读写溢出变量与装入立即数时使用的临时寄存器.
+ * <br>
+ * 由于生成的 main 以 exit 系统调用结束而不会返回, 使用 s 系列寄存器时不需要保存与恢复.
+ */
+public interface RegisterAllocator {
+    /**
+     * 可分配的寄存器, 调用者保存的寄存器排在前面
+     */
+    List<String> ALLOCATABLE = List.of(
+        "t0", "t1", "t2", "t3", "t4",
+        "a1", "a2", "a3", "a4", "a5", "a6",
+        "s1", "s2", "s3", "s4", "s5", "s6", "s7", "s8", "s9", "s10", "s11"
+    );
+
+    /**
+     * 保留的临时寄存器, 不参与分配
+     */
+    List<String> SCRATCH = List.of("t5", "t6");
+
+    /**
+     * @param liveness 待分配的直线代码的活跃变量分析结果
+     * @return 每个变量所在的寄存器或栈槽
+     */
+    Allocation allocate(Liveness liveness);
+}
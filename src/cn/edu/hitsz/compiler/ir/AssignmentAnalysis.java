@@ -0,0 +1,116 @@
+package cn.edu.hitsz.compiler.ir;
+
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * 变量赋值情况的分析: 在每个基本块的入口处, 哪些变量一定已被赋值, 哪些变量可能已被赋值
+ * <br>
+ * 两者都是在控制流图上的前向数据流分析, {@code out[B] = in[B] ∪ def[B]}, 程序开始时没有变量被赋值; 区别在于汇合处
+ * "一定已被赋值" 取各前驱 out 的交集, "可能已被赋值" 取并集. 不可达的基本块的 "一定已被赋值" 为全集.
+ * <br>
+ * 于是对读变量 x 的指令: x 一定已被赋值时可以放心读; x 不可能已被赋值时执行到这里一定会出错; 其余情况只能在执行时检查.
+ * 直线代码中不存在第三种情况.
+ */
+public class AssignmentAnalysis {
+    /**
+     * @param instructions IR
+     * @param graph        IR 的控制流图
+     * @return 分析结果
+     */
+    public static AssignmentAnalysis analyze(List<Instruction> instructions, ControlFlowGraph graph) {
+        return new AssignmentAnalysis(instructions, graph);
+    }
+
+    /**
+     * @param block 基本块编号
+     * @return 在该基本块入口处一定已被赋值的变量, 以 IRVariable 的 id 为下标
+     */
+    public BitSet definitelyAssigned(int block) {
+        return mustIn[block] != null ? (BitSet) mustIn[block].clone() : (BitSet) universe.clone();
+    }
+
+    /**
+     * @param block 基本块编号
+     * @return 在该基本块入口处可能已被赋值的变量, 以 IRVariable 的 id 为下标
+     */
+    public BitSet possiblyAssigned(int block) {
+        return mayIn[block] != null ? (BitSet) mayIn[block].clone() : new BitSet();
+    }
+
+    //==================== 以下为实现相关代码 ==============================//
+
+    // 不可达的基本块不参与迭代, 对应的元素为 null
+    private final BitSet[] mustIn;
+    private final BitSet[] mayIn;
+    private final BitSet universe = new BitSet();
+
+    private AssignmentAnalysis(List<Instruction> instructions, ControlFlowGraph graph) {
+        final var blocks = graph.blocks();
+        final int count = blocks.size();
+        final var def = new BitSet[count];
+        for (final var block : blocks) {
+            if (!graph.isReachable(block.index())) {
+                continue;
+            }
+            def[block.index()] = new BitSet();
+            for (int i = block.begin(); i < block.end(); i++) {
+                final var instruction = instructions.get(i);
+                if (instruction.getKind().hasResult()) {
+                    def[block.index()].set(instruction.getResult().getId());
+                    universe.set(instruction.getResult().getId());
+                }
+                for (final var operand : instruction.getOperands()) {
+                    if (operand instanceof IRVariable variable) {
+                        universe.set(variable.getId());
+                    }
+                }
+            }
+        }
+
+        mustIn = new BitSet[count];
+        mayIn = new BitSet[count];
+        final var mustOut = new BitSet[count];
+        final var mayOut = new BitSet[count];
+        for (int b = 0; b < count; b++) {
+            if (def[b] == null) {
+                continue;
+            }
+            mustIn[b] = b == 0 ? new BitSet() : (BitSet) universe.clone();
+            mayIn[b] = new BitSet();
+            mustOut[b] = (BitSet) mustIn[b].clone();
+            mustOut[b].or(def[b]);
+            mayOut[b] = (BitSet) def[b].clone();
+        }
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int b = 0; b < count; b++) {
+                if (def[b] == null) {
+                    continue;
+                }
+                // 入口块还有一条从程序开始处进入的边, 那时什么变量都没有被赋值
+                final var must = b == 0 ? new BitSet() : (BitSet) universe.clone();
+                final var may = new BitSet();
+                for (final int predecessor : graph.predecessors(b)) {
+                    if (graph.isReachable(predecessor)) {
+                        must.and(mustOut[predecessor]);
+                        may.or(mayOut[predecessor]);
+                    }
+                }
+                if (must.equals(mustIn[b]) && may.equals(mayIn[b])) {
+                    continue;
+                }
+
+                mustIn[b] = must;
+                mayIn[b] = may;
+                mustOut[b] = (BitSet) must.clone();
+                mustOut[b].or(def[b]);
+                mayOut[b] = (BitSet) may.clone();
+                mayOut[b].or(def[b]);
+                changed = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package cn.edu.hitsz.compiler.ir;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * IR 的基本块与控制流图
+ * <br>
+ * 基本块的首指令为: 第一条指令, 每条 LABEL, 以及每条跳转指令或 RET 之后的指令. 基本块以指令下标的区间 [begin, end) 表示,
+ * 按在指令列表中的先后编号, 第 0 个基本块为入口.
+ * <br>
+ * 基本块的后继: 以 JMP 结尾的为跳转目标, 以条件跳转结尾的为跳转目标与下一个基本块, 以 RET 结尾的没有后继, 其余的为下一个基本块.
+ */
+public class ControlFlowGraph {
+    /**
+     * @param index 基本块的编号
+     * @param begin 首指令下标
+     * @param end   末指令下标 + 1
+     */
+    public record BasicBlock(int index, int begin, int end) {
+    }
+
+    /**
+     * @param instructions IR
+     * @return 控制流图
+     * @throws RuntimeException 跳转到未定义的标号, 或标号被重复定义
+     */
+    public static ControlFlowGraph build(List<Instruction> instructions) {
+        return new ControlFlowGraph(instructions);
+    }
+
+    /**
+     * @param instructions IR
+     * @return IR 中是否有标号或跳转, 没有的就是只有一个基本块的直线代码
+     */
+    public static boolean hasControlFlow(List<Instruction> instructions) {
+        for (final var instruction : instructions) {
+            if (instruction.getKind() == InstructionKind.LABEL || instruction.getKind().isBranch()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public List<BasicBlock> blocks() {
+        return Collections.unmodifiableList(blocks);
+    }
+
+    /**
+     * @param index 指令下标
+     * @return 该指令所在的基本块的编号
+     */
+    public int blockOf(int index) {
+        return blockOf[index];
+    }
+
+    public List<Integer> successors(int block) {
+        return Collections.unmodifiableList(successors.get(block));
+    }
+
+    public List<Integer> predecessors(int block) {
+        return Collections.unmodifiableList(predecessors.get(block));
+    }
+
+    /**
+     * @return 基本块是否能从入口到达
+     */
+    public boolean isReachable(int block) {
+        return reachable[block];
+    }
+
+    /**
+     * @param label 标号
+     * @return 定义该标号的 LABEL 指令的下标
+     */
+    public int labelIndex(IRLabel label) {
+        final var index = labelIndex.get(label);
+        if (index == null) {
+            throw new RuntimeException("Undefined label: " + label);
+        }
+        return index;
+    }
+
+    //==================== 以下为实现相关代码 ==============================//
+
+    private final List<BasicBlock> blocks = new ArrayList<>();
+    private final int[] blockOf;
+    private final List<List<Integer>> successors = new ArrayList<>();
+    private final List<List<Integer>> predecessors = new ArrayList<>();
+    private final boolean[] reachable;
+    private final Map<IRLabel, Integer> labelIndex = new HashMap<>();
+
+    private ControlFlowGraph(List<Instruction> instructions) {
+        final int n = instructions.size();
+        blockOf = new int[n];
+
+        // 划分基本块
+        int begin = 0;
+        for (int i = 0; i < n; i++) {
+            final var kind = instructions.get(i).getKind();
+            if (kind == InstructionKind.LABEL) {
+                if (labelIndex.put(instructions.get(i).getLabel(), i) != null) {
+                    throw new RuntimeException("Duplicated label: " + instructions.get(i).getLabel());
+                }
+                if (i > begin) {
+                    addBlock(begin, i);
+                    begin = i;
+                }
+            }
+            if (kind.isBranch() || kind.isReturn()) {
+                addBlock(begin, i + 1);
+                begin = i + 1;
+            }
+        }
+        if (begin < n) {
+            addBlock(begin, n);
+        }
+
+        // 连边
+        for (final var block : blocks) {
+            final var last = instructions.get(block.end() - 1);
+            final var kind = last.getKind();
+            if (kind.isBranch()) {
+                addEdge(block.index(), blockOf[labelIndex(last.getLabel())]);
+            }
+            if (!kind.isTerminator() && block.index() + 1 < blocks.size()) {
+                addEdge(block.index(), block.index() + 1);
+            }
+        }
+
+        // 从入口出发的可达性
+        reachable = new boolean[blocks.size()];
+        if (!blocks.isEmpty()) {
+            final var worklist = new ArrayDeque<Integer>();
+            reachable[0] = true;
+            worklist.add(0);
+            while (!worklist.isEmpty()) {
+                for (final int next : successors.get(worklist.poll())) {
+                    if (!reachable[next]) {
+                        reachable[next] = true;
+                        worklist.add(next);
+                    }
+                }
+            }
+        }
+    }
+
+    private void addBlock(int begin, int end) {
+        final int index = blocks.size();
+        blocks.add(new BasicBlock(index, begin, end));
+        successors.add(new ArrayList<>(2));
+        predecessors.add(new ArrayList<>(2));
+        Arrays.fill(blockOf, begin, end, index);
+    }
+
+    private void addEdge(int from, int to) {
+        if (!successors.get(from).contains(to)) {
+            successors.get(from).add(to);
+            predecessors.get(to).add(from);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package cn.edu.hitsz.compiler.ir;
+
+/**
+ * IR 中的标号, 作为 LABEL 与各跳转指令的操作数
+ * <br>
+ * 标号对应源语言中 {@code id :} 形式的标号. 每次调用 {@link #named} 都会创建一个新的标号, 由生成 IR 的一方
+ * (如 IRGenerator) 保证同一次编译中同名的标号只创建一次, 所以同一段 IR 中的标号可以直接用 == 比较,
+ * 而不同编译的标号互不相干, 也不会在编译结束后被一张全局的表留住.
+ * 标号不是值, 不能参与运算, 实现 IRValue 只是为了能和其他操作数一起存放在 Instruction 中.
+ */
+public class IRLabel implements IRValue {
+    /**
+     * @param name 源语言中标号的名字
+     * @return 新的 IRLabel
+     */
+    public static IRLabel named(String name) {
+        return new IRLabel(name);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    private IRLabel(String name) {
+        this.name = name;
+    }
+
+    private final String name;
+}
@@ -1,12 +1,24 @@
 package cn.edu.hitsz.compiler.ir;
 
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
 /**
  * IR 中的 "变量"
  * <br>
  * 我们允许 IR 中的变量保存一些有关源语言的信息 -- 比如它在源语言里对应的是具体的源语言变量还是源语言中的临时变量. 这些信息用一个字符串
  * name 来表示. 临时变量的 name 都是 "$[0-9]+", 而非临时变量的 name 都是 "[a-zA-Z_][a-zA-Z0-9_]*"
  * <br>
- * IR 变量的等价性由 name 唯一确定.
+ * 每个 IR 变量在创建时被分配一个从 0 开始连续的整数 id, 同名的具体变量只会创建一次 (因而共享同一个 id).
+ * IR 变量的等价性由 id 唯一确定, name 只用于输出. 后续的各个阶段 (模拟执行, 寄存器分配, 优化) 可以直接用 id 作为数组或位集的下标,
+ * 数组的大小取 {@link #idBound(List)}, 或是在访问时按需扩大. 不要取 {@link #count()}: 处理的 IR 不一定是在当前编号空间中生成的
+ * (比如在编译结束后, 在另一个线程上分析它的结果).
+ * <br>
+ * id 的分配与同名变量的查找都在当前线程的编号空间 ({@link Namespace}) 中进行. 不指定时每个线程有一个默认的编号空间;
+ * 同时进行的多个编译各自在 {@link #withNamespace(Namespace, Supplier)} 中使用自己的编号空间, 互不影响,
+ * {@link #count()} 也只随本次编译创建的变量增长.
  */
 public class IRVariable implements IRValue {
     /**
@@ -14,14 +26,85 @@ public class IRVariable implements IRValue {
      * @return 一个对应于源语言中具体变量的 IRVariable
      */
     public static IRVariable named(String name) {
-        return new IRVariable(name);
+        return current().namedVariables.computeIfAbsent(name, key -> new IRVariable(key, false));
     }
 
     /**
      * @return 一个对应于源语言中的临时变量的新 IRVariable
      */
     public static IRVariable temp() {
-        return new IRVariable("$" + count++);
+        return new IRVariable("$" + current().tempCount++, true);
+    }
+
+    /**
+     * 为 SSA 形式创建变量的一个新版本. 新版本有自己的 id, 名字为 "原变量名.版本号", 是否为临时变量与原变量一致.
+     *
+     * @param origin  原变量
+     * @param version 版本号, 用于输出
+     * @return 一个新的 IRVariable, 其 {@link #getOrigin()} 为 origin 的原变量
+     */
+    public static IRVariable version(IRVariable origin, int version) {
+        final var root = origin.getOrigin();
+        return new IRVariable(root.name + "." + version, root.temp, root);
+    }
+
+    /**
+     * @return 当前编号空间中目前为止创建的 IR 变量的数量, 其中所有 IR 变量的 id 都小于该值
+     */
+    public static int count() {
+        return current().count;
+    }
+
+    /**
+     * @param instructions IR
+     * @return 比 IR 中出现的所有变量的 id 都大的最小值, 可作为以 id 为下标的数组的大小
+     */
+    public static int idBound(List<Instruction> instructions) {
+        int bound = 0;
+        for (final var instruction : instructions) {
+            for (final var operand : instruction.getOperands()) {
+                if (operand instanceof IRVariable variable) {
+                    bound = Math.max(bound, variable.id + 1);
+                }
+            }
+            if (instruction.getKind().hasResult()) {
+                bound = Math.max(bound, instruction.getResult().id + 1);
+            }
+        }
+        return bound;
+    }
+
+    /**
+     * IR 变量的编号空间: id 与临时变量的编号各自从 0 开始, 以及同名具体变量的表. 只能同时被一个线程使用
+     */
+    public static final class Namespace {
+        private int count = 0;
+        private int tempCount = 0;
+        private final Map<String, IRVariable> namedVariables = new HashMap<>();
+    }
+
+    /**
+     * 在给定的编号空间中执行 action, 结束后恢复当前线程原来的编号空间
+     *
+     * @param namespace 编号空间
+     * @param action    要执行的操作, 其中创建的 IR 变量都属于 namespace
+     * @return action 的结果
+     */
+    public static <T> T withNamespace(Namespace namespace, Supplier<T> action) {
+        final var previous = currentNamespace.get();
+        currentNamespace.set(namespace);
+        try {
+            return action.get();
+        } finally {
+            currentNamespace.set(previous);
+        }
+    }
+
+    /**
+     * @return 该变量的 id
+     */
+    public int getId() {
+        return id;
     }
 
     public String getName() {
@@ -29,13 +112,20 @@ public class IRVariable implements IRValue {
     }
 
     public boolean isTemp() {
-        return name.startsWith("$");
+        return temp;
     }
 
     public boolean isNamed() {
         return !isTemp();
     }
 
+    /**
+     * @return 由 {@link #version(IRVariable, int)} 创建的变量返回其原变量, 其余变量返回自身
+     */
+    public IRVariable getOrigin() {
+        return origin == null ? this : origin;
+    }
+
     @Override
     public String toString() {
         return name;
@@ -43,18 +133,32 @@ public class IRVariable implements IRValue {
 
     @Override
     public boolean equals(Object obj) {
-        return obj instanceof IRVariable reg && name.equals(reg.name);
+        return obj instanceof IRVariable reg && id == reg.id;
     }
 
     @Override
     public int hashCode() {
-        return name.hashCode();
+        return id;
     }
 
-    private IRVariable(String name) {
+    private IRVariable(String name, boolean temp) {
+        this(name, temp, null);
+    }
+
+    private IRVariable(String name, boolean temp, IRVariable origin) {
+        this.id = current().count++;
         this.name = name;
+        this.temp = temp;
+        this.origin = origin;
     }
 
+    private final int id;
     private final String name;
-    private static int count = 0;
+    private final boolean temp;
+    private final IRVariable origin;
+    private static final ThreadLocal<Namespace> currentNamespace = ThreadLocal.withInitial(Namespace::new);
+
+    private static Namespace current() {
+        return currentNamespace.get();
+    }
 }
@@ -1,5 +1,7 @@
 package cn.edu.hitsz.compiler.ir;
 
+import cn.edu.hitsz.compiler.utils.DumpWriter;
+
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
@@ -48,6 +50,22 @@ public class Instruction {
         return new Instruction(InstructionKind.RET, null, List.of(returnValue));
     }
 
+    public static Instruction createLabel(IRLabel label) {
+        return new Instruction(InstructionKind.LABEL, null, List.of(label));
+    }
+
+    public static Instruction createJmp(IRLabel target) {
+        return new Instruction(InstructionKind.JMP, null, List.of(target));
+    }
+
+    public static Instruction createBeqz(IRValue condition, IRLabel target) {
+        return new Instruction(InstructionKind.BEQZ, null, List.of(condition, target));
+    }
+
+    public static Instruction createBgtz(IRValue condition, IRLabel target) {
+        return new Instruction(InstructionKind.BGTZ, null, List.of(condition, target));
+    }
+
 
     //============================== 不同种类 IR 的参数 getter ==============================
     public InstructionKind getKind() {
@@ -79,6 +97,19 @@ public class Instruction {
         return operands.get(0);
     }
 
+    /**
+     * @return LABEL 定义的标号, 或跳转指令的目标
+     */
+    public IRLabel getLabel() {
+        ensureKindMatch(Set.of(InstructionKind.LABEL, InstructionKind.JMP, InstructionKind.BEQZ, InstructionKind.BGTZ));
+        return (IRLabel) operands.getLast();
+    }
+
+    public IRValue getCondition() {
+        ensureKindMatch(Set.of(InstructionKind.BEQZ, InstructionKind.BGTZ));
+        return operands.get(0);
+    }
+
 
     //============================== 基础设施 ==============================
     @Override
@@ -89,6 +120,30 @@ public class Instruction {
         return "(%s, %s, %s)".formatted(kindString, resultString, operandsString);
     }
 
+    /**
+     * 以 toString 的格式输出指令, 不创建中间的字符串
+     *
+     * @param out 输出
+     */
+    public void writeTo(DumpWriter out) {
+        out.append('(').append(kind.name()).append(", ");
+        if (result != null) {
+            out.append(result.getName());
+        }
+        out.append(", ");
+        for (int i = 0; i < operands.size(); i++) {
+            if (i > 0) {
+                out.append(", ");
+            }
+            if (operands.get(i) instanceof IRImmediate immediate) {
+                out.append(immediate.getValue());
+            } else {
+                out.append(operands.get(i));
+            }
+        }
+        out.append(')');
+    }
+
     public List<IRValue> getOperands() {
         return Collections.unmodifiableList(operands);
     }
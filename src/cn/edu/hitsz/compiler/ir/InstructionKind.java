@@ -4,13 +4,17 @@ package cn.edu.hitsz.compiler.ir;
  * IR 的种类
  */
 public enum InstructionKind {
-    ADD, SUB, MUL, MOV, RET;
+    ADD, SUB, MUL, MOV, RET,
+    LABEL, // 标号, 本身不执行任何操作
+    JMP, // 无条件跳转
+    BEQZ, // 值为 0 时跳转
+    BGTZ; // 值大于 0 时跳转
 
     /**
      * @return IR 是否是二元的 (有返回值, 有两个参数)
      */
     public boolean isBinary() {
-        return this != MOV && this != RET;
+        return this == ADD || this == SUB || this == MUL;
     }
 
     /**
@@ -26,4 +30,25 @@ public enum InstructionKind {
     public boolean isReturn() {
         return this == RET;
     }
+
+    /**
+     * @return IR 是否有结果变量
+     */
+    public boolean hasResult() {
+        return isBinary() || isUnary();
+    }
+
+    /**
+     * @return IR 是否为跳转指令 (有条件或无条件)
+     */
+    public boolean isBranch() {
+        return this == JMP || this == BEQZ || this == BGTZ;
+    }
+
+    /**
+     * @return 执行完该 IR 后是否一定不会接着执行下一条 IR
+     */
+    public boolean isTerminator() {
+        return this == JMP || this == RET;
+    }
 }
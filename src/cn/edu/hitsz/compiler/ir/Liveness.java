@@ -0,0 +1,174 @@
+package cn.edu.hitsz.compiler.ir;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * IR 的活跃变量分析
+ * <br>
+ * 先在控制流图上对基本块迭代求解 {@code in[B] = use[B] ∪ (out[B] - def[B])}, {@code out[B] = ∪ in[S]} (S 为 B 的后继)
+ * 直到不动点. 只保存每个基本块的 in 与 out, 每条指令前后的活跃变量由使用者在块内从后往前扫描时现推
+ * (见 {@link #forEachLiveOut}): {@code in[i] = use[i] ∪ (out[i] - def[i])}, 块内 {@code out[i] = in[i + 1]},
+ * 块的最后一条指令的 out 即为 out[B]. 这样占用的内存只与基本块数乘变量数成正比, 而不是与指令数乘变量数成正比.
+ * 直线代码只有一个基本块, 一轮即收敛.
+ * <br>
+ * 活跃集合用以 IRVariable 的 id 为下标的 BitSet 表示.
+ */
+public class Liveness {
+    /**
+     * @param instructions IR
+     * @return 分析结果
+     */
+    public static Liveness analyze(List<Instruction> instructions) {
+        return new Liveness(instructions);
+    }
+
+    /**
+     * @param block 基本块的下标
+     * @return 在该基本块入口处活跃的变量
+     */
+    public BitSet blockIn(int block) {
+        return (BitSet) blockIn[block].clone();
+    }
+
+    /**
+     * @param block 基本块的下标
+     * @return 在该基本块出口处活跃的变量
+     */
+    public BitSet blockOut(int block) {
+        return (BitSet) blockOut[block].clone();
+    }
+
+    /**
+     * 按基本块的顺序, 在每个块内从后往前依次给出每条指令执行后活跃的变量
+     *
+     * @param visitor 对每条指令调用一次
+     */
+    public void forEachLiveOut(LiveOutVisitor visitor) {
+        for (final var block : graph.blocks()) {
+            final var live = (BitSet) blockOut[block.index()].clone();
+            for (int i = block.end() - 1; i >= block.begin(); i--) {
+                visitor.visit(i, live);
+
+                final var instruction = instructions.get(i);
+                if (instruction.getKind().hasResult()) {
+                    live.clear(instruction.getResult().getId());
+                }
+                for (final var operand : instruction.getOperands()) {
+                    if (operand instanceof IRVariable variable) {
+                        live.set(variable.getId());
+                    }
+                }
+            }
+        }
+    }
+
+    @FunctionalInterface
+    public interface LiveOutVisitor {
+        /**
+         * @param index   指令下标
+         * @param liveOut 在该指令执行后活跃的变量. 扫描过程中会被修改, 不能修改或保存
+         */
+        void visit(int index, BitSet liveOut);
+    }
+
+    /**
+     * @return 在指令中出现过的所有变量, 按 id 排序
+     */
+    public List<IRVariable> variables() {
+        return Collections.unmodifiableList(variables);
+    }
+
+    /**
+     * @return 分析的指令
+     */
+    public List<Instruction> instructions() {
+        return Collections.unmodifiableList(instructions);
+    }
+
+    /**
+     * @return 分析所用的控制流图
+     */
+    public ControlFlowGraph controlFlowGraph() {
+        return graph;
+    }
+
+    //==================== 以下为实现相关代码 ==============================//
+
+    private final List<Instruction> instructions;
+    private final ControlFlowGraph graph;
+    private final BitSet[] blockIn;
+    private final BitSet[] blockOut;
+    private final List<IRVariable> variables = new ArrayList<>();
+
+    private Liveness(List<Instruction> instructions) {
+        this.instructions = List.copyOf(instructions);
+        this.graph = ControlFlowGraph.build(this.instructions);
+
+        // 各基本块的 use 与 def
+        final var blocks = graph.blocks();
+        final var seen = new BitSet();
+        final var use = new BitSet[blocks.size()];
+        final var def = new BitSet[blocks.size()];
+        for (final var block : blocks) {
+            final var blockUse = new BitSet();
+            final var blockDef = new BitSet();
+            for (int i = block.begin(); i < block.end(); i++) {
+                final var instruction = this.instructions.get(i);
+                for (final var operand : instruction.getOperands()) {
+                    if (operand instanceof IRVariable variable) {
+                        if (!blockDef.get(variable.getId())) {
+                            blockUse.set(variable.getId());
+                        }
+                        record(variable, seen);
+                    }
+                }
+                if (instruction.getKind().hasResult()) {
+                    blockDef.set(instruction.getResult().getId());
+                    record(instruction.getResult(), seen);
+                }
+            }
+            use[block.index()] = blockUse;
+            def[block.index()] = blockDef;
+        }
+
+        // 在基本块上迭代到不动点, 逆序访问基本块可以让直线代码与大多数循环更快收敛
+        blockIn = new BitSet[blocks.size()];
+        blockOut = new BitSet[blocks.size()];
+        for (int b = 0; b < blocks.size(); b++) {
+            blockIn[b] = (BitSet) use[b].clone();
+            blockOut[b] = new BitSet();
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int b = blocks.size() - 1; b >= 0; b--) {
+                final var out = new BitSet();
+                for (final int successor : graph.successors(b)) {
+                    out.or(blockIn[successor]);
+                }
+                if (out.equals(blockOut[b])) {
+                    continue;
+                }
+
+                blockOut[b] = out;
+                final var in = (BitSet) out.clone();
+                in.andNot(def[b]);
+                in.or(use[b]);
+                blockIn[b] = in;
+                changed = true;
+            }
+        }
+
+        this.variables.sort((a, b) -> Integer.compare(a.getId(), b.getId()));
+    }
+
+    private void record(IRVariable variable, BitSet seen) {
+        if (!seen.get(variable.getId())) {
+            seen.set(variable.getId());
+            variables.add(variable);
+        }
+    }
+}
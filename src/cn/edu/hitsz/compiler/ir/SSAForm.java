@@ -0,0 +1,198 @@
+package cn.edu.hitsz.compiler.ir;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * IR 的静态单赋值 (SSA) 形式
+ * <br>
+ * 构造时每个被赋值的变量的每次赋值都得到一个新版本 (见 {@link IRVariable#version(IRVariable, int)}), 其后的使用改为读该版本.
+ * 在被赋值之前就被读的变量 (即程序入口处的值) 保留原变量本身, 它在 SSA 形式中没有定义. 于是每个变量至多有一条定义,
+ * 定义与使用之间的关系可以直接查表, 不再需要对整个指令列表做数据流迭代.
+ * <br>
+ * 目前只支持直线代码, 只有一个基本块, 所以重命名只需从前往后扫描一遍, 也不需要 phi.
+ * 要支持控制流, 重命名需改为沿支配树遍历并为每个原变量维护一个版本栈, 在支配边界处插入 phi.
+ * <br>
+ * 转换回普通形式时, 同一原变量的各个版本若活跃范围互不相交, 就改回原变量的名字, 否则保留版本自己的名字.
+ */
+public class SSAForm {
+    /**
+     * @param instructions 普通形式的直线代码
+     * @return 重命名后的 SSA 形式
+     * @throws RuntimeException 代码中有标号或跳转
+     */
+    public static SSAForm construct(List<Instruction> instructions) {
+        if (ControlFlowGraph.hasControlFlow(instructions)) {
+            throw new RuntimeException("SSA form of code with control flow is not supported");
+        }
+        final var current = new HashMap<IRVariable, IRVariable>();
+        final var versionCount = new HashMap<IRVariable, Integer>();
+        final var result = new ArrayList<Instruction>(instructions.size());
+        for (final var instruction : instructions) {
+            final var operands = new ArrayList<IRValue>(instruction.getOperands().size());
+            for (final var operand : instruction.getOperands()) {
+                operands.add(operand instanceof IRVariable variable ? current.getOrDefault(variable, variable) : operand);
+            }
+
+            IRVariable target = null;
+            if (!instruction.getKind().isReturn()) {
+                final var origin = instruction.getResult();
+                final int version = versionCount.merge(origin, 1, Integer::sum);
+                target = IRVariable.version(origin, version);
+                current.put(origin, target);
+            }
+            result.add(rebuild(instruction.getKind(), target, operands));
+        }
+
+        return new SSAForm(result);
+    }
+
+    /**
+     * @param instructions 已经满足每个变量至多一条定义的指令, 比如在 SSA 形式上做了变换后的结果
+     * @return 包装后的 SSA 形式
+     * @throws RuntimeException 有变量被定义了不止一次
+     */
+    public static SSAForm of(List<Instruction> instructions) {
+        return new SSAForm(List.copyOf(instructions));
+    }
+
+    public List<Instruction> instructions() {
+        return Collections.unmodifiableList(instructions);
+    }
+
+    /**
+     * @param variable 变量
+     * @return 定义该变量的指令的下标, 没有定义 (程序入口处的值) 时为 -1
+     */
+    public int definitionOf(IRVariable variable) {
+        final int id = variable.getId();
+        return id < definition.length ? definition[id] : -1;
+    }
+
+    /**
+     * @param variable 变量
+     * @return 该变量在操作数中出现的次数
+     */
+    public int useCount(IRVariable variable) {
+        final int id = variable.getId();
+        return id < useCount.length ? useCount[id] : 0;
+    }
+
+    /**
+     * @return 转换回的普通形式
+     */
+    public List<Instruction> destruct() {
+        // 同一原变量的两个版本冲突, 当且仅当其中一个在另一个的定义处活跃
+        final var liveness = Liveness.analyze(instructions);
+        final var byId = new IRVariable[IRVariable.idBound(instructions)];
+        for (final var variable : liveness.variables()) {
+            byId[variable.getId()] = variable;
+        }
+        final var conflicts = new HashSet<Long>();
+        liveness.forEachLiveOut((i, liveOut) -> {
+            final var instruction = instructions.get(i);
+            if (instruction.getKind().isReturn()) {
+                return;
+            }
+
+            final var def = instruction.getResult();
+            for (int id = liveOut.nextSetBit(0); id >= 0; id = liveOut.nextSetBit(id + 1)) {
+                final var other = byId[id];
+                if (other != def && other.getOrigin() == def.getOrigin()) {
+                    conflicts.add(pair(def, other));
+                }
+            }
+        });
+
+        // 按定义的先后贪心地把版本改回原变量, 入口处的值本来就是原变量
+        final var renamed = new HashMap<IRVariable, List<IRVariable>>();
+        final var nameOf = new HashMap<IRVariable, IRVariable>();
+        for (final var variable : liveness.variables()) {
+            if (variable.getOrigin() == variable) {
+                renamed.computeIfAbsent(variable, key -> new ArrayList<>()).add(variable);
+            }
+        }
+        for (final var instruction : instructions) {
+            if (instruction.getKind().isReturn()) {
+                continue;
+            }
+
+            final var def = instruction.getResult();
+            final var group = renamed.computeIfAbsent(def.getOrigin(), key -> new ArrayList<>());
+            if (group.stream().noneMatch(other -> conflicts.contains(pair(def, other)))) {
+                group.add(def);
+                nameOf.put(def, def.getOrigin());
+            }
+        }
+
+        final var result = new ArrayList<Instruction>(instructions.size());
+        for (final var instruction : instructions) {
+            final var operands = new ArrayList<IRValue>(instruction.getOperands().size());
+            for (final var operand : instruction.getOperands()) {
+                operands.add(operand instanceof IRVariable variable ? nameOf.getOrDefault(variable, variable) : operand);
+            }
+
+            final var kind = instruction.getKind();
+            final var target = kind.isReturn() ? null : nameOf.getOrDefault(instruction.getResult(), instruction.getResult());
+            // 两端被改回了同一个名字的 MOV. 来源是入口处的值时这条 MOV 执行时会抛出异常, 要保留
+            if (kind == InstructionKind.MOV && operands.getFirst().equals(target)
+                    && definitionOf((IRVariable) instruction.getFrom()) >= 0) {
+                continue;
+            }
+            result.add(rebuild(kind, target, operands));
+        }
+        return result;
+    }
+
+    //==================== 以下为实现相关代码 ==============================//
+
+    private final List<Instruction> instructions;
+    // 以 IRVariable 的 id 为下标
+    private final int[] definition;
+    private final int[] useCount;
+
+    private SSAForm(List<Instruction> instructions) {
+        this.instructions = instructions;
+        this.definition = new int[IRVariable.idBound(instructions)];
+        this.useCount = new int[definition.length];
+        Arrays.fill(definition, -1);
+
+        for (int i = 0; i < instructions.size(); i++) {
+            final var instruction = instructions.get(i);
+            for (final var operand : instruction.getOperands()) {
+                if (operand instanceof IRVariable variable) {
+                    useCount[variable.getId()]++;
+                }
+            }
+
+            if (!instruction.getKind().isReturn()) {
+                final int id = instruction.getResult().getId();
+                if (definition[id] >= 0) {
+                    throw new RuntimeException("Variable defined more than once in SSA form: " + instruction.getResult());
+                }
+                definition[id] = i;
+            }
+        }
+    }
+
+    private static long pair(IRVariable a, IRVariable b) {
+        final int low = Math.min(a.getId(), b.getId());
+        final int high = Math.max(a.getId(), b.getId());
+        return ((long) low << 32) | high;
+    }
+
+    private static Instruction rebuild(InstructionKind kind, IRVariable target, List<IRValue> operands) {
+        return switch (kind) {
+            case ADD -> Instruction.createAdd(target, operands.get(0), operands.get(1));
+            case SUB -> Instruction.createSub(target, operands.get(0), operands.get(1));
+            case MUL -> Instruction.createMul(target, operands.get(0), operands.get(1));
+            case MOV -> Instruction.createMov(target, operands.get(0));
+            case RET -> Instruction.createRet(operands.get(0));
+            default -> throw new RuntimeException("Unexpected instruction kind: " + kind);
+        };
+    }
+}
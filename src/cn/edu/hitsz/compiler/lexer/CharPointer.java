@@ -0,0 +1,276 @@
+package cn.edu.hitsz.compiler.lexer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.NoSuchElementException;
+
+/**
+ * 扫描源代码用的指针, 逐个给出源代码中的 UTF-16 字符
+ * <br>
+ * 指针所在的位置以源代码自身的单位计: String 中是字符下标, UTF-8 字节中是字节偏移.
+ * 词法分析器只记录词素的 [起始位置, 结束位置), 需要文本时再用 {@link #text(int, int)} 取出, 因此不必把整个源代码解码成字符数组.
+ * <br>
+ * 所有扫描方式 (run, runDfa, 流式与增量编译) 遇到不合法的 UTF-8 时都抛出 {@link #malformed(long)} 给出的同一种异常.
+ */
+public abstract class CharPointer {
+    /**
+     * 判断字符是否满足某种条件
+     */
+    public interface CharPredicate {
+        boolean test(char ch);
+    }
+
+    /**
+     * @param string 源代码
+     * @return 指向 string 开头的指针
+     */
+    public static CharPointer from(String string) {
+        return new StringPointer(string);
+    }
+
+    /**
+     * @param utf8 UTF-8 编码的源代码, 指针只读取其 [position, limit) 部分, 不会改变 buffer 自身的 position
+     * @return 指向 utf8 开头的指针
+     */
+    public static CharPointer from(ByteBuffer utf8) {
+        return new Utf8Pointer(utf8);
+    }
+
+    /**
+     * @param position 不合法的 UTF-8 序列的字节偏移
+     * @return 报告该错误的异常
+     */
+    public static RuntimeException malformed(long position) {
+        return new RuntimeException("Malformed UTF-8 input at byte " + position);
+    }
+
+    public abstract boolean inBound();
+
+    public boolean inBoundAnd(CharPredicate predicate) {
+        return inBound() && predicate.test(curr());
+    }
+
+    public abstract char curr();
+
+    public boolean satisfy(CharPredicate predicate) {
+        return predicate.test(curr());
+    }
+
+    public abstract char next();
+
+    public String collectWhile(CharPredicate predicate) {
+        final var builder = new StringBuilder();
+        while (inBoundAnd(predicate)) {
+            builder.append(next());
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * @return 指针当前所在的位置
+     */
+    public abstract int position();
+
+    /**
+     * @return 源代码的结束位置
+     */
+    public abstract int end();
+
+    /**
+     * @param position 位置, 在 [起始位置, end()) 之内
+     * @return 该位置上的单元: 字符或无符号的字节. 同样的文本总是由同样的单元序列构成, 可以直接用来比较与散列
+     */
+    public abstract int unitAt(int position);
+
+    /**
+     * @param begin 起始位置, 须是某个字符的开头
+     * @param end   结束位置, 须是某个字符的开头或 end()
+     * @return [begin, end) 之间的源代码文本
+     */
+    public abstract String text(int begin, int end);
+
+    //==================== 以下为实现相关代码 ==============================//
+
+    private static class StringPointer extends CharPointer {
+        @Override
+        public boolean inBound() {
+            return currentIndex < length;
+        }
+
+        @Override
+        public char curr() {
+            if (!inBound()) {
+                throw new NoSuchElementException();
+            }
+
+            return string.charAt(currentIndex);
+        }
+
+        @Override
+        public char next() {
+            if (!inBound()) {
+                throw new NoSuchElementException();
+            }
+
+            return string.charAt(currentIndex++);
+        }
+
+        @Override
+        public int position() {
+            return currentIndex;
+        }
+
+        @Override
+        public int end() {
+            return length;
+        }
+
+        @Override
+        public int unitAt(int position) {
+            return string.charAt(position);
+        }
+
+        @Override
+        public String text(int begin, int end) {
+            return string.substring(begin, end);
+        }
+
+        private StringPointer(String string) {
+            this.string = string;
+            this.currentIndex = 0;
+            this.length = string.length();
+        }
+
+        private final String string;
+        private final int length;
+        private int currentIndex;
+    }
+
+    /**
+     * 直接在 UTF-8 字节上扫描的指针. ASCII 字节直接作为字符; 多字节序列在读到时才解码,
+     * BMP 之外的码点与 String 中一样拆成高低两个代理字符依次给出.
+     */
+    private static class Utf8Pointer extends CharPointer {
+        @Override
+        public boolean inBound() {
+            return position < limit;
+        }
+
+        @Override
+        public char curr() {
+            if (!inBound()) {
+                throw new NoSuchElementException();
+            }
+
+            final byte lead = bytes.get(position);
+            if (lead >= 0) {
+                return (char) lead;
+            }
+
+            final int codePoint = decode();
+            if (Character.isBmpCodePoint(codePoint)) {
+                return (char) codePoint;
+            }
+            return inLowSurrogate ? Character.lowSurrogate(codePoint) : Character.highSurrogate(codePoint);
+        }
+
+        @Override
+        public char next() {
+            final char ch = curr();
+            final byte lead = bytes.get(position);
+            if (lead >= 0) {
+                position++;
+                return ch;
+            }
+
+            if (!Character.isBmpCodePoint(decode()) && !inLowSurrogate) {
+                inLowSurrogate = true;
+                return ch;
+            }
+            inLowSurrogate = false;
+            position += sequenceLength;
+            return ch;
+        }
+
+        @Override
+        public int position() {
+            return position;
+        }
+
+        @Override
+        public int end() {
+            return limit;
+        }
+
+        @Override
+        public int unitAt(int position) {
+            return bytes.get(position) & 0xff;
+        }
+
+        @Override
+        public String text(int begin, int end) {
+            // 扫描时已经检查过这段字节是合法的 UTF-8
+            final var slice = new byte[end - begin];
+            bytes.get(begin, slice);
+            return new String(slice, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * 解码 position 处的多字节序列, 同时记下其长度
+         *
+         * @return 码点
+         */
+        private int decode() {
+            final int lead = bytes.get(position) & 0xff;
+            final int length;
+            final int min;
+            int codePoint;
+            if (lead >= 0xc2 && lead <= 0xdf) {
+                length = 2;
+                min = 0x80;
+                codePoint = lead & 0x1f;
+            } else if (lead >= 0xe0 && lead <= 0xef) {
+                length = 3;
+                min = 0x800;
+                codePoint = lead & 0x0f;
+            } else if (lead >= 0xf0 && lead <= 0xf4) {
+                length = 4;
+                min = 0x10000;
+                codePoint = lead & 0x07;
+            } else {
+                throw malformed(position);
+            }
+
+            if (position + length > limit) {
+                throw malformed(position);
+            }
+            for (int i = 1; i < length; i++) {
+                final int continuation = bytes.get(position + i) & 0xff;
+                if ((continuation & 0xc0) != 0x80) {
+                    throw malformed(position);
+                }
+                codePoint = (codePoint << 6) | (continuation & 0x3f);
+            }
+            if (codePoint < min || codePoint > Character.MAX_CODE_POINT
+                || (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)) {
+                throw malformed(position);
+            }
+
+            sequenceLength = length;
+            return codePoint;
+        }
+
+        private Utf8Pointer(ByteBuffer bytes) {
+            this.bytes = bytes;
+            this.position = bytes.position();
+            this.limit = bytes.limit();
+        }
+
+        private final ByteBuffer bytes; // 只用绝对位置读取, 不改变 buffer 自身的 position
+        private final int limit;
+        private int position;
+        private int sequenceLength = 0; // 最近一次解码的多字节序列的长度
+        private boolean inLowSurrogate = false; // 当前码点的高代理已经给出
+    }
+}
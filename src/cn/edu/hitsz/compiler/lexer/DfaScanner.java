@@ -0,0 +1,245 @@
+package cn.edu.hitsz.compiler.lexer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 表驱动的 DFA 词法扫描器
+ * <br>
+ * 与 LexicalAnalyzer.run 中逐字符调用谓词的手写扫描器不同, 该扫描器在构造时根据码点文件中的 TokenKind 预先生成两张表:
+ * <ul>
+ *     <li>字符类表: 128 项的 ASCII 表, 把每个字符映射到一个字符类. 出现在关键字与标点中的字符各自成为一类,
+ *     其余字母, 数字, 空白各为一类. 非 ASCII 字符按 Character 的分类归入字母, 数字, 空白或非法字符</li>
+ *     <li>状态转移表: {@code int[状态][字符类]}, 由标识符状态, 整数状态, 关键字前缀构成的 trie 以及各标点的状态组成</li>
+ * </ul>
+ * 扫描时按最长匹配原则在表上跑自动机, 每个词素只以 (起始偏移, 长度) 的形式交给 {@link Sink}, 扫描过程本身不创建任何字符串.
+ * 源代码通过 {@link CharPointer} 读取, 因此映射的 UTF-8 文件可以边解码边扫描, 不必先整体解码.
+ * <br>
+ * 该扫描器构造完成后不可变, 可以被多次, 多线程地使用.
+ */
+public class DfaScanner {
+    /**
+     * 接收扫描结果的回调
+     */
+    public interface Sink {
+        /**
+         * @param kind   词法单元的类型
+         * @param offset 词素在源代码中的起始位置
+         * @param length 词素的长度 (以源代码的单位计)
+         */
+        void accept(TokenKind kind, int offset, int length);
+    }
+
+    /**
+     * 根据已读取的码点文件构造扫描器: 名字由字母组成的 TokenKind 视为关键字, 单个符号组成的视为标点,
+     * Semicolon 对应分号, id 与 IntConst 分别对应标识符与整数常量
+     *
+     * @return 构造出的扫描器
+     */
+    public static DfaScanner fromTokenKinds() {
+        final var keywords = new ArrayList<TokenKind>();
+        final var punctuations = new ArrayList<TokenKind>();
+        for (final var kind : TokenKind.allAllowedTokenKinds().values()) {
+            final var name = kind.getIdentifier();
+            if (kind.equals(TokenKind.eof()) || name.equals("id") || name.equals("IntConst")) {
+                continue;
+            }
+
+            if (name.equals("Semicolon") || (name.length() == 1 && !isWordChar(name.charAt(0)))) {
+                punctuations.add(kind);
+            } else if (name.chars().allMatch(ch -> isWordChar((char) ch))) {
+                keywords.add(kind);
+            } else {
+                throw new RuntimeException("Can not build scanner for token kind: " + name);
+            }
+        }
+
+        return new DfaScanner(keywords, punctuations);
+    }
+
+    /**
+     * 从 source 当前的位置扫描到末尾, 识别其中所有的词素, 最后并不会产生 EOF
+     *
+     * @param source 指向源代码的指针, 扫描结束后位于末尾
+     * @param sink   接收词素的回调, 偏移与长度以 source 的位置计
+     * @throws RuntimeException 遇到无法识别的字符或不合法的 UTF-8
+     */
+    public void scan(CharPointer source, Sink sink) {
+        while (source.inBound()) {
+            // 跳过空白
+            while (source.inBound() && classOf(source.curr()) == CLASS_WHITESPACE) {
+                source.next();
+            }
+
+            if (!source.inBound()) {
+                break;
+            }
+
+            // 最长匹配: 一直转移到死状态为止. 除起始状态外所有状态都是接受状态
+            final int begin = source.position();
+            int state = STATE_START;
+            while (source.inBound()) {
+                final int next = transitions[state][classOf(source.curr())];
+                if (next == STATE_DEAD) {
+                    break;
+                }
+
+                state = next;
+                source.next();
+            }
+
+            if (state == STATE_START) {
+                throw new RuntimeException("Unknown character: " + source.curr());
+            }
+
+            sink.accept(acceptKind[state], begin, source.position() - begin);
+        }
+    }
+
+    //==================== 以下为实现相关代码 ==============================//
+
+    private static final int ASCII_SIZE = 128;
+
+    private static final int CLASS_INVALID = 0;
+    private static final int CLASS_WHITESPACE = 1;
+    private static final int CLASS_DIGIT = 2;
+    private static final int CLASS_LETTER = 3;
+
+    private static final int STATE_DEAD = -1;
+    private static final int STATE_START = 0;
+    private static final int STATE_ID = 1;
+    private static final int STATE_INT = 2;
+
+    private final byte[] charClass = new byte[ASCII_SIZE];
+    private final int classCount;
+    private final int firstPunctuationClass;
+    private final int[][] transitions;
+    private final TokenKind[] acceptKind;
+
+    private DfaScanner(List<TokenKind> keywords, List<TokenKind> punctuations) {
+        // 先确定字符类
+        int nextClass = CLASS_LETTER + 1;
+        for (int ch = 0; ch < ASCII_SIZE; ch++) {
+            if (Character.isWhitespace(ch)) {
+                charClass[ch] = CLASS_WHITESPACE;
+            } else if (Character.isDigit(ch)) {
+                charClass[ch] = CLASS_DIGIT;
+            } else if (isWordChar((char) ch)) {
+                charClass[ch] = CLASS_LETTER;
+            }
+        }
+
+        for (final var keyword : keywords) {
+            for (final char ch : keyword.getIdentifier().toCharArray()) {
+                if (ch < ASCII_SIZE && charClass[ch] == CLASS_LETTER) {
+                    charClass[ch] = (byte) nextClass++;
+                }
+            }
+        }
+
+        // 关键字字符类之后便是标点字符类, 因此 [CLASS_DIGIT, firstPunctuationClass) 都是可以出现在标识符中的字符类
+        firstPunctuationClass = nextClass;
+        for (final var punctuation : punctuations) {
+            final char ch = punctuationChar(punctuation);
+            if (charClass[ch] != CLASS_INVALID) {
+                throw new RuntimeException("Duplicated punctuation: " + punctuation);
+            }
+            charClass[ch] = (byte) nextClass++;
+        }
+        classCount = nextClass;
+
+        // 再构造状态. 0: 起始, 1: 标识符, 2: 整数, 随后是关键字 trie 与标点
+        final var table = new ArrayList<int[]>();
+        final var accepts = new ArrayList<TokenKind>();
+        final var id = TokenKind.fromString("id");
+        final var intConst = TokenKind.fromString("IntConst");
+
+        table.add(newRow());
+        accepts.add(null);
+        table.add(newRow());
+        accepts.add(id);
+        table.add(newRow());
+        accepts.add(intConst);
+
+        // 标识符状态在任意字母, 数字上转移到自身
+        for (int cls = CLASS_DIGIT; cls < classCount; cls++) {
+            if (isWordClass(cls)) {
+                table.get(STATE_ID)[cls] = STATE_ID;
+                table.get(STATE_START)[cls] = cls == CLASS_DIGIT ? STATE_INT : STATE_ID;
+            }
+        }
+        table.get(STATE_INT)[CLASS_DIGIT] = STATE_INT;
+
+        // 关键字 trie: 每个前缀一个状态, 不在 trie 上的字母数字转移到标识符状态
+        for (final var keyword : keywords) {
+            int state = STATE_START;
+            final var text = keyword.getIdentifier();
+            for (int i = 0; i < text.length(); i++) {
+                final int cls = charClass[text.charAt(i)];
+                int next = table.get(state)[cls];
+                if (next == STATE_ID || (state == STATE_START && next == STATE_INT)) {
+                    next = table.size();
+                    final var row = newRow();
+                    for (int c = CLASS_DIGIT; c < classCount; c++) {
+                        if (isWordClass(c)) {
+                            row[c] = STATE_ID;
+                        }
+                    }
+                    table.add(row);
+                    accepts.add(id);
+                    table.get(state)[cls] = next;
+                }
+                state = next;
+            }
+            accepts.set(state, keyword);
+        }
+
+        // 每个标点只有一个字符, 接受后即进入死状态
+        for (final var punctuation : punctuations) {
+            final int state = table.size();
+            table.add(newRow());
+            accepts.add(punctuation);
+            table.get(STATE_START)[charClass[punctuationChar(punctuation)]] = state;
+        }
+
+        transitions = table.toArray(new int[0][]);
+        acceptKind = accepts.toArray(new TokenKind[0]);
+    }
+
+    private int[] newRow() {
+        final var row = new int[classCount];
+        Arrays.fill(row, STATE_DEAD);
+        return row;
+    }
+
+    private boolean isWordClass(int cls) {
+        return cls >= CLASS_DIGIT && cls < firstPunctuationClass;
+    }
+
+    private int classOf(char ch) {
+        if (ch < ASCII_SIZE) {
+            return charClass[ch];
+        }
+
+        // 非 ASCII 字符不进表, 与原扫描器一样按 Character 的分类处理: 字母可以作为标识符的一部分, 数字与 ASCII 数字相同,
+        // 空白 (如全角空格) 分隔 token
+        if (Character.isAlphabetic(ch)) {
+            return CLASS_LETTER;
+        } else if (Character.isDigit(ch)) {
+            return CLASS_DIGIT;
+        } else if (Character.isWhitespace(ch)) {
+            return CLASS_WHITESPACE;
+        }
+        return CLASS_INVALID;
+    }
+
+    private static char punctuationChar(TokenKind kind) {
+        final var name = kind.getIdentifier();
+        return name.equals("Semicolon") ? ';' : name.charAt(0);
+    }
+
+    private static boolean isWordChar(char ch) {
+        return Character.isAlphabetic(ch) || ch == '_';
+    }
+}
@@ -1,13 +1,24 @@
 package cn.edu.hitsz.compiler.lexer;
 
 import cn.edu.hitsz.compiler.symtab.SymbolTable;
+import cn.edu.hitsz.compiler.utils.DumpWriter;
 import cn.edu.hitsz.compiler.utils.FileUtils;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Set;
-import java.util.stream.StreamSupport;
 
 /**
  * TODO: 实验一: 实现词法分析
@@ -24,11 +35,16 @@ public class LexicalAnalyzer {
         this.symbolTable = symbolTable;
     }
 
-    private String content;
+    private String content; // 由 loadSource 加载的源代码
+    private ByteBuffer mapped; // 由 loadFile 映射的 UTF-8 源文件
     private final List<Token> tokens = new ArrayList<>();
+    private TokenBuffer tokenBuffer = null; // 使用 runDfa 时的结果
 
     /**
      * 从给予的路径中读取并加载文件内容
+     * <br>
+     * 文件以只读方式映射到内存中, 不会被读入成按行的列表或整个文件的 String; run 直接在映射的字节上边解码 UTF-8 边扫描,
+     * 因此除了产生的 token 之外几乎不占用堆内存. 文件不能超过 2GB.
      * 
      * @param path 路径
      */
@@ -36,7 +52,18 @@ public class LexicalAnalyzer {
         // TODO: 词法分析前的缓冲区实现
         // 可自由实现各类缓冲区
         // 或直接采用完整读入方法
-        this.content = FileUtils.readFile(path);
+        this.mapped = FileUtils.mapFile(path);
+        this.content = null;
+    }
+
+    /**
+     * 直接加载源代码文本, 用于源代码不在文件中的场合 (如编译服务收到的请求)
+     *
+     * @param source 源代码
+     */
+    public void loadSource(String source) {
+        this.content = source;
+        this.mapped = null;
     }
 
     /**
@@ -45,7 +72,7 @@ public class LexicalAnalyzer {
      */
     public void run() {
         // TODO: 自动机实现的词法分析过程
-        final var ptr = CharPointer.from(content);
+        final var ptr = mapped != null ? CharPointer.from(mapped) : CharPointer.from(content);
         while (ptr.inBound()) {
             while (ptr.inBoundAnd(Character::isWhitespace)) {
                 ptr.next();
@@ -60,29 +87,39 @@ public class LexicalAnalyzer {
                 tokens.add(Token.normal("IntConst", text));
 
             } else if (ptr.satisfy(this::isIdentifierBegin)) {
-                final var text = ptr.collectWhile(this::isIdentifierBody);
-                if (isKeyword(text)) {
-                    tokens.add(Token.simple(text));
-                } else {
-                    tokens.add(Token.normal("id", text));
-
-                    if (!symbolTable.has(text)) {
-                        symbolTable.add(text);
-                    }
-                }
+                tokens.add(register(wordToken(ptr.collectWhile(this::isIdentifierBody))));
 
             } else if (ptr.satisfy(this::isPunctuation)) {
-                final var punc = String.valueOf(ptr.next());
-                // 由于实验室那边提供的生成 LR 表的软件中分号是一个特殊字符,
-                // 所以必须在这里对分号特殊处理, 换个词来表示分号
-                tokens.add(Token.simple(punc.equals(";") ? "Semicolon" : punc));
+                tokens.add(register(punctuationToken(ptr.next())));
 
             } else {
                 throw new RuntimeException("Unknown character: " + ptr.curr());
             }
         }
 
-        tokens.add(Token.eof());
+        tokens.add(register(Token.eof()));
+    }
+
+    /**
+     * 使用表驱动的 DFA 扫描器执行词法分析, 结果与 run 相同, 除了关键字集合由码点文件决定:
+     * 不在码点文件中的单词一律视为标识符.
+     * <br>
+     * 扫描结果直接写入紧凑的 {@link TokenBuffer}, 不为每个词素创建 Token (同类型同文本的 token 共享同一实例).
+     *
+     * @see DfaScanner
+     */
+    public void runDfa() {
+        // 与 run 一样直接扫描映射的字节, 词素的位置是字节偏移, 需要文本时才从映射中解码
+        final var source = mapped != null ? CharPointer.from(mapped) : CharPointer.from(content);
+        final var buffer = new TokenBuffer(source);
+        DfaScanner.fromTokenKinds().scan(source, buffer);
+        buffer.addEof();
+
+        for (final var token : buffer) {
+            register(token);
+        }
+
+        this.tokenBuffer = buffer;
     }
 
     /**
@@ -95,13 +132,107 @@ public class LexicalAnalyzer {
         // 词法分析过程可以使用 Stream 或 Iterator 实现按需分析
         // 亦可以直接分析完整个文件
         // 总之实现过程能转化为一列表即可
-        return tokens;
+        return tokenBuffer != null ? tokenBuffer : tokens;
+    }
+
+    /**
+     * 以流式方式对 reader 中的源代码进行词法分析
+     * <br>
+     * 与 loadFile + run 不同, 该方法不会读入整个文件, 也不会预先生成完整的 token 列表: 源代码按固定大小的块从 reader 中读入,
+     * 每次向迭代器请求下一个 token 时才识别一个词素. 因此内存占用只取决于缓冲区大小 (与最长的词素), 而与源文件大小无关.
+     * <br>
+     * 符号表条目会在对应标识符 (以及其后的一个 token) 被识别出来时才加入; 返回的 Iterable 只能被遍历一次, reader 在读到末尾后会被关闭.
+     *
+     * @param reader 源代码
+     * @return 按需产生 token 的 Iterable, 最后一个 token 为 EOF
+     */
+    public Iterable<Token> streamTokens(Reader reader) {
+        final var stream = new TokenStream(reader);
+        return () -> stream;
+    }
+
+    /**
+     * 以流式方式对给定路径的文件进行词法分析
+     *
+     * @param path 路径
+     * @return 按需产生 token 的 Iterable
+     * @see #streamTokens(Reader)
+     */
+    public Iterable<Token> streamFile(String path) {
+        try {
+            // 不套 BufferedReader, TokenStream 自己维护了缓冲区
+            return streamTokens(new Utf8Reader(FileChannel.open(Paths.get(path), StandardOpenOption.READ)));
+        } catch (IOException e) {
+            throw new RuntimeException("IO Exception on " + path, e);
+        }
     }
 
     public void dumpTokens(String path) {
-        FileUtils.writeLines(
-                path,
-                StreamSupport.stream(getTokens().spliterator(), false).map(Token::toString).toList());
+        DumpWriter.writeLines(path, getTokens(), LexicalAnalyzer::writeToken);
+    }
+
+    /**
+     * 以 {@link Token#toString()} 的格式输出 token
+     *
+     * @param token token
+     * @param out   输出
+     */
+    public static void writeToken(Token token, DumpWriter out) {
+        out.append('(').append(token.getKindId()).append(',').append(token.getText()).append(')');
+    }
+
+    /**
+     * @param previous token 之前的 token, 没有时为 null
+     * @param token    token
+     * @param next     token 之后的 token, 没有时为 null
+     * @return token 是否为标号, 即 {@code goto} 之后或 {@code :} 之前的标识符. 标号不是变量, 不进入符号表
+     */
+    public static boolean isLabel(Token previous, Token token, Token next) {
+        return token.getKind() == TokenKind.fromString("id")
+            && (previous != null && previous.getKind() == TokenKind.fromString("goto")
+                || next != null && next.getKind() == TokenKind.fromString(":"));
+    }
+
+    /**
+     * @param text 由标识符字符组成的词素
+     * @return 关键字对应的 token, 或是标识符 token
+     */
+    private Token wordToken(String text) {
+        if (isKeyword(text)) {
+            return Token.simple(text);
+        }
+
+        return Token.normal("id", text);
+    }
+
+    // 登记符号表时的上下文: 上一个 token, 以及要看到下一个 token 才能确定是不是标号的标识符和它之前的 token
+    private Token last = null;
+    private Token pending = null;
+    private Token beforePending = null;
+
+    /**
+     * 按顺序接收每个 token, 维护符号表: 除标号之外的标识符都登记到符号表中.
+     * 标识符之后是不是冒号要等下一个 token 才知道, 所以标识符在下一个 token (至少还有 EOF) 到来时才登记
+     *
+     * @return token 本身
+     */
+    private Token register(Token token) {
+        if (pending != null && !isLabel(beforePending, pending, token) && !symbolTable.has(pending.getText())) {
+            symbolTable.add(pending.getText());
+        }
+        pending = null;
+        if (token.getKind() == TokenKind.fromString("id")) {
+            pending = token;
+            beforePending = last;
+        }
+        last = token;
+        return token;
+    }
+
+    private Token punctuationToken(char punc) {
+        // 由于实验室那边提供的生成 LR 表的软件中分号是一个特殊字符,
+        // 所以必须在这里对分号特殊处理, 换个词来表示分号
+        return Token.simple(punc == ';' ? "Semicolon" : String.valueOf(punc));
     }
 
     private boolean isIdentifierBegin(char ch) {
@@ -123,61 +254,157 @@ public class LexicalAnalyzer {
         return keywords.contains(text);
     }
 
-    interface CharPredicate {
-        boolean test(char ch);
-    }
-
-    private static class CharPointer {
-        public static CharPointer from(String string) {
-            return new CharPointer(string);
-        }
+    /**
+     * 流式词法分析的缓冲区大小 (字符数)
+     */
+    private static final int STREAM_BUFFER_SIZE = 8192;
 
-        public boolean inBound() {
-            return currentIndex < length;
-        }
+    /**
+     * 按需识别 token 的迭代器, 自带一个定长的字符缓冲区, 缓冲区读完后再从 reader 中读入下一块.
+     * 跨越两个块的词素会被拼接在一个复用的 StringBuilder 中.
+     */
+    private class TokenStream implements Iterator<Token> {
+        @Override
+        public boolean hasNext() {
+            if (lookahead == null && !eofReturned) {
+                lookahead = register(scan());
+            }
 
-        public boolean inBoundAnd(CharPredicate predicate) {
-            return inBound() && predicate.test(chars[currentIndex]);
+            return lookahead != null;
         }
 
-        public char curr() {
-            if (!inBound()) {
+        @Override
+        public Token next() {
+            if (!hasNext()) {
                 throw new NoSuchElementException();
             }
 
-            return chars[currentIndex];
+            final var token = lookahead;
+            lookahead = null;
+            return token;
         }
 
-        public boolean satisfy(CharPredicate predicate) {
-            return predicate.test(curr());
+        private Token scan() {
+            while (ensure() && Character.isWhitespace(buffer[position])) {
+                position++;
+            }
+
+            if (!ensure()) {
+                eofReturned = true;
+                return Token.eof();
+            }
+
+            final char ch = buffer[position];
+            if (Character.isDigit(ch)) {
+                return Token.normal("IntConst", collectWhile(Character::isDigit));
+            } else if (isIdentifierBegin(ch)) {
+                return wordToken(collectWhile(LexicalAnalyzer.this::isIdentifierBody));
+            } else if (isPunctuation(ch)) {
+                position++;
+                return punctuationToken(ch);
+            } else {
+                throw new RuntimeException("Unknown character: " + ch);
+            }
         }
 
-        public char next() {
-            if (!inBound()) {
-                throw new NoSuchElementException();
+        private String collectWhile(CharPointer.CharPredicate predicate) {
+            lexeme.setLength(0);
+            while (ensure() && predicate.test(buffer[position])) {
+                lexeme.append(buffer[position++]);
             }
 
-            return chars[currentIndex++];
+            return lexeme.toString();
         }
 
-        public String collectWhile(CharPredicate predicate) {
-            final var builder = new StringBuilder();
-            while (inBoundAnd(predicate)) {
-                builder.append(next());
+        /**
+         * @return 缓冲区中是否还有未读的字符, 必要时从 reader 中读入下一块
+         */
+        private boolean ensure() {
+            if (position < limit) {
+                return true;
+            }
+
+            if (readerExhausted) {
+                return false;
             }
 
-            return builder.toString();
+            try {
+                int count;
+                do {
+                    count = reader.read(buffer, 0, buffer.length);
+                } while (count == 0);
+
+                if (count < 0) {
+                    readerExhausted = true;
+                    reader.close();
+                    return false;
+                }
+
+                position = 0;
+                limit = count;
+                return true;
+            } catch (IOException e) {
+                throw new RuntimeException("IO Exception while lexing", e);
+            }
         }
 
-        private CharPointer(String string) {
-            this.chars = string.toCharArray();
-            this.currentIndex = 0;
-            this.length = string.length();
+        private TokenStream(Reader reader) {
+            this.reader = reader;
         }
 
-        private final char[] chars;
-        private final int length;
-        private int currentIndex;
+        private final Reader reader;
+        private final char[] buffer = new char[STREAM_BUFFER_SIZE];
+        private final StringBuilder lexeme = new StringBuilder();
+        private int position = 0;
+        private int limit = 0;
+        private boolean readerExhausted = false;
+        private boolean eofReturned = false;
+        private Token lookahead = null;
     }
 
-}
\ No newline at end of file
+
+    /**
+     * 流式读取文件用的 UTF-8 解码器. 与 InputStreamReader 不同, 遇到不合法的 UTF-8 时不会替换成 U+FFFD,
+     * 而是与 run 一样报告出错的字节偏移. 出错之前解码出的字符仍会先交给 TokenStream
+     */
+    private static class Utf8Reader extends Reader {
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            final var out = CharBuffer.wrap(buffer, offset, length);
+            while (true) {
+                final var result = decoder.decode(bytes, out, channelExhausted);
+                if (out.position() > offset) {
+                    return out.position() - offset;
+                }
+                if (result.isError()) {
+                    throw CharPointer.malformed(consumed + bytes.position());
+                }
+                if (channelExhausted) {
+                    // UTF-8 解码器在输入结束时没有需要 flush 的状态
+                    return -1;
+                }
+
+                consumed += bytes.position();
+                bytes.compact();
+                channelExhausted = channel.read(bytes) < 0;
+                bytes.flip();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        private Utf8Reader(ReadableByteChannel channel) {
+            this.channel = channel;
+            this.bytes.flip();
+        }
+
+        private final ReadableByteChannel channel;
+        private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder(); // 默认即是 REPORT
+        private final ByteBuffer bytes = ByteBuffer.allocate(STREAM_BUFFER_SIZE);
+        private long consumed = 0; // bytes 之前已经解码完的字节数
+        private boolean channelExhausted = false;
+    }
+}
@@ -0,0 +1,257 @@
+package cn.edu.hitsz.compiler.lexer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * 以数组结构 (struct-of-arrays) 紧凑存储的 token 序列
+ * <br>
+ * 每个 token 只占用三个 int: 类型的码点, 词素在源代码中的起始位置与长度. 与每个词素一个 Token 对象相比,
+ * 省掉了对象头与 String 的开销.
+ * <br>
+ * 需要 Token 对象时 (比如交给 SyntaxAnalyzer 及各个 ActionObserver), 由 {@link #tokenAt(int)} 返回共享的 Token:
+ * 关键字与标点每种类型只有一个实例, 标识符与整数常量则按文本驻留, 相同文本只会创建一次 String 与 Token.
+ * 由于 Token 是不可变的, 共享实例不会影响任何使用者.
+ *
+ * @see DfaScanner 可以直接将扫描结果写入该结构
+ */
+public class TokenBuffer implements Iterable<Token>, DfaScanner.Sink {
+    /**
+     * @param source token 的偏移与长度所指向的源代码, 只用来按位置读取, 不会移动该指针
+     */
+    public TokenBuffer(CharPointer source) {
+        this.source = source;
+        this.idCode = TokenKind.fromString("id").getCode();
+        this.intConstCode = TokenKind.fromString("IntConst").getCode();
+    }
+
+    @Override
+    public void accept(TokenKind kind, int offset, int length) {
+        add(kind.getCode(), offset, length);
+    }
+
+    /**
+     * 在末尾追加代表 EOF 的 token
+     */
+    public void addEof() {
+        add(TokenKind.eof().getCode(), source.end(), 0);
+    }
+
+    /**
+     * @return token 的数量
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param index token 的下标
+     * @return 该 token 类型的码点
+     */
+    public int kindCode(int index) {
+        checkIndex(index);
+        return kinds[index];
+    }
+
+    /**
+     * @param index token 的下标
+     * @return 该 token 的类型
+     */
+    public TokenKind kind(int index) {
+        return TokenKind.fromCode(kindCode(index));
+    }
+
+    /**
+     * @param index token 的下标
+     * @return 该 token 的词素在源代码中的起始位置 (映射的 UTF-8 文件中为字节偏移)
+     */
+    public int offset(int index) {
+        checkIndex(index);
+        return offsets[index];
+    }
+
+    /**
+     * @param index token 的下标
+     * @return 该 token 的词素的长度 (以源代码的单位计)
+     */
+    public int length(int index) {
+        checkIndex(index);
+        return lengths[index];
+    }
+
+    /**
+     * @param index token 的下标
+     * @return 该 token 的文本 (驻留过的 String). 关键字与标点与 Token 一样返回空字符串
+     */
+    public String text(int index) {
+        return tokenAt(index).getText();
+    }
+
+    /**
+     * @param index token 的下标
+     * @return 该位置上的 token, 相同类型 (与相同文本) 的 token 共享同一实例
+     */
+    public Token tokenAt(int index) {
+        checkIndex(index);
+        if (hasText(kinds[index])) {
+            return intern(TokenKind.fromCode(kinds[index]), offsets[index], lengths[index]);
+        }
+
+        final int slot = kinds[index] + 1; // EOF 的码点为 -1
+        if (slot >= simpleTokens.length) {
+            simpleTokens = Arrays.copyOf(simpleTokens, slot + 1);
+        }
+        if (simpleTokens[slot] == null) {
+            final var kind = TokenKind.fromCode(kinds[index]);
+            simpleTokens[slot] = kind == TokenKind.eof() ? Token.eof() : Token.simple(kind);
+        }
+        return simpleTokens[slot];
+    }
+
+    /**
+     * @return 目前已驻留的所有带文本的 token (标识符与整数常量), 每种文本一个
+     */
+    public List<Token> internedTokens() {
+        for (int i = 0; i < size; i++) {
+            if (hasText(kinds[i])) {
+                intern(TokenKind.fromCode(kinds[i]), offsets[i], lengths[i]);
+            }
+        }
+
+        return Collections.unmodifiableList(interned);
+    }
+
+    @Override
+    public Iterator<Token> iterator() {
+        return new Iterator<>() {
+            private int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                return index < size;
+            }
+
+            @Override
+            public Token next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                return tokenAt(index++);
+            }
+        };
+    }
+
+    //==================== 以下为实现相关代码 ==============================//
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final CharPointer source;
+    private final int idCode;
+    private final int intConstCode;
+    private int[] kinds = new int[INITIAL_CAPACITY];
+    private int[] offsets = new int[INITIAL_CAPACITY];
+    private int[] lengths = new int[INITIAL_CAPACITY];
+    private int size = 0;
+
+    private Token[] simpleTokens = new Token[0];
+
+    // 驻留表: 开放寻址的哈希表, 槽中存放 interned 的下标 + 1, 0 表示空槽.
+    // 比较与散列都直接使用源代码中的单元, 因此记下每个驻留的 token 第一次出现的位置
+    private final List<Token> interned = new ArrayList<>();
+    private int[] internOffsets = new int[INITIAL_CAPACITY];
+    private int[] internLengths = new int[INITIAL_CAPACITY];
+    private int[] internSlots = new int[INITIAL_CAPACITY];
+
+    private void add(int code, int offset, int length) {
+        if (size == kinds.length) {
+            final int capacity = size * 2;
+            kinds = Arrays.copyOf(kinds, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+        }
+
+        kinds[size] = code;
+        offsets[size] = offset;
+        lengths[size] = length;
+        size++;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(index);
+        }
+    }
+
+    private boolean hasText(int code) {
+        return code == idCode || code == intConstCode;
+    }
+
+    /**
+     * 按 (类型, 源代码切片) 查找驻留的 token, 不存在时才创建 String 与 Token
+     */
+    private Token intern(TokenKind kind, int offset, int length) {
+        final int mask = internSlots.length - 1;
+        int slot = hash(kind, offset, length) & mask;
+        while (internSlots[slot] != 0) {
+            final int index = internSlots[slot] - 1;
+            final var token = interned.get(index);
+            if (token.getKind() == kind && sliceEquals(internOffsets[index], internLengths[index], offset, length)) {
+                return token;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        final var token = Token.normal(kind, source.text(offset, offset + length));
+        final int index = interned.size();
+        if (index == internOffsets.length) {
+            internOffsets = Arrays.copyOf(internOffsets, index * 2);
+            internLengths = Arrays.copyOf(internLengths, index * 2);
+        }
+        interned.add(token);
+        internOffsets[index] = offset;
+        internLengths[index] = length;
+        internSlots[slot] = index + 1;
+        if (interned.size() * 2 > internSlots.length) {
+            rehash();
+        }
+        return token;
+    }
+
+    private int hash(TokenKind kind, int offset, int length) {
+        int hash = kind.getCode();
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + source.unitAt(i);
+        }
+        return hash;
+    }
+
+    private boolean sliceEquals(int offset, int length, int otherOffset, int otherLength) {
+        if (length != otherLength) {
+            return false;
+        }
+
+        for (int i = 0; i < length; i++) {
+            if (source.unitAt(offset + i) != source.unitAt(otherOffset + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehash() {
+        internSlots = new int[internSlots.length * 2];
+        final int mask = internSlots.length - 1;
+        for (int i = 0; i < interned.size(); i++) {
+            int slot = hash(interned.get(i).getKind(), internOffsets[i], internLengths[i]) & mask;
+            while (internSlots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            internSlots[slot] = i + 1;
+        }
+    }
+}
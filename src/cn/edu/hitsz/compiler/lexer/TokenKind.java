@@ -41,13 +41,17 @@ public class TokenKind extends Term {
     private static final Map<String, TokenKind> allowed = new HashMap<>();
     // EOF 不会在 coding_map.csv 中, 这里我们手动添加
     private static final TokenKind eof = new TokenKind("$", -1);
+    // 码点到 TokenKind 的映射, 下标为码点, 供以码点存储 token 的结构反查
+    private static TokenKind[] byCode = new TokenKind[0];
 
     /**
-     * 从码点文件中读取允许的标识符集合
+     * 从码点文件中读取允许的标识符集合. 只在第一次调用时读取, 之后的调用直接返回
+     * <br>
+     * 读取后的集合不再改变, 可以被多个编译同时使用; 在把编译交给其他线程之前调用一次即可.
      */
-    public static void loadTokenKinds() {
+    public static synchronized void loadTokenKinds() {
         if (!allowed.isEmpty()) { // 保证只读取一次
-            throw new RuntimeException("Can not set allowed twice");
+            return;
         }
 
         final List<String> lines = FileUtils.readLines(FilePathConfig.CODING_MAP_PATH);
@@ -63,6 +67,10 @@ public class TokenKind extends Term {
             allowed.put(term, new TokenKind(term, code));
         }
 
+        final int maxCode = allowed.values().stream().mapToInt(TokenKind::getCode).max().orElse(0);
+        byCode = new TokenKind[maxCode + 1];
+        allowed.values().forEach(kind -> byCode[kind.getCode()] = kind);
+
         // for (var token : allowed.entrySet()) {
         // System.out.println(token);
         // }
@@ -103,6 +111,23 @@ public class TokenKind extends Term {
         return allowed.get(id);
     }
 
+    /**
+     * @param code 码点, EOF 的码点为 -1
+     * @return 该码点对应的 TokenKind
+     * @throws RuntimeException 码点文件中没有该码点
+     */
+    public static TokenKind fromCode(int code) {
+        if (code == eof.code) {
+            return eof;
+        }
+
+        if (code < 0 || code >= byCode.length || byCode[code] == null) {
+            throw new RuntimeException("Illegal code: " + code);
+        }
+
+        return byCode[code];
+    }
+
     /**
      * @return 代表 EOF 的 TokenKind
      */
@@ -0,0 +1,143 @@
+package cn.edu.hitsz.compiler.opt;
+
+import cn.edu.hitsz.compiler.ir.IRImmediate;
+import cn.edu.hitsz.compiler.ir.IRLabel;
+import cn.edu.hitsz.compiler.ir.IRValue;
+import cn.edu.hitsz.compiler.ir.IRVariable;
+import cn.edu.hitsz.compiler.ir.Instruction;
+import cn.edu.hitsz.compiler.ir.InstructionKind;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * 常量折叠与常量传播
+ * <br>
+ * 从前往后扫描一遍代码, 记录每个变量当前是否为已知常量:
+ * <ul>
+ *     <li>操作数中值已知的变量被替换为立即数</li>
+ *     <li>两个操作数都是立即数的 ADD/SUB/MUL 折叠为 MOV 立即数, 其结果变量的值随之已知</li>
+ *     <li>x + 0, 0 + x, x - 0, x * 1, 1 * x 化简为 MOV x</li>
+ *     <li>其余指令的结果变量的值变为未知</li>
+ *     <li>条件为立即数的条件跳转, 一定跳转的改写为 JMP, 一定不跳转的删去</li>
+ *     <li>LABEL 处可能从别处跳转而来, 所有变量的值都变为未知</li>
+ * </ul>
+ * 运算按 int 进行, 溢出时回绕, 与 IREmulator 及 RISC-V 32 位运算一致.
+ * 尚未赋值的变量不会被视为常量, 所以 IREmulator 对 "用尚未赋值的变量参与运算" 的报错不受影响.
+ * <br>
+ * 本遍不删除指令, 值已被传播出去的 MOV 由之后的死代码删除去掉.
+ */
+public class ConstantFolding implements IRPass {
+    @Override
+    public List<Instruction> run(List<Instruction> instructions) {
+        final var known = new BitSet();
+        var values = new int[Math.max(IRVariable.idBound(instructions), 16)];
+        final var result = new ArrayList<Instruction>(instructions.size());
+
+        for (final var instruction : instructions) {
+            final var kind = instruction.getKind();
+            if (kind.isReturn()) {
+                result.add(Instruction.createRet(substitute(instruction.getReturnValue(), known, values)));
+                continue;
+            }
+            if (kind == InstructionKind.LABEL) {
+                known.clear();
+                result.add(instruction);
+                continue;
+            }
+            if (kind == InstructionKind.JMP) {
+                result.add(instruction);
+                continue;
+            }
+            if (kind.isBranch()) {
+                foldBranch(kind, substitute(instruction.getCondition(), known, values), instruction.getLabel())
+                    .ifPresent(result::add);
+                continue;
+            }
+
+            final var target = instruction.getResult();
+            final Instruction folded;
+            if (kind == InstructionKind.MOV) {
+                folded = Instruction.createMov(target, substitute(instruction.getFrom(), known, values));
+            } else {
+                folded = fold(kind, target,
+                    substitute(instruction.getLHS(), known, values),
+                    substitute(instruction.getRHS(), known, values));
+            }
+            result.add(folded);
+
+            // 更新结果变量的值
+            final int id = target.getId();
+            if (id >= values.length) {
+                values = Arrays.copyOf(values, Math.max(id + 1, values.length * 2));
+            }
+            if (folded.getKind() == InstructionKind.MOV && folded.getFrom() instanceof IRImmediate immediate) {
+                known.set(id);
+                values[id] = immediate.getValue();
+            } else {
+                known.clear(id);
+            }
+        }
+
+        return result;
+    }
+
+    //==================== 以下为实现相关代码 ==============================//
+
+    private static IRValue substitute(IRValue value, BitSet known, int[] values) {
+        if (value instanceof IRVariable variable && known.get(variable.getId())) {
+            return IRImmediate.of(values[variable.getId()]);
+        }
+        return value;
+    }
+
+    static Instruction fold(InstructionKind kind, IRVariable target, IRValue lhs, IRValue rhs) {
+        if (lhs instanceof IRImmediate l && rhs instanceof IRImmediate r) {
+            final int value = switch (kind) {
+                case ADD -> l.getValue() + r.getValue();
+                case SUB -> l.getValue() - r.getValue();
+                case MUL -> l.getValue() * r.getValue();
+                default -> throw new RuntimeException("Unexpected instruction kind: " + kind);
+            };
+            return Instruction.createMov(target, IRImmediate.of(value));
+        }
+
+        // 单位元
+        final boolean identity = switch (kind) {
+            case ADD -> isConstant(rhs, 0) || isConstant(lhs, 0);
+            case SUB -> isConstant(rhs, 0);
+            case MUL -> isConstant(rhs, 1) || isConstant(lhs, 1);
+            default -> false;
+        };
+        if (identity) {
+            return Instruction.createMov(target, lhs.isImmediate() ? rhs : lhs);
+        }
+
+        return switch (kind) {
+            case ADD -> Instruction.createAdd(target, lhs, rhs);
+            case SUB -> Instruction.createSub(target, lhs, rhs);
+            case MUL -> Instruction.createMul(target, lhs, rhs);
+            default -> throw new RuntimeException("Unexpected instruction kind: " + kind);
+        };
+    }
+
+    /**
+     * @return 化简后的条件跳转, 一定不跳转时为空
+     */
+    static Optional<Instruction> foldBranch(InstructionKind kind, IRValue condition, IRLabel target) {
+        if (condition instanceof IRImmediate immediate) {
+            final boolean taken = kind == InstructionKind.BEQZ ? immediate.getValue() == 0 : immediate.getValue() > 0;
+            return taken ? Optional.of(Instruction.createJmp(target)) : Optional.empty();
+        }
+        return Optional.of(kind == InstructionKind.BEQZ
+            ? Instruction.createBeqz(condition, target)
+            : Instruction.createBgtz(condition, target));
+    }
+
+    private static boolean isConstant(IRValue value, int constant) {
+        return value instanceof IRImmediate immediate && immediate.getValue() == constant;
+    }
+}
@@ -0,0 +1,178 @@
+package cn.edu.hitsz.compiler.opt;
+
+import cn.edu.hitsz.compiler.ir.AssignmentAnalysis;
+import cn.edu.hitsz.compiler.ir.ControlFlowGraph;
+import cn.edu.hitsz.compiler.ir.IRLabel;
+import cn.edu.hitsz.compiler.ir.IRVariable;
+import cn.edu.hitsz.compiler.ir.Instruction;
+import cn.edu.hitsz.compiler.ir.InstructionKind;
+import cn.edu.hitsz.compiler.ir.Liveness;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * 死代码删除
+ * <ol>
+ *     <li>截断: 第一条 RET 之后的指令不会被执行, 全部删去. 用尚未赋值的变量参与运算的指令执行时会抛出异常,
+ *     其后的指令同样不会被执行, 也一并删去</li>
+ *     <li>删除: 从后往前扫描, 按活跃变量分析的方程 {@code in = use ∪ (out - def)} 维护活跃集合,
+ *     结果在之后不再活跃的指令被删去. 被删去的指令不把它的操作数加入活跃集合, 所以一遍扫描就能删掉整条无用的计算链</li>
+ * </ol>
+ * RET 与会抛出异常的指令总是保留.
+ * <br>
+ * 有控制流的代码改为:
+ * <ol>
+ *     <li>删去不可达的基本块, 紧接着目标 LABEL 的 JMP, 以及没有跳转指向的 LABEL</li>
+ *     <li>按控制流图上的活跃变量分析删去结果在之后不再活跃的指令, 读的变量不一定已被赋值 (见 {@link AssignmentAnalysis})
+ *     的指令可能会抛出异常, 不删. 删去一些指令后其操作数可能也不再活跃, 所以重复到没有指令可删为止</li>
+ * </ol>
+ */
+public class DeadCodeElimination implements IRPass {
+    @Override
+    public List<Instruction> run(List<Instruction> instructions) {
+        if (ControlFlowGraph.hasControlFlow(instructions)) {
+            return eliminateDeadDefinitions(simplifyControlFlow(instructions));
+        }
+
+        // ============================== 截断 ==============================
+        final var reachable = Reachable.of(instructions);
+        final int end = reachable.instructions().size();
+        final int trap = reachable.trap() ? end - 1 : -1;
+
+        // ============================== 删除 ==============================
+        final var live = new BitSet();
+        final var kept = new ArrayList<Instruction>(end);
+        for (int i = end - 1; i >= 0; i--) {
+            final var instruction = reachable.instructions().get(i);
+            if (!instruction.getKind().isReturn() && i != trap) {
+                final int def = instruction.getResult().getId();
+                if (!live.get(def)) {
+                    continue;
+                }
+                live.clear(def);
+            }
+
+            for (final var operand : instruction.getOperands()) {
+                if (operand instanceof IRVariable variable) {
+                    live.set(variable.getId());
+                }
+            }
+            kept.add(instruction);
+        }
+
+        Collections.reverse(kept);
+        return kept;
+    }
+
+    //==================== 以下为实现相关代码 ==============================//
+
+    /**
+     * 程序中会被执行到的部分: 直到第一条 RET 或第一条会抛出异常的指令 (含) 为止
+     *
+     * @param instructions 会被执行到的指令
+     * @param trap         最后一条指令是否会抛出异常
+     */
+    record Reachable(List<Instruction> instructions, boolean trap) {
+        static Reachable of(List<Instruction> instructions) {
+            final var assigned = new BitSet();
+            for (int i = 0; i < instructions.size(); i++) {
+                final var instruction = instructions.get(i);
+                if (readsUnassigned(instruction, assigned)) {
+                    // RET 一个尚未赋值的变量不会抛出异常, 只是没有返回值
+                    return new Reachable(instructions.subList(0, i + 1), !instruction.getKind().isReturn());
+                }
+                if (instruction.getKind().isReturn()) {
+                    return new Reachable(instructions.subList(0, i + 1), false);
+                }
+                assigned.set(instruction.getResult().getId());
+            }
+            return new Reachable(instructions, false);
+        }
+    }
+
+    private static List<Instruction> simplifyControlFlow(List<Instruction> instructions) {
+        final var graph = ControlFlowGraph.build(instructions);
+        final var reachable = new ArrayList<Instruction>(instructions.size());
+        for (final var block : graph.blocks()) {
+            if (graph.isReachable(block.index())) {
+                reachable.addAll(instructions.subList(block.begin(), block.end()));
+            }
+        }
+
+        final var targets = new HashSet<IRLabel>();
+        final var jumps = new ArrayList<Instruction>(reachable.size());
+        for (int i = 0; i < reachable.size(); i++) {
+            final var instruction = reachable.get(i);
+            if (instruction.getKind() == InstructionKind.JMP && i + 1 < reachable.size()
+                    && reachable.get(i + 1).getKind() == InstructionKind.LABEL
+                    && reachable.get(i + 1).getLabel().equals(instruction.getLabel())) {
+                continue;
+            }
+            if (instruction.getKind().isBranch()) {
+                targets.add(instruction.getLabel());
+            }
+            jumps.add(instruction);
+        }
+
+        final var result = new ArrayList<Instruction>(jumps.size());
+        for (final var instruction : jumps) {
+            if (instruction.getKind() != InstructionKind.LABEL || targets.contains(instruction.getLabel())) {
+                result.add(instruction);
+            }
+        }
+        return result;
+    }
+
+    private static List<Instruction> eliminateDeadDefinitions(List<Instruction> instructions) {
+        var current = instructions;
+        boolean removed = true;
+        while (removed) {
+            removed = false;
+            final var liveness = Liveness.analyze(current);
+            final var graph = liveness.controlFlowGraph();
+            final var analysis = AssignmentAnalysis.analyze(current, graph);
+
+            // 活跃变量只能从后往前推, 先记下结果不再被用到的指令
+            final var analyzed = current;
+            final var unused = new BitSet(analyzed.size());
+            liveness.forEachLiveOut((i, liveOut) -> {
+                final var instruction = analyzed.get(i);
+                if (instruction.getKind().hasResult() && !liveOut.get(instruction.getResult().getId())) {
+                    unused.set(i);
+                }
+            });
+
+            final var kept = new ArrayList<Instruction>(current.size());
+            for (final var block : graph.blocks()) {
+                final var assigned = analysis.definitelyAssigned(block.index());
+                for (int i = block.begin(); i < block.end(); i++) {
+                    final var instruction = current.get(i);
+                    if (instruction.getKind().hasResult()) {
+                        final var result = instruction.getResult();
+                        if (unused.get(i) && !readsUnassigned(instruction, assigned)) {
+                            removed = true;
+                            continue;
+                        }
+                        assigned.set(result.getId());
+                    }
+                    kept.add(instruction);
+                }
+            }
+            current = kept;
+        }
+        return current;
+    }
+
+    private static boolean readsUnassigned(Instruction instruction, BitSet assigned) {
+        for (final var operand : instruction.getOperands()) {
+            if (operand instanceof IRVariable variable && !assigned.get(variable.getId())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
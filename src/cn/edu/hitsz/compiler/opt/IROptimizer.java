@@ -0,0 +1,49 @@
+package cn.edu.hitsz.compiler.opt;
+
+import cn.edu.hitsz.compiler.ir.Instruction;
+
+import java.util.List;
+
+/**
+ * 依次执行若干遍 IR 优化
+ * <br>
+ * 在 IRGenerator 产生 IR 之后, IREmulator 与 AssemblyGenerator 加载 IR 之前运行, 二者看到的是同一份优化后的 IR.
+ */
+public class IROptimizer {
+    /**
+     * @return 默认的优化流程
+     */
+    public static IROptimizer standard() {
+        return new IROptimizer(List.of(new ConstantFolding(), new LocalValueNumbering(), new DeadCodeElimination()));
+    }
+
+    /**
+     * @return 基于 SSA 形式的优化流程, 局部值编号产生的 MOV 由第二遍 SSA 优化传播并删去
+     */
+    public static IROptimizer ssa() {
+        return new IROptimizer(List.of(new SSAOptimization(), new LocalValueNumbering(), new SSAOptimization()));
+    }
+
+    /**
+     * @param passes 按顺序执行的优化
+     */
+    public IROptimizer(List<IRPass> passes) {
+        this.passes = List.copyOf(passes);
+    }
+
+    /**
+     * @param instructions 优化前的 IR
+     * @return 优化后的 IR
+     */
+    public List<Instruction> optimize(List<Instruction> instructions) {
+        var result = instructions;
+        for (final var pass : passes) {
+            result = pass.run(result);
+        }
+        return result;
+    }
+
+    //==================== 以下为实现相关代码 ==============================//
+
+    private final List<IRPass> passes;
+}
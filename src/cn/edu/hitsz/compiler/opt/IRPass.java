@@ -0,0 +1,18 @@
+package cn.edu.hitsz.compiler.opt;
+
+import cn.edu.hitsz.compiler.ir.Instruction;
+
+import java.util.List;
+
+/**
+ * 作用在 IR 上的一遍优化
+ * <br>
+ * 每一遍都接受一个指令列表并返回一个新的指令列表, 不修改传入的列表. 优化前后的 IR 由 IREmulator 执行时必须得到相同的结果.
+ */
+public interface IRPass {
+    /**
+     * @param instructions 优化前的 IR
+     * @return 优化后的 IR
+     */
+    List<Instruction> run(List<Instruction> instructions);
+}
@@ -0,0 +1,212 @@
+package cn.edu.hitsz.compiler.opt;
+
+import cn.edu.hitsz.compiler.ir.AssignmentAnalysis;
+import cn.edu.hitsz.compiler.ir.ControlFlowGraph;
+import cn.edu.hitsz.compiler.ir.IRImmediate;
+import cn.edu.hitsz.compiler.ir.IRValue;
+import cn.edu.hitsz.compiler.ir.IRVariable;
+import cn.edu.hitsz.compiler.ir.Instruction;
+import cn.edu.hitsz.compiler.ir.InstructionKind;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 局部值编号 (公共子表达式删除)
+ * <br>
+ * 在每个基本块内从前往后扫描, 给每个值一个编号: 每个不同的立即数一个编号, 每个不同的表达式 (运算种类, 左操作数编号, 右操作数编号)
+ * 一个编号, MOV 的结果与其来源同号. ADD 与 MUL 可交换, 其表达式中两个操作数编号按大小排序.
+ * <ul>
+ *     <li>表达式的编号已存在且仍有变量持有该值时, 运算被改写为 MOV 该变量</li>
+ *     <li>操作数被替换为持有同一值的最早的变量 (值为立即数时直接替换为立即数), 以便死代码删除去掉中间的拷贝</li>
+ *     <li>结果变量已经持有要赋给它的值时, 指令被删去</li>
+ * </ul>
+ * 变量被重新赋值后不再持有原来的值. 读尚未赋值的变量的指令执行时会抛出异常, 这样的指令原样保留.
+ * <br>
+ * LABEL 处可能从别处跳转而来, 所有的编号都作废, 变量是否已被赋值改为取 {@link AssignmentAnalysis} 在该基本块入口处的结果.
+ * 条件跳转之后的指令只能从该跳转落下来, 编号继续有效.
+ */
+public class LocalValueNumbering implements IRPass {
+    @Override
+    public List<Instruction> run(List<Instruction> instructions) {
+        vnOf = new int[Math.max(IRVariable.idBound(instructions), 16)];
+        Arrays.fill(vnOf, -1);
+        holders.clear();
+        constants.clear();
+        expressions.clear();
+        immediates.clear();
+
+        final var graph = ControlFlowGraph.build(instructions);
+        final var analysis = AssignmentAnalysis.analyze(instructions, graph);
+        var assigned = new BitSet();
+        final var result = new ArrayList<Instruction>(instructions.size());
+        for (int i = 0; i < instructions.size(); i++) {
+            final var instruction = instructions.get(i);
+            final var kind = instruction.getKind();
+            if (kind == InstructionKind.LABEL) {
+                Arrays.fill(vnOf, -1);
+                holders.clear();
+                constants.clear();
+                expressions.clear();
+                immediates.clear();
+                assigned = analysis.definitelyAssigned(graph.blockOf(i));
+                result.add(instruction);
+                continue;
+            }
+
+            if (!readsAssignedOnly(instruction, assigned)) {
+                // 执行到这里会抛出异常, 结果变量不再有确定的值编号
+                result.add(instruction);
+                if (kind.hasResult()) {
+                    assign(instruction.getResult(), newValue(null));
+                    assigned.set(instruction.getResult().getId());
+                }
+                continue;
+            }
+
+            if (kind.isReturn()) {
+                result.add(Instruction.createRet(canonical(instruction.getReturnValue())));
+                continue;
+            }
+            if (kind == InstructionKind.JMP) {
+                result.add(instruction);
+                continue;
+            }
+            if (kind.isBranch()) {
+                ConstantFolding.foldBranch(kind, canonical(instruction.getCondition()), instruction.getLabel())
+                    .ifPresent(result::add);
+                continue;
+            }
+
+            final var target = instruction.getResult();
+            final int value;
+            final Instruction rewritten;
+            if (kind == InstructionKind.MOV) {
+                value = valueOf(instruction.getFrom());
+                rewritten = Instruction.createMov(target, canonical(instruction.getFrom()));
+            } else {
+                int lhs = valueOf(instruction.getLHS());
+                int rhs = valueOf(instruction.getRHS());
+                if (kind != InstructionKind.SUB && lhs > rhs) {
+                    final int tmp = lhs;
+                    lhs = rhs;
+                    rhs = tmp;
+                }
+
+                final var expression = new Expression(kind, lhs, rhs);
+                final var existing = expressions.get(expression);
+                if (existing != null && holderOf(existing) != null) {
+                    value = existing;
+                    rewritten = Instruction.createMov(target, holderOf(existing));
+                } else {
+                    value = existing != null ? existing : newValue(null);
+                    expressions.put(expression, value);
+                    rewritten = rebuild(kind, target, canonical(instruction.getLHS()), canonical(instruction.getRHS()));
+                }
+            }
+
+            // 结果变量已经持有这个值了
+            if (assigned.get(target.getId()) && vnOf[target.getId()] == value) {
+                continue;
+            }
+            result.add(rewritten);
+            assign(target, value);
+            assigned.set(target.getId());
+        }
+
+        return result;
+    }
+
+    //==================== 以下为实现相关代码 ==============================//
+
+    private record Expression(InstructionKind kind, int lhs, int rhs) {
+    }
+
+    // 以 IRVariable 的 id 为下标, 变量当前持有的值的编号, 没有赋过值的为 -1
+    private int[] vnOf;
+    // 以值编号为下标, 当前持有该值的变量 (按赋值的先后排列) 与该值对应的立即数 (不是立即数的为 null)
+    private final List<List<IRVariable>> holders = new ArrayList<>();
+    private final List<Integer> constants = new ArrayList<>();
+    private final Map<Expression, Integer> expressions = new HashMap<>();
+    private final Map<Integer, Integer> immediates = new HashMap<>();
+
+    private int newValue(Integer constant) {
+        holders.add(new ArrayList<>());
+        constants.add(constant);
+        return holders.size() - 1;
+    }
+
+    private int valueOf(IRValue operand) {
+        if (operand instanceof IRImmediate immediate) {
+            return immediates.computeIfAbsent(immediate.getValue(), this::newValue);
+        } else if (operand instanceof IRVariable variable) {
+            // 在之前的基本块中被赋值的变量, 其值在本块中未知, 第一次读到时才给它一个新编号
+            final int id = variable.getId();
+            if (id >= vnOf.length || vnOf[id] < 0) {
+                assign(variable, newValue(null));
+            }
+            return vnOf[id];
+        } else {
+            throw new RuntimeException("Unknown IR value type");
+        }
+    }
+
+    private IRVariable holderOf(int value) {
+        final var list = holders.get(value);
+        return list.isEmpty() ? null : list.getFirst();
+    }
+
+    /**
+     * @return 与操作数等值的立即数, 或持有该值的最早的变量
+     */
+    private IRValue canonical(IRValue operand) {
+        if (operand instanceof IRVariable variable) {
+            final int value = valueOf(variable);
+            final var constant = constants.get(value);
+            if (constant != null) {
+                return IRImmediate.of(constant);
+            }
+            return holderOf(value);
+        }
+        return operand;
+    }
+
+    private void assign(IRVariable variable, int value) {
+        final int id = variable.getId();
+        if (id >= vnOf.length) {
+            final int oldLength = vnOf.length;
+            vnOf = Arrays.copyOf(vnOf, Math.max(id + 1, oldLength * 2));
+            Arrays.fill(vnOf, oldLength, vnOf.length, -1);
+        }
+        if (vnOf[id] >= 0) {
+            holders.get(vnOf[id]).remove(variable);
+        }
+        vnOf[id] = value;
+        holders.get(value).add(variable);
+    }
+
+    /**
+     * @return 指令读的变量是否都已被赋值
+     */
+    private boolean readsAssignedOnly(Instruction instruction, BitSet assigned) {
+        for (final var operand : instruction.getOperands()) {
+            if (operand instanceof IRVariable variable && !assigned.get(variable.getId())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Instruction rebuild(InstructionKind kind, IRVariable target, IRValue lhs, IRValue rhs) {
+        return switch (kind) {
+            case ADD -> Instruction.createAdd(target, lhs, rhs);
+            case SUB -> Instruction.createSub(target, lhs, rhs);
+            case MUL -> Instruction.createMul(target, lhs, rhs);
+            default -> throw new RuntimeException("Unexpected instruction kind: " + kind);
+        };
+    }
+}
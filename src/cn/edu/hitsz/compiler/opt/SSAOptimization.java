@@ -0,0 +1,117 @@
+package cn.edu.hitsz.compiler.opt;
+
+import cn.edu.hitsz.compiler.ir.ControlFlowGraph;
+import cn.edu.hitsz.compiler.ir.IRValue;
+import cn.edu.hitsz.compiler.ir.IRVariable;
+import cn.edu.hitsz.compiler.ir.Instruction;
+import cn.edu.hitsz.compiler.ir.InstructionKind;
+import cn.edu.hitsz.compiler.ir.SSAForm;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 基于 SSA 形式的常量传播, 拷贝传播与死代码删除
+ * <ol>
+ *     <li>只保留会被执行到的部分 (见 {@link DeadCodeElimination}), 然后转换为 SSA 形式</li>
+ *     <li>传播: 每个变量只有一条定义, 其值 (立即数, 另一个变量, 或未知) 一旦确定就不会再变, 所以按顺序扫描一遍,
+ *     把操作数替换为其值并按 {@link ConstantFolding} 的规则折叠即可, 不必跟踪变量何时被重新赋值</li>
+ *     <li>删除: 统计每个变量的使用次数, 从没有被使用的定义出发, 删去一条定义就把其操作数的使用次数减一,
+ *     减到 0 的定义再加入工作表. 只访问真正变成无用的定义, 不需要对整个指令列表反复做活跃变量分析</li>
+ *     <li>转换回普通形式</li>
+ * </ol>
+ * RET 与会抛出异常的指令总是保留, 程序入口处的值 (尚未赋值的变量) 不会被视为常量.
+ * <br>
+ * {@link SSAForm} 还不支持控制流, 有标号或跳转的代码退回到逐个基本块的常量传播与死代码删除.
+ */
+public class SSAOptimization implements IRPass {
+    @Override
+    public List<Instruction> run(List<Instruction> instructions) {
+        if (ControlFlowGraph.hasControlFlow(instructions)) {
+            return FALLBACK.optimize(instructions);
+        }
+
+        final var reachable = DeadCodeElimination.Reachable.of(instructions);
+        final var ssa = SSAForm.construct(reachable.instructions());
+        final int trap = reachable.trap() ? reachable.instructions().size() - 1 : -1;
+
+        // ============================== 传播 ==============================
+        // 以 IRVariable 的 id 为下标, 变量的值: 立即数或另一个变量, 未知时为 null
+        final var valueOf = new IRValue[IRVariable.idBound(ssa.instructions())];
+        final var propagated = new ArrayList<Instruction>(ssa.instructions().size());
+        for (int i = 0; i < ssa.instructions().size(); i++) {
+            final var instruction = ssa.instructions().get(i);
+            final var kind = instruction.getKind();
+            if (kind.isReturn()) {
+                propagated.add(Instruction.createRet(substitute(instruction.getReturnValue(), valueOf)));
+                continue;
+            }
+
+            final var target = instruction.getResult();
+            final Instruction folded;
+            if (kind == InstructionKind.MOV) {
+                folded = Instruction.createMov(target, substitute(instruction.getFrom(), valueOf));
+            } else {
+                folded = ConstantFolding.fold(kind, target,
+                    substitute(instruction.getLHS(), valueOf),
+                    substitute(instruction.getRHS(), valueOf));
+            }
+            propagated.add(folded);
+
+            // 会抛出异常的指令的结果不会被读到
+            if (folded.getKind() == InstructionKind.MOV && i != trap) {
+                valueOf[target.getId()] = folded.getFrom();
+            }
+        }
+
+        // ============================== 删除 ==============================
+        final var form = SSAForm.of(propagated);
+        final var uses = new int[IRVariable.idBound(propagated)];
+        final var removed = new boolean[propagated.size()];
+        final var worklist = new ArrayDeque<Integer>();
+        for (int i = 0; i < propagated.size(); i++) {
+            final var instruction = propagated.get(i);
+            if (!instruction.getKind().isReturn()) {
+                final var result = instruction.getResult();
+                uses[result.getId()] = form.useCount(result);
+                if (uses[result.getId()] == 0 && i != trap) {
+                    worklist.add(i);
+                }
+            }
+        }
+
+        while (!worklist.isEmpty()) {
+            final int index = worklist.poll();
+            removed[index] = true;
+            for (final var operand : propagated.get(index).getOperands()) {
+                if (operand instanceof IRVariable variable) {
+                    final int definition = form.definitionOf(variable);
+                    if (definition >= 0 && --uses[variable.getId()] == 0 && definition != trap) {
+                        worklist.add(definition);
+                    }
+                }
+            }
+        }
+
+        final var kept = new ArrayList<Instruction>(propagated.size());
+        for (int i = 0; i < propagated.size(); i++) {
+            if (!removed[i]) {
+                kept.add(propagated.get(i));
+            }
+        }
+
+        return SSAForm.of(kept).destruct();
+    }
+
+    //==================== 以下为实现相关代码 ==============================//
+
+    private static final IROptimizer FALLBACK = new IROptimizer(List.of(new ConstantFolding(), new DeadCodeElimination()));
+
+    private static IRValue substitute(IRValue value, IRValue[] valueOf) {
+        if (value instanceof IRVariable variable && valueOf[variable.getId()] != null) {
+            return valueOf[variable.getId()];
+        }
+        return value;
+    }
+}
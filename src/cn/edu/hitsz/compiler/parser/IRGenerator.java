@@ -1,6 +1,7 @@
 package cn.edu.hitsz.compiler.parser;
 
 import cn.edu.hitsz.compiler.ir.IRImmediate;
+import cn.edu.hitsz.compiler.ir.IRLabel;
 import cn.edu.hitsz.compiler.ir.IRValue;
 import cn.edu.hitsz.compiler.ir.IRVariable;
 import cn.edu.hitsz.compiler.ir.Instruction;
@@ -9,10 +10,12 @@ import cn.edu.hitsz.compiler.lexer.TokenKind;
 import cn.edu.hitsz.compiler.parser.table.Production;
 import cn.edu.hitsz.compiler.parser.table.Status;
 import cn.edu.hitsz.compiler.symtab.SymbolTable;
-import cn.edu.hitsz.compiler.utils.FileUtils;
+import cn.edu.hitsz.compiler.utils.DumpWriter;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 // TODO: 实验三: 实现 IR 生成
 
@@ -23,20 +26,44 @@ public class IRGenerator implements ActionObserver {
 
     private final List<Instruction> irList = new ArrayList<>();
     private final List<IRValue> valueStack = new ArrayList<>();
+    // 本次编译中的标号, 同名的标号只创建一次
+    private final Map<String, IRLabel> labels = new HashMap<>();
+    // 上一个移进的 token; 刚移进, 还不知道是变量还是标号 (其后是否为冒号) 的标识符, 其值暂时为 null
+    private Token previous = null;
+    private String pending = null;
 
     @Override
     public void whenShift(Status currentStatus, Token currentToken) {
+        if (pending != null) {
+            // 冒号之前的标识符是标号, 否则是变量
+            final var isLabel = currentToken.getKind().equals(TokenKind.fromString(":"));
+            valueStack.set(valueStack.size() - 1, isLabel ? labelOf(pending) : IRVariable.named(pending));
+            pending = null;
+        }
+
         if (currentToken.getKind().equals(TokenKind.fromString("id"))) {
-            valueStack.add(IRVariable.named(currentToken.getText()));
+            if (previous != null && previous.getKind().equals(TokenKind.fromString("goto"))) {
+                valueStack.add(labelOf(currentToken.getText()));
+            } else {
+                valueStack.add(null);
+                pending = currentToken.getText();
+            }
         } else if (currentToken.getKind().equals(TokenKind.fromString("IntConst"))) {
             valueStack.add(IRImmediate.of(Integer.parseInt(currentToken.getText())));
         } else {
             valueStack.add(null);
         }
+        previous = currentToken;
     }
 
     @Override
     public void whenReduce(Status currentStatus, Production production) {
+        if (pending != null) {
+            // 标识符之后不是冒号就会先规约, 它是变量
+            valueStack.set(valueStack.size() - 1, IRVariable.named(pending));
+            pending = null;
+        }
+
         switch (production.index()) {
             case 2 -> { // S_list -> S ; S_list
                 for (int i = 0; i < 2; i++) {
@@ -71,7 +98,7 @@ public class IRGenerator implements ActionObserver {
                 IRVariable res;
                 if (valueStack.get(valueStack.size() - 3).isImmediate()) {
                     res = IRVariable.temp();
-                } else if (!((IRVariable) valueStack.get(valueStack.size() - 3)).getName().startsWith("$")) {
+                } else if (!((IRVariable) valueStack.get(valueStack.size() - 3)).isTemp()) {
                     res = IRVariable.temp();
                 } else {
                     res = (IRVariable) valueStack.get(valueStack.size() - 3);
@@ -90,7 +117,7 @@ public class IRGenerator implements ActionObserver {
                 IRVariable res;
                 if (valueStack.get(valueStack.size() - 3).isImmediate()) {
                     res = IRVariable.temp();
-                } else if (!((IRVariable) valueStack.get(valueStack.size() - 3)).getName().startsWith("$")) {
+                } else if (!((IRVariable) valueStack.get(valueStack.size() - 3)).isTemp()) {
                     res = IRVariable.temp();
                 } else {
                     res = (IRVariable) valueStack.get(valueStack.size() - 3);
@@ -109,7 +136,7 @@ public class IRGenerator implements ActionObserver {
                 IRVariable res;
                 if (valueStack.get(valueStack.size() - 3).isImmediate()) {
                     res = IRVariable.temp();
-                } else if (!((IRVariable) valueStack.get(valueStack.size() - 3)).getName().startsWith("$")) {
+                } else if (!((IRVariable) valueStack.get(valueStack.size() - 3)).isTemp()) {
                     res = IRVariable.temp();
                 } else {
                     res = (IRVariable) valueStack.get(valueStack.size() - 3);
@@ -129,6 +156,40 @@ public class IRGenerator implements ActionObserver {
                 valueStack.removeLast();
                 valueStack.add(tmp);
             }
+            case 16 -> { // S -> L S
+                for (int i = 0; i < 2; i++) {
+                    valueStack.removeLast();
+                }
+                valueStack.add(null);
+            }
+            case 17 -> { // L -> id :
+                // 标号在其后的语句之前规约, 所以 LABEL 正好生成在该语句的代码之前
+                irList.add(Instruction.createLabel((IRLabel) valueStack.get(valueStack.size() - 2)));
+                for (int i = 0; i < 2; i++) {
+                    valueStack.removeLast();
+                }
+                valueStack.add(null);
+            }
+            case 18, 19 -> {
+                // S -> ifeqz E goto id
+                // S -> ifgtz E goto id
+                final var condition = valueStack.get(valueStack.size() - 3);
+                final var target = (IRLabel) valueStack.getLast();
+                irList.add(production.index() == 18
+                        ? Instruction.createBeqz(condition, target)
+                        : Instruction.createBgtz(condition, target));
+                for (int i = 0; i < 4; i++) {
+                    valueStack.removeLast();
+                }
+                valueStack.add(null);
+            }
+            case 20 -> { // S -> goto id
+                irList.add(Instruction.createJmp((IRLabel) valueStack.getLast()));
+                for (int i = 0; i < 2; i++) {
+                    valueStack.removeLast();
+                }
+                valueStack.add(null);
+            }
             default -> {
                 // P -> S_list
                 // D -> int
@@ -150,11 +211,18 @@ public class IRGenerator implements ActionObserver {
         // do nothing
     }
 
+    /**
+     * 标号不是变量, 不占用 IRVariable 的编号, 也不进入符号表
+     */
+    private IRLabel labelOf(String name) {
+        return labels.computeIfAbsent(name, IRLabel::named);
+    }
+
     public List<Instruction> getIR() {
         return irList;
     }
 
     public void dumpIR(String path) {
-        FileUtils.writeLines(path, getIR().stream().map(Instruction::toString).toList());
+        DumpWriter.writeLines(path, getIR(), Instruction::writeTo);
     }
 }
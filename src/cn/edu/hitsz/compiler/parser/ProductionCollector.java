@@ -4,7 +4,7 @@ import cn.edu.hitsz.compiler.lexer.Token;
 import cn.edu.hitsz.compiler.parser.table.Production;
 import cn.edu.hitsz.compiler.parser.table.Status;
 import cn.edu.hitsz.compiler.symtab.SymbolTable;
-import cn.edu.hitsz.compiler.utils.FileUtils;
+import cn.edu.hitsz.compiler.utils.DumpWriter;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -29,7 +29,24 @@ public class ProductionCollector implements ActionObserver {
      * @param path 文件路径
      */
     public void dumpToFile(String path) {
-        FileUtils.writeLines(path, reducedProductions.stream().map(Production::toString).toList());
+        DumpWriter.writeLines(path, reducedProductions, ProductionCollector::writeProduction);
+    }
+
+    /**
+     * 以 {@link Production#toString()} 的格式输出产生式
+     *
+     * @param production 产生式
+     * @param out        输出
+     */
+    public static void writeProduction(Production production, DumpWriter out) {
+        out.append(production.head()).append(" -> ");
+        final var body = production.body();
+        for (int i = 0; i < body.size(); i++) {
+            if (i > 0) {
+                out.append(' ');
+            }
+            out.append(body.get(i));
+        }
     }
 
     @Override
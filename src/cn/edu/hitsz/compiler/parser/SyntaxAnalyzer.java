@@ -1,17 +1,16 @@
 package cn.edu.hitsz.compiler.parser;
 
 import cn.edu.hitsz.compiler.lexer.Token;
-import cn.edu.hitsz.compiler.parser.table.Action;
+import cn.edu.hitsz.compiler.parser.table.CompiledLRTable;
 import cn.edu.hitsz.compiler.parser.table.LRTable;
 import cn.edu.hitsz.compiler.parser.table.Production;
 import cn.edu.hitsz.compiler.parser.table.Status;
 import cn.edu.hitsz.compiler.symtab.SymbolTable;
 
-import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Queue;
-import java.util.Stack;
 
 //TODO: 实验二: 实现 LR 语法分析驱动程序
 
@@ -28,8 +27,10 @@ public class SyntaxAnalyzer {
     private final List<ActionObserver> observers = new ArrayList<>();
 
     private LRTable lrTable;
-    private final Queue<Token> tokenStack = new ArrayDeque<>();
-    private final Stack<Status> statusStack = new Stack<>(); // 状态栈
+    private Iterator<Token> tokens; // 按需读取的词法单元
+    private Token lookahead = null; // 已读出但尚未被消耗的词法单元
+    private int[] statusStack = new int[64]; // 状态栈, 只存状态编号
+    private int statusStackSize = 0;
 
     public SyntaxAnalyzer(SymbolTable symbolTable) {
         this.symbolTable = symbolTable;
@@ -85,7 +86,28 @@ public class SyntaxAnalyzer {
         // 你可以自行选择要如何存储词法单元, 譬如使用迭代器, 或是栈, 或是干脆使用一个 list 全存起来
         // 需要注意的是, 在实现驱动程序的过程中, 你会需要面对只读取一个 token 而不能消耗它的情况,
         // 在自行设计的时候请加以考虑此种情况
-        tokens.forEach(tokenStack::add);
+        // 这里只保存迭代器并维护一个 lookahead, 而不将 token 复制一份,
+        // 这样流式词法分析器产生的 token 可以边分析边消耗
+        this.tokens = tokens.iterator();
+        this.lookahead = null;
+    }
+
+    /**
+     * @return 当前的词法单元 (不消耗它); 若 token 已经读完则返回 null
+     */
+    private Token peekToken() {
+        if (lookahead == null && tokens.hasNext()) {
+            lookahead = tokens.next();
+        }
+
+        return lookahead;
+    }
+
+    /**
+     * 消耗当前的词法单元
+     */
+    private void consumeToken() {
+        lookahead = null;
     }
 
     public void loadLRTable(LRTable table) {
@@ -101,59 +123,63 @@ public class SyntaxAnalyzer {
         // 请分别在遇到 Shift, Reduce, Accept 的时候调用上面的 callWhenInShift, callWhenInReduce,
         // callWhenInAccept
         // 否则用于为实验二打分的产生式输出可能不会正常工作
-        statusStack.push(lrTable.getInit()); // 起始状态
-        while (!tokenStack.isEmpty()) {
-            final Status currentStatus = statusStack.peek();
-            final Token token = tokenStack.peek();
-            final Action action = currentStatus.getAction(token);
-            switch (action.getKind()) {
-                case Shift -> {
-                    final Status shiftTo = action.getStatus();
-                    statusStack.push(shiftTo);
-                    tokenStack.remove();
-
-                    // System.err.println("=== Shift ===");
-                    // System.err.println("statusStack: " + statusStack);
-                    // System.err.println("tokenStack: " + tokenStack);
-
-                    callWhenInShift(currentStatus, token);
+        // 查表使用编译后的稠密整数表, 状态栈是可增长的 int 数组,
+        // 因此每一步只有数组访问, 不会查 HashMap, 装箱或创建任何对象
+        final CompiledLRTable table = lrTable.compile();
+        // 通知观察者时才需要 Status, 没有观察者时不必让编译后的表还原出 Status
+        final boolean notifies = !observers.isEmpty();
+        statusStackSize = 0;
+        pushStatus(table.initState()); // 起始状态
+        while (peekToken() != null) {
+            final int currentStatus = statusStack[statusStackSize - 1];
+            final Token token = peekToken();
+            final int action = table.action(currentStatus, token.getKind().getCode());
+            switch (CompiledLRTable.kindOf(action)) {
+                case CompiledLRTable.SHIFT -> {
+                    pushStatus(CompiledLRTable.targetOf(action));
+                    consumeToken();
+
+                    if (notifies) {
+                        callWhenInShift(table.status(currentStatus), token);
+                    }
                 }
-                case Reduce -> {
-                    final Production production = action.getProduction(); // 产生式
-                    for (int i = 0; i < production.body().size(); i++) {
-                        statusStack.pop();
+                case CompiledLRTable.REDUCE -> {
+                    final int productionIndex = CompiledLRTable.targetOf(action);
+                    // 一次性弹出产生式体长度个状态
+                    statusStackSize -= table.bodyLength(productionIndex);
+                    final int nextStatus = table.gotoAfterReduce(statusStack[statusStackSize - 1], productionIndex);
+                    if (nextStatus < 0) {
+                        throw new RuntimeException("Syntax error");
                     }
-                    final Status newCurrentStatus = statusStack.peek();
-                    final Status nextStatus = newCurrentStatus.getGoto(production.head());
-                    statusStack.push(nextStatus);
-
-                    // System.err.println("=== Reduce ===");
-                    // System.err.println("statusStack: " + statusStack);
-                    // System.err.println("tokenStack: " + tokenStack);
+                    pushStatus(nextStatus);
 
-                    callWhenInReduce(currentStatus, production);
+                    if (notifies) {
+                        callWhenInReduce(table.status(currentStatus), table.production(productionIndex));
+                    }
                 }
-                case Accept -> {
+                case CompiledLRTable.ACCEPT -> {
                     // 此时 statusStack 有两个状态: 初始状态, acc 行的状态
-                    // System.err.println("=== Accept ===");
-                    // System.err.println("statusStack: " + statusStack);
-                    // System.err.println("tokenStack: " + tokenStack);
-                    callWhenInAccept(currentStatus);
-                    if (statusStack.size() != 2) {
+                    if (notifies) {
+                        callWhenInAccept(table.status(currentStatus));
+                    }
+                    if (statusStackSize != 2) {
                         throw new IllegalStateException("statusStack.size() != 2");
                     }
-                    if (tokenStack.size() != 1) {
-                        throw new IllegalStateException("tokenStack.size() != 1");
+                    if (tokens.hasNext()) {
+                        throw new IllegalStateException("tokens remain after accept");
                     }
                     return;
                 }
-                case Error -> {
-                    // System.err.println("=== Error ===");
-                    // System.err.println("statusStack: " + statusStack);
-                    // System.err.println("tokenStack: " + tokenStack);
-                    throw new RuntimeException("Syntax error");
-                }
+                default -> throw new RuntimeException("Syntax error");
             }
         }
     }
+
+    private void pushStatus(int status) {
+        if (statusStackSize == statusStack.length) {
+            statusStack = Arrays.copyOf(statusStack, statusStackSize * 2);
+        }
+
+        statusStack[statusStackSize++] = status;
+    }
 }
@@ -0,0 +1,197 @@
+package cn.edu.hitsz.compiler.parser.table;
+
+import cn.edu.hitsz.compiler.lexer.TokenKind;
+import cn.edu.hitsz.compiler.utils.FilePathConfig;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * LR 分析表的二进制缓存
+ * <br>
+ * TableLoader 每次都要逐行 split 读入 CSV, 对每个规约单元格按文本查找产生式, 这在需要反复启动编译器的场景下占了启动时间的大头.
+ * 该类在第一次读取 CSV 后, 把分析表以紧凑的二进制形式写在 CSV 旁边 (文件名为 CSV 文件名加上 {@code .bin}),
+ * 之后的运行直接以内存映射的方式读取该文件, 把动作与转移整块读入 {@link CompiledLRTable} 的数组, 不经过 Status.
+ * 只有观察者或 {@link LRTable} 中以 Status 为参数的方法真的需要 Status 时才由数组还原出来.
+ * <br>
+ * 缓存文件头部记录了格式版本号以及 grammar.txt, coding_map.csv 与 CSV 三个文件内容的 SHA-256, 任意一个文件改动后哈希不再匹配,
+ * 此时退回读取 CSV 并重新生成缓存.
+ * <br>
+ * 文件格式 (大端序):
+ * <pre>
+ * magic: int, version: int, hash: byte[32]
+ * 终结符数: int, 各终结符码点: int...
+ * 非终结符数: int, 各非终结符名: (长度: short, UTF-8 字节)...
+ * 状态数: int, 按状态编号依次为该状态在各终结符上的动作 (编码同 CompiledLRTable) 与在各非终结符上的转移 (-1 为错误)
+ * </pre>
+ */
+public class BinaryTableCache {
+    private static final int MAGIC = 0x4C525442; // "LRTB"
+    private static final int VERSION = 1;
+    private static final int HASH_LENGTH = 32;
+
+    /**
+     * 读取分析表, 优先使用与输入文件匹配的二进制缓存
+     *
+     * @param csvPath CSV 格式的分析表路径
+     * @return LRTable
+     */
+    public LRTable load(String csvPath) {
+        final var hash = hashInputs(csvPath);
+        final var cachePath = Paths.get(csvPath + ".bin");
+
+        if (Files.exists(cachePath)) {
+            final var table = tryReadCache(cachePath, hash);
+            if (table != null) {
+                return table;
+            }
+        }
+
+        final var table = new TableLoader().load(csvPath);
+        writeCache(cachePath, hash, table);
+        return table;
+    }
+
+    /**
+     * @return 缓存有效时读出的表, 否则为 null
+     */
+    private LRTable tryReadCache(Path cachePath, byte[] expectedHash) {
+        try (final var channel = FileChannel.open(cachePath)) {
+            final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < 8 + HASH_LENGTH || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return null;
+            }
+
+            final var hash = new byte[HASH_LENGTH];
+            buffer.get(hash);
+            if (!Arrays.equals(hash, expectedHash)) {
+                return null;
+            }
+
+            return decode(buffer);
+        } catch (IOException | RuntimeException e) {
+            // 缓存损坏时退回读取 CSV
+            return null;
+        }
+    }
+
+    private LRTable decode(ByteBuffer buffer) {
+        final var terminals = new ArrayList<TokenKind>();
+        final int terminalCount = buffer.getInt();
+        for (int i = 0; i < terminalCount; i++) {
+            terminals.add(TokenKind.fromCode(buffer.getInt()));
+        }
+
+        final var nonTerminals = new ArrayList<NonTerminal>();
+        final int nonTerminalCount = buffer.getInt();
+        for (int i = 0; i < nonTerminalCount; i++) {
+            final var name = new byte[buffer.getShort()];
+            buffer.get(name);
+            nonTerminals.add(new NonTerminal(new String(name, StandardCharsets.UTF_8)));
+        }
+
+        final int statusCount = buffer.getInt();
+        final var actionCells = new int[statusCount * terminalCount];
+        final var gotoCells = new int[statusCount * nonTerminalCount];
+        final var cells = buffer.asIntBuffer();
+        for (int i = 0; i < statusCount; i++) {
+            cells.get(actionCells, i * terminalCount, terminalCount);
+            cells.get(gotoCells, i * nonTerminalCount, nonTerminalCount);
+        }
+
+        final var compiled = CompiledLRTable.decode(terminals, nonTerminals, statusCount, actionCells, gotoCells);
+        return new LRTable(compiled, terminals, nonTerminals);
+    }
+
+    private void writeCache(Path cachePath, byte[] hash, LRTable table) {
+        // 编码方式与 CompiledLRTable 一致, 先编译一次以确认状态编号是连续的
+        table.compile();
+        final var statuses = table.getStatusInIndexOrder();
+        final var terminals = table.getTerminals();
+        final var nonTerminals = table.getNonTerminals();
+
+        // 先写临时文件再移动, 避免并发运行的编译器读到写了一半的缓存. 没能移动到位时删除临时文件
+        Path temp = null;
+        try {
+            temp = Files.createTempFile(cachePath.toAbsolutePath().getParent(), "lr-table", ".tmp");
+            try (final var out = new DataOutputStream(Files.newOutputStream(temp))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.write(hash);
+
+                out.writeInt(terminals.size());
+                for (final var terminal : terminals) {
+                    out.writeInt(terminal.getCode());
+                }
+
+                out.writeInt(nonTerminals.size());
+                for (final var nonTerminal : nonTerminals) {
+                    final var name = nonTerminal.getTermName().getBytes(StandardCharsets.UTF_8);
+                    out.writeShort(name.length);
+                    out.write(name);
+                }
+
+                out.writeInt(statuses.size());
+                for (final var status : statuses) {
+                    for (final var terminal : terminals) {
+                        out.writeInt(CompiledLRTable.encode(status.getAction(terminal)));
+                    }
+
+                    for (final var nonTerminal : nonTerminals) {
+                        final var target = status.getGoto(nonTerminal);
+                        out.writeInt(target.isError() ? -1 : target.index());
+                    }
+                }
+            }
+
+            try {
+                Files.move(temp, cachePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                // 文件系统不支持原子移动时直接替换, 读到不完整的缓存时会退回读取 CSV
+                Files.move(temp, cachePath, StandardCopyOption.REPLACE_EXISTING);
+            }
+            temp = null;
+        } catch (IOException e) {
+            // 写不了缓存 (比如目录只读) 时不影响本次编译
+            System.err.println("Can not write LR table cache " + cachePath + ": " + e.getMessage());
+        } finally {
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException e) {
+                    System.err.println("Can not delete " + temp + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private static byte[] hashInputs(String csvPath) {
+        try {
+            final var digest = MessageDigest.getInstance("SHA-256");
+            for (final var path : List.of(FilePathConfig.GRAMMAR_PATH, FilePathConfig.CODING_MAP_PATH, csvPath)) {
+                final var bytes = Files.readAllBytes(Paths.get(path));
+                // 带上长度, 以免文件边界移动后拼接出的内容恰好相同
+                digest.update(ByteBuffer.allocate(Long.BYTES).putLong(bytes.length).array());
+                digest.update(bytes);
+            }
+            return digest.digest();
+        } catch (IOException e) {
+            throw new RuntimeException("IO Exception while hashing " + csvPath, e);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
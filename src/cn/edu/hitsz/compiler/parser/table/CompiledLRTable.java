@@ -0,0 +1,277 @@
+package cn.edu.hitsz.compiler.parser.table;
+
+import cn.edu.hitsz.compiler.lexer.TokenKind;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * 编译成稠密整数数组的 LR 分析表
+ * <br>
+ * Status 中的 action 与 goto 是以 TokenKind/NonTerminal 为键的 HashMap, 每次查表都要计算 termName 的哈希并比较字符串.
+ * 该类把它们展开成两个一维 int 数组:
+ * <ul>
+ *     <li>ACTION: 下标为 {@code 状态编号 * 终结符列数 + (码点 + 1)}, 码点加一是为了给码点为 -1 的 EOF 留出第 0 列</li>
+ *     <li>GOTO: 下标为 {@code 状态编号 * 非终结符数 + 非终结符编号}</li>
+ * </ul>
+ * ACTION 中的每个 int 的低两位是动作种类, 其余高位是载荷 (移入的目标状态或规约的产生式编号), 0 即表示错误动作.
+ * 规约时需要的产生式头与产生式体长度也预先放进以产生式编号为下标的数组中, 使得驱动程序的每一步都只是数组访问.
+ * <br>
+ * 要求状态编号是从 0 开始连续的, TableLoader 与 TableGenerator 构造的表都满足这一点.
+ * <br>
+ * 从二进制缓存读入的表直接由数组构造 (见 {@link BinaryTableCache}), 用于通知观察者的 Status 在第一次需要时才由数组还原出来.
+ */
+public class CompiledLRTable {
+    public static final int ERROR = 0;
+    public static final int SHIFT = 1;
+    public static final int REDUCE = 2;
+    public static final int ACCEPT = 3;
+
+    /**
+     * @param action 编码后的动作
+     * @return 动作种类, 为 ERROR/SHIFT/REDUCE/ACCEPT 之一
+     */
+    public static int kindOf(int action) {
+        return action & 0b11;
+    }
+
+    /**
+     * @param action 编码后的动作
+     * @return 移入动作的目标状态编号, 或规约动作的产生式编号
+     */
+    public static int targetOf(int action) {
+        return action >>> 2;
+    }
+
+    /**
+     * @param table 用 Status 表示的 LR 分析表
+     * @return 编译后的分析表
+     */
+    public static CompiledLRTable compile(LRTable table) {
+        final var statuses = table.getStatusInIndexOrder();
+        final var compiled = new CompiledLRTable(table.getTerminals(), table.getNonTerminals(), statuses.size());
+        compiled.fill(statuses);
+        return compiled;
+    }
+
+    /**
+     * @param stateCount  状态的数量
+     * @param actionCells 按状态编号依次为该状态在各终结符上的动作, 编码同本类
+     * @param gotoCells   按状态编号依次为该状态在各非终结符上的转移, -1 为错误
+     * @return 编译后的分析表, 动作或转移的目标不存在时抛出异常
+     */
+    static CompiledLRTable decode(List<TokenKind> terminals, List<NonTerminal> nonTerminals, int stateCount,
+                                  int[] actionCells, int[] gotoCells) {
+        final var compiled = new CompiledLRTable(terminals, nonTerminals, stateCount);
+        compiled.fill(actionCells, gotoCells);
+        return compiled;
+    }
+
+    /**
+     * @return 起始状态的编号
+     */
+    public int initState() {
+        return 0;
+    }
+
+    /**
+     * @param state        当前状态编号
+     * @param terminalCode 当前终结符 (Token 类型) 的码点
+     * @return 编码后的动作
+     */
+    public int action(int state, int terminalCode) {
+        final int column = terminalCode + 1;
+        if (column < 0 || column >= terminalColumns) {
+            return ERROR;
+        }
+
+        return actions[state * terminalColumns + column];
+    }
+
+    /**
+     * 规约后的转移: 在 state 下规约出 productionIndex 号产生式的头后应该转移到的状态
+     *
+     * @param state           规约后栈顶的状态编号
+     * @param productionIndex 规约的产生式编号
+     * @return 应转移到的状态编号, 若为错误则返回 -1
+     */
+    public int gotoAfterReduce(int state, int productionIndex) {
+        return gotos[state * nonTerminalCount + productionHeads[productionIndex]];
+    }
+
+    /**
+     * @param productionIndex 产生式编号
+     * @return 产生式体的长度
+     */
+    public int bodyLength(int productionIndex) {
+        return bodyLengths[productionIndex];
+    }
+
+    /**
+     * @param productionIndex 产生式编号
+     * @return 产生式
+     */
+    public Production production(int productionIndex) {
+        return productions[productionIndex];
+    }
+
+    /**
+     * @param state 状态编号
+     * @return 对应的 Status, 用于通知观察者
+     */
+    public Status status(int state) {
+        final var statuses = this.statuses;
+        return (statuses != null ? statuses : materialize())[state];
+    }
+
+    /**
+     * @return 状态的数量
+     */
+    public int stateCount() {
+        return stateCount;
+    }
+
+    /**
+     * @return 按编号排列的所有 Status
+     */
+    List<Status> statusInIndexOrder() {
+        final var statuses = this.statuses;
+        return List.of(statuses != null ? statuses : materialize());
+    }
+
+    //==================== 以下为实现相关代码 ==============================//
+
+    private final List<TokenKind> terminals;
+    private final List<NonTerminal> nonTerminals;
+    private final int stateCount;
+    private final int terminalColumns;
+    private final int nonTerminalCount;
+    private final int[] actions;
+    private final int[] gotos;
+
+    private final Production[] productions;
+    private final int[] productionHeads;
+    private final int[] bodyLengths;
+
+    // 用 Status 表示的各状态. 由 Status 编译的表一开始就有, 由数组构造的表在第一次需要时才创建
+    private volatile Status[] statuses;
+
+    private CompiledLRTable(List<TokenKind> terminals, List<NonTerminal> nonTerminals, int stateCount) {
+        this.terminals = List.copyOf(terminals);
+        this.nonTerminals = List.copyOf(nonTerminals);
+        this.stateCount = stateCount;
+        terminalColumns = terminals.stream().mapToInt(TokenKind::getCode).max().orElse(0) + 2;
+        nonTerminalCount = nonTerminals.size();
+
+        // 非终结符按名字编号; TableLoader 中的 NonTerminal 与 GrammarInfo 中的并非同一对象, 但名字相同
+        final var nonTerminalIndex = new HashMap<String, Integer>();
+        for (int i = 0; i < nonTerminals.size(); i++) {
+            nonTerminalIndex.put(nonTerminals.get(i).getTermName(), i);
+        }
+
+        final var grammar = GrammarInfo.getProductionsInOrder();
+        final int productionSlots = grammar.stream().mapToInt(Production::index).max().orElse(0) + 1;
+        productions = new Production[productionSlots];
+        productionHeads = new int[productionSlots];
+        bodyLengths = new int[productionSlots];
+        for (final var production : grammar) {
+            productions[production.index()] = production;
+            productionHeads[production.index()] = nonTerminalIndex.getOrDefault(production.head().getTermName(), 0);
+            bodyLengths[production.index()] = production.body().size();
+        }
+
+        actions = new int[stateCount * terminalColumns];
+        gotos = new int[stateCount * nonTerminalCount];
+    }
+
+    private void fill(List<Status> statusInIndexOrder) {
+        final var statuses = statusInIndexOrder.toArray(new Status[0]);
+        for (int i = 0; i < statuses.length; i++) {
+            if (statuses[i].index() != i) {
+                throw new RuntimeException("Status index is not dense: " + statuses[i]);
+            }
+        }
+
+        Arrays.fill(gotos, -1);
+        for (final var status : statuses) {
+            for (final var terminal : terminals) {
+                actions[status.index() * terminalColumns + terminal.getCode() + 1] = encode(status.getAction(terminal));
+            }
+
+            for (int i = 0; i < nonTerminalCount; i++) {
+                final var target = status.getGoto(nonTerminals.get(i));
+                gotos[status.index() * nonTerminalCount + i] = target.isError() ? -1 : target.index();
+            }
+        }
+        this.statuses = statuses;
+    }
+
+    private void fill(int[] actionCells, int[] gotoCells) {
+        final int terminalCount = terminals.size();
+        for (int state = 0; state < stateCount; state++) {
+            for (int i = 0; i < terminalCount; i++) {
+                final int action = actionCells[state * terminalCount + i];
+                final int target = targetOf(action);
+                final boolean valid = switch (kindOf(action)) {
+                    case SHIFT -> target < stateCount;
+                    case REDUCE -> target < productions.length && productions[target] != null;
+                    default -> true;
+                };
+                if (!valid) {
+                    throw new RuntimeException("Illegal action %d in state %d".formatted(action, state));
+                }
+                actions[state * terminalColumns + terminals.get(i).getCode() + 1] = action;
+            }
+        }
+
+        for (int i = 0; i < gotoCells.length; i++) {
+            if (gotoCells[i] < -1 || gotoCells[i] >= stateCount) {
+                throw new RuntimeException("Illegal goto target " + gotoCells[i]);
+            }
+        }
+        System.arraycopy(gotoCells, 0, gotos, 0, gotos.length);
+    }
+
+    /**
+     * 由数组还原出所有的 Status. 同一张表可能被多个编译同时使用, 只还原一次
+     */
+    private synchronized Status[] materialize() {
+        if (statuses != null) {
+            return statuses;
+        }
+
+        final var created = new Status[stateCount];
+        for (int state = 0; state < stateCount; state++) {
+            created[state] = Status.create(state);
+        }
+        for (int state = 0; state < stateCount; state++) {
+            for (final var terminal : terminals) {
+                final int action = actions[state * terminalColumns + terminal.getCode() + 1];
+                created[state].setAction(terminal, switch (kindOf(action)) {
+                    case SHIFT -> Action.shift(created[targetOf(action)]);
+                    case REDUCE -> Action.reduce(productions[targetOf(action)]);
+                    case ACCEPT -> Action.accept();
+                    default -> Action.error();
+                });
+            }
+
+            for (int i = 0; i < nonTerminalCount; i++) {
+                final int target = gotos[state * nonTerminalCount + i];
+                created[state].setGoto(nonTerminals.get(i), target < 0 ? Status.error() : created[target]);
+            }
+        }
+
+        statuses = created;
+        return created;
+    }
+
+    static int encode(Action action) {
+        return switch (action.getKind()) {
+            case Shift -> action.getStatus().index() << 2 | SHIFT;
+            case Reduce -> action.getProduction().index() << 2 | REDUCE;
+            case Accept -> ACCEPT;
+            case Error -> ERROR;
+        };
+    }
+}
@@ -0,0 +1,315 @@
+package cn.edu.hitsz.compiler.parser.table;
+
+import cn.edu.hitsz.compiler.lexer.TokenKind;
+
+import java.util.*;
+
+/**
+ * 文法的 NULLABLE, FIRST 与 FOLLOW 集合
+ * <br>
+ * 三者都以不动点迭代的方式计算: 先扫描一遍产生式, 把 "X 的集合包含 Y 的集合" 这样的约束记为一条 Y 到 X 的边,
+ * 然后用工作表沿着边传播, 某个集合变大时才把依赖它的符号重新放进工作表. 每条约束只在其来源变化时才被重新处理,
+ * 因此总耗时与 (产生式总长度 * 终结符数 / 字长) 成正比, 且对任意 (包括互相) 递归的非终结符都能得到完整的结果.
+ * <br>
+ * 终结符集合用 BitSet 表示, 第 i 位代表码点为 i - 1 的 TokenKind (码点为 -1 的 EOF 占第 0 位).
+ * <br>
+ * 产生式体可以为空 (即 A -> ε), 此时 A 是可空的, 其 FOLLOW 会沿着可空的后缀传播.
+ */
+public class FirstFollowSets {
+    /**
+     * @param productions  按编号排列的产生式, 第一条产生式的头为开始符号
+     * @param nonTerminals 所有非终结符
+     */
+    public FirstFollowSets(List<Production> productions, Collection<NonTerminal> nonTerminals) {
+        this.productions = productions;
+        for (final var nonTerminal : nonTerminals) {
+            indexOf.putIfAbsent(nonTerminal, indexOf.size());
+        }
+        for (final var production : productions) {
+            indexOf.putIfAbsent(production.head(), indexOf.size());
+            for (final var symbol : production.body()) {
+                if (symbol instanceof NonTerminal nonTerminal) {
+                    indexOf.putIfAbsent(nonTerminal, indexOf.size());
+                }
+            }
+        }
+
+        final int count = indexOf.size();
+        nullable = new boolean[count];
+        first = new BitSet[count];
+        follow = new BitSet[count];
+        for (int i = 0; i < count; i++) {
+            first[i] = new BitSet();
+            follow[i] = new BitSet();
+        }
+
+        calcNullable();
+        calcFirst();
+        calcFollow();
+    }
+
+    /**
+     * @return grammar.txt 对应文法的各集合
+     */
+    public static FirstFollowSets ofGrammar() {
+        return new FirstFollowSets(GrammarInfo.getProductionsInOrder(), GrammarInfo.getNonTerminals().values());
+    }
+
+    /**
+     * @param term 文法符号
+     * @return 该符号能否推导出空串. 终结符总是不可空的
+     */
+    public boolean isNullable(Term term) {
+        return term instanceof NonTerminal nonTerminal && nullable[index(nonTerminal)];
+    }
+
+    /**
+     * @param sequence 文法符号串
+     * @return 该符号串能否推导出空串
+     */
+    public boolean isNullable(List<? extends Term> sequence) {
+        return sequence.stream().allMatch(this::isNullable);
+    }
+
+    /**
+     * @param term 文法符号
+     * @return 其 FIRST 集合的位集副本
+     */
+    public BitSet firstBits(Term term) {
+        if (term instanceof TokenKind tokenKind) {
+            final var result = new BitSet();
+            result.set(bit(tokenKind));
+            return result;
+        }
+
+        return (BitSet) first[index((NonTerminal) term)].clone();
+    }
+
+    /**
+     * 计算文法符号串的 FIRST 集合, 即从第一个符号开始, 依次并上各个符号的 FIRST, 直到遇到不可空的符号为止
+     *
+     * @param sequence 文法符号串
+     * @return 其 FIRST 集合的位集
+     */
+    public BitSet firstBits(List<? extends Term> sequence) {
+        final var result = new BitSet();
+        for (final var symbol : sequence) {
+            if (symbol instanceof TokenKind tokenKind) {
+                result.set(bit(tokenKind));
+                break;
+            }
+
+            final int index = index((NonTerminal) symbol);
+            result.or(first[index]);
+            if (!nullable[index]) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param nonTerminal 非终结符
+     * @return 其 FOLLOW 集合的位集副本
+     */
+    public BitSet followBits(NonTerminal nonTerminal) {
+        return (BitSet) follow[index(nonTerminal)].clone();
+    }
+
+    /**
+     * @param term 文法符号
+     * @return 其 FIRST 集合
+     */
+    public Set<TokenKind> first(Term term) {
+        return toTokenKinds(firstBits(term));
+    }
+
+    /**
+     * @param nonTerminal 非终结符
+     * @return 其 FOLLOW 集合
+     */
+    public Set<TokenKind> follow(NonTerminal nonTerminal) {
+        return toTokenKinds(follow[index(nonTerminal)]);
+    }
+
+    /**
+     * @param tokenKind 终结符
+     * @return 其在位集中对应的位
+     */
+    public static int bit(TokenKind tokenKind) {
+        return tokenKind.getCode() + 1;
+    }
+
+    /**
+     * @param bits 终结符位集
+     * @return 对应的 TokenKind 集合, 按码点排序
+     */
+    public static Set<TokenKind> toTokenKinds(BitSet bits) {
+        final var result = new LinkedHashSet<TokenKind>();
+        bits.stream().forEach(bit -> result.add(TokenKind.fromCode(bit - 1)));
+        return result;
+    }
+
+    //==================== 以下为实现相关代码 ==============================//
+
+    private final List<Production> productions;
+    private final Map<NonTerminal, Integer> indexOf = new HashMap<>();
+    private final boolean[] nullable;
+    private final BitSet[] first;
+    private final BitSet[] follow;
+
+    private int index(NonTerminal nonTerminal) {
+        final var index = indexOf.get(nonTerminal);
+        if (index == null) {
+            throw new RuntimeException("Unknown non-terminal: " + nonTerminal);
+        }
+        return index;
+    }
+
+    /**
+     * 每条产生式记录其体中尚未确定可空的符号数, 降为 0 时产生式头可空;
+     * 某个非终结符新确定为可空时, 把所有体中含有它的产生式的计数减一
+     */
+    private void calcNullable() {
+        final var remaining = new int[productions.size()];
+        final var occurrences = new ArrayList<List<Integer>>();
+        for (int i = 0; i < nullable.length; i++) {
+            occurrences.add(new ArrayList<>());
+        }
+
+        final var worklist = new ArrayDeque<Integer>();
+        for (int p = 0; p < productions.size(); p++) {
+            final var body = productions.get(p).body();
+            if (body.stream().anyMatch(TokenKind.class::isInstance)) {
+                // 含有终结符的产生式不可能推导出空串
+                remaining[p] = -1;
+                continue;
+            }
+
+            remaining[p] = body.size();
+            for (final var symbol : body) {
+                occurrences.get(index((NonTerminal) symbol)).add(p);
+            }
+            if (body.isEmpty()) {
+                markNullable(productions.get(p).head(), worklist);
+            }
+        }
+
+        while (!worklist.isEmpty()) {
+            for (final int p : occurrences.get(worklist.poll())) {
+                if (--remaining[p] == 0) {
+                    markNullable(productions.get(p).head(), worklist);
+                }
+            }
+        }
+    }
+
+    private void markNullable(NonTerminal head, Deque<Integer> worklist) {
+        final int index = index(head);
+        if (!nullable[index]) {
+            nullable[index] = true;
+            worklist.add(index);
+        }
+    }
+
+    /**
+     * 对 A -> X1 X2 ... Xn, 若 X1 ... Xi-1 都可空, 则 FIRST(A) 包含 FIRST(Xi):
+     * Xi 为终结符时直接加入, 否则记一条 Xi 到 A 的边
+     */
+    private void calcFirst() {
+        final var edges = newEdges();
+        for (final var production : productions) {
+            final int head = index(production.head());
+            for (final var symbol : production.body()) {
+                if (symbol instanceof TokenKind tokenKind) {
+                    first[head].set(bit(tokenKind));
+                    break;
+                }
+
+                final int index = index((NonTerminal) symbol);
+                edges.get(index).add(head);
+                if (!nullable[index]) {
+                    break;
+                }
+            }
+        }
+
+        propagate(first, edges);
+    }
+
+    /**
+     * 开始符号的 FOLLOW 包含 EOF; 对 A -> alpha B beta, FOLLOW(B) 包含 FIRST(beta), 若 beta 可空, 再记一条 A 到 B 的边
+     */
+    private void calcFollow() {
+        if (!productions.isEmpty()) {
+            follow[index(productions.get(0).head())].set(bit(TokenKind.eof()));
+        }
+
+        final var edges = newEdges();
+        for (final var production : productions) {
+            final int head = index(production.head());
+            final var body = production.body();
+            // 从后往前扫描, 顺便维护当前位置之后的后缀的 FIRST 与是否可空
+            final var suffixFirst = new BitSet();
+            boolean suffixNullable = true;
+            for (int i = body.size() - 1; i >= 0; i--) {
+                final var symbol = body.get(i);
+                if (symbol instanceof TokenKind tokenKind) {
+                    suffixFirst.clear();
+                    suffixFirst.set(bit(tokenKind));
+                    suffixNullable = false;
+                    continue;
+                }
+
+                final int index = index((NonTerminal) symbol);
+                follow[index].or(suffixFirst);
+                if (suffixNullable) {
+                    edges.get(head).add(index);
+                }
+
+                if (!nullable[index]) {
+                    suffixFirst.clear();
+                    suffixNullable = false;
+                }
+                suffixFirst.or(first[index]);
+            }
+        }
+
+        propagate(follow, edges);
+    }
+
+    private List<List<Integer>> newEdges() {
+        final var edges = new ArrayList<List<Integer>>();
+        for (int i = 0; i < nullable.length; i++) {
+            edges.add(new ArrayList<>());
+        }
+        return edges;
+    }
+
+    /**
+     * 沿着边把集合传播到不动点: sets[to] |= sets[from]
+     */
+    private void propagate(BitSet[] sets, List<List<Integer>> edges) {
+        final var inWorklist = new boolean[sets.length];
+        final var worklist = new ArrayDeque<Integer>();
+        for (int i = 0; i < sets.length; i++) {
+            if (!sets[i].isEmpty()) {
+                worklist.add(i);
+                inWorklist[i] = true;
+            }
+        }
+
+        while (!worklist.isEmpty()) {
+            final int from = worklist.poll();
+            inWorklist[from] = false;
+            for (final int to : edges.get(from)) {
+                final int before = sets[to].cardinality();
+                sets[to].or(sets[from]);
+                if (sets[to].cardinality() != before && !inWorklist[to]) {
+                    worklist.add(to);
+                    inWorklist[to] = true;
+                }
+            }
+        }
+    }
+}
@@ -30,7 +30,8 @@ public class GrammarInfo {
             final var withoutComma = line.replace(";", "");
             final var words = withoutComma.split(" -> ");
             final var headString = words[0];
-            final var bodyStrings = words[1].split(" ");
+            // 形如 `A -> ;` 的空产生式没有 body
+            final var bodyStrings = words.length < 2 || words[1].isBlank() ? new String[0] : words[1].split(" ");
 
             final var head = getOrCreateNonTerminal(headString);
 
@@ -54,7 +55,8 @@ public class GrammarInfo {
     // 顺手写个懒加载
     private static GrammarInfo instance = null;
 
-    private static GrammarInfo getInstance() {
+    // 多个编译可能在不同线程上同时第一次用到它
+    private static synchronized GrammarInfo getInstance() {
         if (instance == null) {
             instance = new GrammarInfo();
         }
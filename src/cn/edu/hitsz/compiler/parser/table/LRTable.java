@@ -39,7 +39,7 @@ public class LRTable {
      * @return 起始状态
      */
     public Status getInit() {
-        return statusInIndexOrder.get(0);
+        return getStatusInIndexOrder().get(0);
     }
 
     public void dumpTable(String path) {
@@ -56,7 +56,7 @@ public class LRTable {
                 .append(nonTerminals.stream().map(Term::toString).collect(Collectors.joining(",")))
                 .append("\n");
 
-        for (final var status : statusInIndexOrder) {
+        for (final var status : getStatusInIndexOrder()) {
             text.append(status)
                     .append(",")
                     .append(terminals.stream().map(status::getAction).map(Action::toString)
@@ -70,6 +70,30 @@ public class LRTable {
         FileUtils.writeFile(path, text.toString());
     }
 
+    /**
+     * @return 编译成稠密整数数组的分析表, 只会编译一次. 同一张表可以被多个编译同时使用
+     */
+    public synchronized CompiledLRTable compile() {
+        if (compiled == null) {
+            compiled = CompiledLRTable.compile(this);
+        }
+
+        return compiled;
+    }
+
+    List<Status> getStatusInIndexOrder() {
+        // 由编译后的表构造时, 在第一次需要时才由编译后的表还原出 Status
+        return statusInIndexOrder != null ? statusInIndexOrder : compiled.statusInIndexOrder();
+    }
+
+    List<TokenKind> getTerminals() {
+        return terminals;
+    }
+
+    List<NonTerminal> getNonTerminals() {
+        return nonTerminals;
+    }
+
     private String convertToGotoString(Status status) {
         if (status.equals(Status.error())) {
             return "";
@@ -84,7 +108,15 @@ public class LRTable {
         this.nonTerminals = nonTerminals;
     }
 
+    LRTable(CompiledLRTable compiled, List<TokenKind> terminals, List<NonTerminal> nonTerminals) {
+        this.statusInIndexOrder = null;
+        this.terminals = terminals;
+        this.nonTerminals = nonTerminals;
+        this.compiled = compiled;
+    }
+
     private final List<Status> statusInIndexOrder;
     private final List<TokenKind> terminals;
     private final List<NonTerminal> nonTerminals;
+    private CompiledLRTable compiled = null;
 }
@@ -11,12 +11,54 @@ import java.util.stream.Stream;
  * 根据语法文件构造 LR 分析表.
  * <br>
  * 此文件为非必需的框架文件, 用于提升整个编译器处理流程的统一性以及为学生提供 SLR(1) 分析表生成程序的参考. 正常情况下你不需要了解该文件.
+ * <br>
+ * 除 SLR(1) 外, 还支持构造规范 LR(1) 分析表与 LALR(1) 分析表, 见 {@link Mode}.
  */
 public class TableGenerator {
+    /**
+     * 分析表的构造方法
+     */
+    public enum Mode {
+        /**
+         * 由 LR(0) 项目集族构造, 规约动作取产生式头的 follow 集合
+         */
+        SLR,
+        /**
+         * 由带向前看符号的 LR(1) 项目集族构造, 规约动作只取项目的向前看符号. 状态数可能很多
+         */
+        LR1,
+        /**
+         * 在 LR(1) 项目集族的基础上合并核心相同的项目集, 状态数与 SLR 相同, 但规约动作仍然取向前看符号
+         */
+        LALR
+    }
+
     public TableGenerator() {
-        this.productions = GrammarInfo.getProductionsInOrder();
-        this.terminals = new HashSet<>(TokenKind.allAllowedTokenKinds().values());
-        this.nonTerminals = new HashSet<>(GrammarInfo.getNonTerminals().values());
+        this(Mode.SLR);
+    }
+
+    /**
+     * @param mode 分析表的构造方法
+     */
+    public TableGenerator(Mode mode) {
+        this(mode, GrammarInfo.getProductionsInOrder(),
+            new HashSet<>(TokenKind.allAllowedTokenKinds().values()),
+            new HashSet<>(GrammarInfo.getNonTerminals().values()));
+    }
+
+    /**
+     * 从给定的文法 (而不是 grammar.txt) 构造分析表, 供基准测试等场合使用
+     *
+     * @param mode         分析表的构造方法
+     * @param productions  按编号排列的产生式, 第一条须形如 S -> S'
+     * @param terminals    终结符
+     * @param nonTerminals 非终结符
+     */
+    TableGenerator(Mode mode, List<Production> productions, Set<TokenKind> terminals, Set<NonTerminal> nonTerminals) {
+        this.mode = mode;
+        this.productions = productions;
+        this.terminals = terminals;
+        this.nonTerminals = nonTerminals;
 
         if (productions.get(0).body().size() != 1) {
             throw new RuntimeException("The first production in grammar file must like S -> S'");
@@ -27,13 +69,28 @@ public class TableGenerator {
      * 主体方法
      */
     public void run() {
-        calcFirst();
-        calcFollow();
+        sets = new FirstFollowSets(productions, nonTerminals);
         constructDFA();
         dumpItems();
         genTable();
     }
 
+    /**
+     * 与 run 相同, 但不输出项目集族
+     */
+    public void generate() {
+        sets = new FirstFollowSets(productions, nonTerminals);
+        constructDFA();
+        genTable();
+    }
+
+    /**
+     * @return 构造出的状态数
+     */
+    int statusCount() {
+        return allStatusInIndexOrder.size();
+    }
+
     /**
      * 将该分析表生成的 LR(0) 规范集族打印到某个文件之中, 用于调试
      */
@@ -56,137 +113,27 @@ public class TableGenerator {
         return new LRTable(allStatusInIndexOrder, new ArrayList<>(terminals), new ArrayList<>(nonTerminals));
     }
 
+    private final Mode mode;
     private final List<Production> productions;
     private final Set<TokenKind> terminals;
     private final Set<NonTerminal> nonTerminals;
 
-    private final Map<Term, Set<TokenKind>> first = new HashMap<>();
-    private final Map<Term, Set<TokenKind>> follow = new HashMap<>();
+    // 文法的 NULLABLE, FIRST 与 FOLLOW 集合
+    private FirstFollowSets sets;
 
-    private final Set<Term> visited = new HashSet<>();
-
-    /**
-     * 计算所有符号的 first 集合 <br>
-     * 终结符的 first 就是它自身, 非终结符的 first 则递归计算
-     */
-    private void calcFirst() {
-        for (final var terminal : terminals) {
-            first.put(terminal, Set.of(terminal));
-        }
-
-        for (final var nonTerminal : nonTerminals) {
-            visited.clear();
-            calcFirst(nonTerminal);
-        }
-
-    }
-
-    /**
-     * 递归计算特定非终结符的 first
-     *
-     * @param nonTerminal 非终结符
-     * @return 其 first 集合
-     */
-    private Set<TokenKind> calcFirst(Term nonTerminal) {
-        // 如果已经被计算, 则直接返回缓存的结果
-        if (first.containsKey(nonTerminal)) {
-            return first.get(nonTerminal);
-        }
-
-        final var result = new LinkedHashSet<TokenKind>();
-        for (final var production : productions) {
-            if (nonTerminal == production.head()) {
-                // 在文法中寻找以该非终结符为头的产生式
-                final var firstSymbol = production.body().get(0);
-                // 记录已经在栈中的递归过的非终结符, 防止直接或间接的左递归导致程序死循环
-                if (!visited.contains(firstSymbol)) {
-                    // 随后递归查找该产生式体的第一个文法符号的 first 集合
-                    // 它的 first 集合也是该非终结符的 first 集合
-                    visited.add(firstSymbol);
-                    result.addAll(calcFirst(firstSymbol));
-                }
-            }
-        }
-
-        first.put(nonTerminal, result);
-        return result;
-    }
-
-
-    /**
-     * 计算所有非终结符的 follow 集合
-     */
-    private void calcFollow() {
-        for (final var nonTerminal : nonTerminals) {
-            visited.clear();
-            calcFollow(nonTerminal);
-        }
-
-        // 对于找完所有产生式了都还没没有 follow 的非终结符
-        // 它必然是一个没有被使用的非终结符, 这意味着它的 follow 就是 EOF
-        nonTerminals.stream()
-            .map(follow::get).filter(Set::isEmpty)
-            .forEach(set -> set.add(TokenKind.eof()));
-    }
-
-    /**
-     * 递归计算给定非终结符的 follow 集合
-     *
-     * @param nonTerminal 给定的非终止符
-     * @return 其 follow 集合
-     */
-    private Set<TokenKind> calcFollow(NonTerminal nonTerminal) {
-        // 与 first 类似, 先查找缓存
-        if (follow.containsKey(nonTerminal)) {
-            return follow.get(nonTerminal);
-        }
-
-        final var result = new LinkedHashSet<TokenKind>();
-        for (final var production : productions) {
-            final var body = production.body();
-
-            // 对该非终结符在每条产生式体中的可能出现, 我们都要将紧跟在该出现后面的项的 first 加入其 follow 集合
-            // 我们直接枚举每条产生式体的每个项
-            for (int i = 0; i < body.size() - 1; i++) {
-                // 如果发现目前的 curr 的话, 后面跟着的符号的 first 就是它的 follow
-                final var symbol = body.get(i);
-                final var next = body.get(i + 1);
-
-                if (symbol.equals(nonTerminal)) {
-                    result.addAll(first.get(next));
-                }
-            }
-
-            // 如果该非终结符出现在产生式的末尾, 那么该产生式的头的 follow 集合也要加入其 follow 集合中
-            final var lastInBody = body.get(body.size() - 1);
-            if (lastInBody.equals(nonTerminal)) {
-                final var head = production.head();
-                if (visited.contains(head)) {
-                    // 如果该产生式头已经在栈中了, 那么意味着这个非终结符有可能一直展开自己
-                    // 这时候 EOF 也可能是它的 Follow
-                    result.add(TokenKind.eof());
-                } else {
-                    // 否则直接递归查找
-                    visited.add(head);
-                    result.addAll(calcFollow(head));
-                }
-            }
-        }
-
-        follow.put(nonTerminal, result);
-        return result;
-    }
 
     /**
      * 表示一个项目
      * <br>
      * 对于 A -> B . C, 其 production 为 A -> B C, dot 为 1 (其下一个项 C 的索引) <br>
      * 对于 A -> B C ., 其 production 为 A -> B C, dot 为 2 (其产生式体的项数量) <br>
+     * LR(1) 项目还带有一个向前看符号; LR(0) 项目的向前看符号为 null
      *
      * @param production 产生式
      * @param dot        目前解析到的位置
+     * @param lookahead  向前看符号
      */
-    private record Item(Production production, int dot) {
+    private record Item(Production production, int dot, TokenKind lookahead) {
         /**
          * @return 点的位置是否在产生式的末尾
          */
@@ -212,7 +159,7 @@ public class TableGenerator {
             if (isDotAtEnd()) {
                 return Optional.empty();
             } else {
-                return Optional.of(new Item(production, dot + 1));
+                return Optional.of(new Item(production, dot + 1, lookahead));
             }
         }
 
@@ -235,127 +182,304 @@ public class TableGenerator {
                 builder.append(" .");
             }
 
+            if (lookahead != null) {
+                builder.append(", ").append(lookahead);
+            }
+
             return builder.toString();
         }
     }
 
-    private final Map<Set<Item>, Status> belongTo = new HashMap<>();
+    /**
+     * 以排好序的项目编号数组表示的项目集, 缓存了哈希值, 用作查找状态的键
+     */
+    private static final class ItemSet {
+        private final int[] items;
+        private final int hash;
+
+        private ItemSet(int[] items) {
+            this.items = items;
+            this.hash = Arrays.hashCode(items);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof ItemSet other && other.hash == hash && Arrays.equals(other.items, items);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    // ============================== 文法的整数索引 ==============================
+    // 文法符号编号: 非终结符在前, 终结符在后.
+    // 项目的 "核心" (产生式, 点的位置) 编号为 productionOffset[产生式下标] + dot,
+    // 项目编号为 核心编号 * lookaheadSlots + 向前看符号的终结符编号 (LR(0) 项目的 lookaheadSlots 为 1, 没有向前看符号)
+    private final List<Term> symbols = new ArrayList<>();
+    private final Map<Term, Integer> symbolIndex = new HashMap<>();
+    private int nonTerminalCount;
+    private int lookaheadSlots;
+    private int[] productionOffset;
+    private int[] coreProduction;
+    private int[] coreDot;
+    private int[] coreAfterDot; // 点后面的符号编号, 点在末尾时为 -1
+    // 对 A -> alpha . B beta, 记录 FIRST(beta) 中的终结符编号与 beta 是否可空, 用于计算 LR(1) 展开时的向前看符号
+    private int[][] coreSuffixFirst;
+    private boolean[] coreSuffixNullable;
+    private int[][] productionsByHead; // 以非终结符编号为下标, 以其为头的产生式下标
+
+    // 求闭包时用于去重的标记数组, 每次求闭包换一个戳, 免得清空
+    private int[] closureMark;
+    private int closureStamp = 0;
+    private int[] closureItems = new int[64];
+    private int closureSize = 0;
+
     private final Map<Status, Set<Item>> including = new HashMap<>();
+    private final Map<Status, Map<Term, Status>> transitions = new HashMap<>();
     private final List<Status> allStatusInIndexOrder = new ArrayList<>();
 
     /**
-     * 构造出所有状态并维护状态与项集之间的对应关系
+     * 为文法符号, 产生式与项目编号, 建立各种以整数为下标的索引
      */
-    private void constructDFA() {
-        final var argumentProduction = productions.get(0);
-        final var initItem = new Item(argumentProduction, 0);
-        final var collections = constructCanonicalLRCollection(initItem);
+    private void indexGrammar() {
+        // 按名字排序以保证状态编号的确定性
+        final var comparator = Comparator.comparing(Term::getTermName);
+        nonTerminals.stream().sorted(comparator).forEach(symbols::add);
+        nonTerminalCount = symbols.size();
+        terminals.stream().sorted(comparator).forEach(symbols::add);
+        for (int i = 0; i < symbols.size(); i++) {
+            symbolIndex.put(symbols.get(i), i);
+        }
+        lookaheadSlots = mode == Mode.SLR ? 1 : symbols.size() - nonTerminalCount;
 
-        for (int idx = 0; idx < collections.size(); idx++) {
-            final var status = Status.create(idx);
-            allStatusInIndexOrder.add(status);
+        productionOffset = new int[productions.size()];
+        int coreCount = 0;
+        for (int p = 0; p < productions.size(); p++) {
+            productionOffset[p] = coreCount;
+            coreCount += productions.get(p).body().size() + 1;
+        }
 
-            final var items = collections.get(idx);
-            including.put(status, items);
-            belongTo.put(items, status);
+        coreProduction = new int[coreCount];
+        coreDot = new int[coreCount];
+        coreAfterDot = new int[coreCount];
+        coreSuffixFirst = new int[coreCount][];
+        coreSuffixNullable = new boolean[coreCount];
+        final var byHead = new ArrayList<List<Integer>>();
+        for (int i = 0; i < nonTerminalCount; i++) {
+            byHead.add(new ArrayList<>());
         }
+
+        for (int p = 0; p < productions.size(); p++) {
+            final var body = productions.get(p).body();
+            for (int dot = 0; dot <= body.size(); dot++) {
+                final int core = productionOffset[p] + dot;
+                coreProduction[core] = p;
+                coreDot[core] = dot;
+                coreAfterDot[core] = dot < body.size() ? symbolIndex.get(body.get(dot)) : -1;
+                if (dot < body.size()) {
+                    final var beta = body.subList(dot + 1, body.size());
+                    coreSuffixFirst[core] = sets.firstBits(beta).stream()
+                        .map(bit -> symbolIndex.get(TokenKind.fromCode(bit - 1)) - nonTerminalCount)
+                        .toArray();
+                    coreSuffixNullable[core] = sets.isNullable(beta);
+                }
+            }
+            byHead.get(symbolIndex.get(productions.get(p).head())).add(p);
+        }
+
+        productionsByHead = byHead.stream()
+            .map(list -> list.stream().mapToInt(Integer::intValue).toArray())
+            .toArray(int[][]::new);
+
+        closureMark = new int[coreCount * lookaheadSlots];
     }
 
     /**
-     * @param head 头部符号
-     * @return 返回一个流, 其中的元素都是以 head 为头的产生式
+     * @param item 项目编号
+     * @return 对应的项目
      */
-    private Stream<Production> getProductionsByHead(Term head) {
-        return productions.stream().filter(production -> production.head().equals(head));
+    private Item decodeItem(int item) {
+        final int core = item / lookaheadSlots;
+        final var lookahead = mode == Mode.SLR
+            ? null : (TokenKind) symbols.get(nonTerminalCount + item % lookaheadSlots);
+        return new Item(productions.get(coreProduction[core]), coreDot[core], lookahead);
     }
 
     /**
-     * 构造项集 {@code sourceItem} 的闭包, 相当于理论课中的 CLOSURE(I) 函数
-     *
-     * @param sourceItem 项集 I
-     * @return 闭包
+     * 构造出所有状态并维护状态与项集之间的对应关系
      */
-    private Set<Item> constructClosure(Set<Item> sourceItem) {
-        // 采用 BFS 的方法来避免每次都检测集合的更改
-        final var result = new LinkedHashSet<>(sourceItem);
-        // 已经找到, 但是还未完全探索其能展开的项的项
-        // 类似于 BFS 的队列或者是 mark-and-sweep GC 算法里的灰色列表
-        final var unexpanded = new ArrayDeque<>(sourceItem);
-
-        while (!unexpanded.isEmpty()) {
-            final var top = unexpanded.pollFirst();
-            // 获得当前项中点后面的符号
-            top.getAfterDot().ifPresent(afterDot ->
-                // 随后查找以该符号作为头部的产生式
-                getProductionsByHead(afterDot)
-                    // 构造点在对应产生式开头的新项
-                    .map(production -> new Item(production, 0))
-                    // 对于不在 result 中的新项
-                    .filter(item -> !result.contains(item))
-                    // 加入队列并加入结果中
-                    .peek(unexpanded::add)
-                    .forEach(result::add));
+    private void constructDFA() {
+        indexGrammar();
+
+        // LR(1) 与 LALR(1) 的起始项目为 [S -> . S', $]
+        final int initItem = mode == Mode.SLR
+            ? 0 : symbolIndex.get(TokenKind.eof()) - nonTerminalCount;
+        final var kernels = new ArrayList<int[]>();
+        final var closures = new ArrayList<int[]>();
+        final var gotos = new ArrayList<int[]>();
+        constructCanonicalLRCollection(initItem, kernels, closures, gotos);
+
+        // 确定每个项目集所属的状态. LALR 时核心相同的项目集合并为同一个状态, 其余情况一个项目集一个状态.
+        // 核相同的项目集闭包也相同, 所以只需比较核的核心
+        final var statusOf = new int[closures.size()];
+        final var mergedItems = new ArrayList<Set<Item>>();
+        final var coreIndex = new HashMap<ItemSet, Integer>();
+        for (int idx = 0; idx < closures.size(); idx++) {
+            final int index;
+            if (mode == Mode.LALR) {
+                final var cores = Arrays.stream(kernels.get(idx)).map(item -> item / lookaheadSlots).distinct().toArray();
+                index = coreIndex.computeIfAbsent(new ItemSet(cores), key -> {
+                    mergedItems.add(new LinkedHashSet<>());
+                    return mergedItems.size() - 1;
+                });
+            } else {
+                mergedItems.add(new LinkedHashSet<>());
+                index = idx;
+            }
+
+            statusOf[idx] = index;
+            for (final int item : closures.get(idx)) {
+                mergedItems.get(index).add(decodeItem(item));
+            }
         }
 
-        return result;
+        for (int idx = 0; idx < mergedItems.size(); idx++) {
+            final var status = Status.create(idx);
+            allStatusInIndexOrder.add(status);
+            including.put(status, mergedItems.get(idx));
+            transitions.put(status, new HashMap<>());
+        }
+
+        // 合并后的状态的转移就是其中各项目集的转移, 核心相同的项目集在同一符号上的后继核心也相同, 所以不会冲突
+        for (int idx = 0; idx < closures.size(); idx++) {
+            final var from = allStatusInIndexOrder.get(statusOf[idx]);
+            final var pairs = gotos.get(idx);
+            for (int i = 0; i < pairs.length; i += 2) {
+                transitions.get(from).put(symbols.get(pairs[i]), allStatusInIndexOrder.get(statusOf[pairs[i + 1]]));
+            }
+        }
     }
 
     /**
-     * 相当于理论课中的 GO(I, X) 函数 (转移函数)
+     * 从核构造项目集的闭包, 相当于理论课中的 CLOSURE(I) 函数
      *
-     * @param items 当前项集 I
-     * @param term  文法符号 X
-     * @return I 关于 X 的后继项目集
+     * @param kernel 核, 排好序的项目编号
+     * @return 闭包, 排好序的项目编号
      */
-    private Set<Item> constructGoto(Set<Item> items, Term term) {
-        final var kernelForGoto = items.stream()
-            // 先筛选出 I 中所有点后面是 term 的项
-            .filter(item -> item.getAfterDot().map(term::equals).orElse(false))
-            // 然后分别求出每一个项的后继项
-            // 这个项集就是后继项目集的核
-            .map(Item::getNextItem).flatMap(Optional::stream)
-            .collect(Collectors.toSet());
-
-        // 随后从后继项目集的核中构造闭包即可得到后继项目集
-        return constructClosure(kernelForGoto);
+    private int[] constructClosure(int[] kernel) {
+        // 采用 BFS 的方法来避免每次都检测集合的更改, closureItems 中 [i, closureSize) 的部分就是还未展开的项目
+        closureStamp++;
+        closureSize = 0;
+        for (final int item : kernel) {
+            addToClosure(item);
+        }
+
+        for (int i = 0; i < closureSize; i++) {
+            final int item = closureItems[i];
+            final int core = item / lookaheadSlots;
+            final int afterDot = coreAfterDot[core];
+            // 只展开点后面为非终结符的项目
+            if (afterDot < 0 || afterDot >= nonTerminalCount) {
+                continue;
+            }
+
+            // LR(1) 项目 [A -> alpha . B beta, a] 展开出的项目的向前看符号为 FIRST(beta a),
+            // 即 FIRST(beta), 若 beta 可空再加上 a
+            final int[] lookaheads = mode == Mode.SLR ? NO_LOOKAHEAD : coreSuffixFirst[core];
+            final boolean inheritLookahead = mode != Mode.SLR && coreSuffixNullable[core];
+
+            for (final int production : productionsByHead[afterDot]) {
+                final int base = productionOffset[production] * lookaheadSlots;
+                for (final int lookahead : lookaheads) {
+                    addToClosure(base + lookahead);
+                }
+                if (inheritLookahead) {
+                    addToClosure(base + item % lookaheadSlots);
+                }
+            }
+        }
+
+        final var closure = Arrays.copyOf(closureItems, closureSize);
+        Arrays.sort(closure);
+        return closure;
     }
 
+    private void addToClosure(int item) {
+        if (closureMark[item] == closureStamp) {
+            return;
+        }
+
+        closureMark[item] = closureStamp;
+        if (closureSize == closureItems.length) {
+            closureItems = Arrays.copyOf(closureItems, closureSize * 2);
+        }
+        closureItems[closureSize++] = item;
+    }
+
+    private static final int[] NO_LOOKAHEAD = {0};
+
     /**
-     * 构造 LR(0) 规范项目集族
+     * 构造规范项目集族 (SLR 时为 LR(0) 项目集族, 否则为 LR(1) 项目集族)
+     * <br>
+     * 相当于理论课中对每个项目集求 GO(I, X): 对一个已求出闭包的项目集, 只需扫描一遍, 按点后面的符号把各项目的后继项目分到各个桶里,
+     * 每个桶就是对应符号的后继项目集的核. 状态以核去重, 只有新出现的核才需要求闭包.
      *
-     * @param initItem 起始项目 S -> . S'
-     * @return 规范项目集族
+     * @param initItem 起始项目 S -> . S' 的编号
+     * @param kernels  输出: 各项目集的核
+     * @param closures 输出: 各项目集的闭包
+     * @param gotos    输出: 各项目集的转移, 形如 [符号编号, 目标项目集下标, 符号编号, 目标项目集下标 ...]
      */
-    private List<Set<Item>> constructCanonicalLRCollection(Item initItem) {
-        // 先收集所有的文法符号备用
-        final var terms = new LinkedHashSet<Term>();
-        terms.addAll(nonTerminals);
-        terms.addAll(terminals);
-
-        // 构造初始项目集族
-        final var initClosure = constructClosure(Set.of(initItem));
-
-        // 同样以 BFS 形式搜索
-        final var result = new LinkedHashSet<>(Set.of(initClosure));
-        final var unexpanded = new ArrayDeque<>(Set.of(initClosure));
-
-        while (!unexpanded.isEmpty()) {
-            final var items = unexpanded.pollFirst();
-
-            // 对于每个未被探索的集族
-            for (final var term : terms) {
-                // 尝试对每一个文法符号都求一个后继项目集
-                final var to = constructGoto(items, term);
-                // 如果还没被加入到 result 中
-                if (!to.isEmpty() && !result.contains(to)) {
-                    // 就加入 result 和待探索列表中
-                    result.add(to);
-                    unexpanded.addLast(to);
+    private void constructCanonicalLRCollection(int initItem,
+                                                List<int[]> kernels, List<int[]> closures, List<int[]> gotos) {
+        final var indexOf = new HashMap<ItemSet, Integer>();
+        final int[] initKernel = {initItem};
+        indexOf.put(new ItemSet(initKernel), 0);
+        kernels.add(initKernel);
+        closures.add(constructClosure(initKernel));
+
+        // 每个文法符号一个桶
+        final var buckets = new int[symbols.size()][];
+        final var bucketSizes = new int[symbols.size()];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new int[4];
+        }
+
+        // 同样以 BFS 形式搜索, 按发现顺序编号
+        for (int idx = 0; idx < closures.size(); idx++) {
+            Arrays.fill(bucketSizes, 0);
+            // 项目编号中核心在高位, 核心加一 (点后移一位) 即编号加 lookaheadSlots, 且闭包有序, 因此桶内天然有序
+            for (final int item : closures.get(idx)) {
+                final int symbol = coreAfterDot[item / lookaheadSlots];
+                if (symbol < 0) {
+                    continue;
                 }
+
+                if (bucketSizes[symbol] == buckets[symbol].length) {
+                    buckets[symbol] = Arrays.copyOf(buckets[symbol], bucketSizes[symbol] * 2);
+                }
+                buckets[symbol][bucketSizes[symbol]++] = item + lookaheadSlots;
+            }
+
+            final var pairs = new ArrayList<Integer>();
+            for (int symbol = 0; symbol < symbols.size(); symbol++) {
+                if (bucketSizes[symbol] == 0) {
+                    continue;
+                }
+
+                final var kernel = Arrays.copyOf(buckets[symbol], bucketSizes[symbol]);
+                final var toIndex = indexOf.computeIfAbsent(new ItemSet(kernel), key -> {
+                    kernels.add(kernel);
+                    closures.add(constructClosure(kernel));
+                    return closures.size() - 1;
+                });
+                pairs.add(symbol);
+                pairs.add(toIndex);
             }
-        }
 
-        return new ArrayList<>(result);
+            gotos.add(pairs.stream().mapToInt(Integer::intValue).toArray());
+        }
     }
 
     /**
@@ -374,19 +498,23 @@ public class TableGenerator {
                         // S -> S' .
                         // 如果项目代表起始文法的末尾, 那么再遇到 EOF 就 accept 了
                         status.setAction(TokenKind.eof(), Action.accept());
+                    } else if (item.lookahead() != null) {
+                        // [A -> alpha ., a]
+                        // LR(1) 项目只在遇到其向前看符号时规约
+                        status.setAction(item.lookahead(), Action.reduce(item.production()));
                     } else {
                         // A -> alpha .
                         // 如果项目代表某个产生式的末尾, 那么再遇到对于任何位于 follow(A) 内的文法符号都应该规约 A
                         final var production = item.production();
                         final var head = production.head();
-                        for (final var a : follow.get(head)) {
+                        for (final var a : sets.follow(head)) {
                             status.setAction(a, Action.reduce(production));
                         }
                     }
 
                 } else {
                     final var symbol = afterDotOpt.get();
-                    final var next = belongTo.get(constructGoto(including.get(status), symbol));
+                    final var next = transitions.get(status).get(symbol);
 
                     if (symbol instanceof TokenKind tokenKind) {
                         // A -> alpha . a beta
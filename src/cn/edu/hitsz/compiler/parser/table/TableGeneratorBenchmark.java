@@ -0,0 +1,102 @@
+package cn.edu.hitsz.compiler.parser.table;
+
+import cn.edu.hitsz.compiler.lexer.TokenKind;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * TableGenerator 的基准测试
+ * <br>
+ * 构造一个由若干层表达式文法串联起来的人工文法 (每层 8 条产生式, 第 i 层的括号里是第 i + 1 层的表达式),
+ * 分别以 SLR, LR(1) 与 LALR(1) 方式生成分析表并输出耗时与状态数.
+ * <br>
+ * 用法: {@code java cn.edu.hitsz.compiler.parser.table.TableGeneratorBenchmark [层数, 默认 50]}, 需要在项目根目录下运行以读取码点文件
+ */
+public class TableGeneratorBenchmark {
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int MEASURE_ROUNDS = 5;
+
+    public static void main(String[] args) {
+        TokenKind.loadTokenKinds();
+        final int levels = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+
+        final var productions = new ArrayList<Production>();
+        final var nonTerminals = new HashSet<NonTerminal>();
+        buildGrammar(levels, productions, nonTerminals);
+        final var terminals = new HashSet<>(TokenKind.allAllowedTokenKinds().values());
+
+        System.out.printf("Synthetic grammar: %d levels, %d productions, %d non-terminals%n",
+            levels, productions.size(), nonTerminals.size());
+
+        for (final var mode : TableGenerator.Mode.values()) {
+            int statusCount = 0;
+            for (int round = 0; round < WARMUP_ROUNDS; round++) {
+                final var generator = new TableGenerator(mode, productions, terminals, nonTerminals);
+                generator.generate();
+                statusCount = generator.statusCount();
+            }
+
+            final long begin = System.nanoTime();
+            for (int round = 0; round < MEASURE_ROUNDS; round++) {
+                new TableGenerator(mode, productions, terminals, nonTerminals).generate();
+            }
+            final double millis = (System.nanoTime() - begin) / 1e6 / MEASURE_ROUNDS;
+
+            System.out.printf("%-5s %6d states %10.2f ms%n", mode, statusCount, millis);
+        }
+    }
+
+    /**
+     * 第 i 层的文法为:
+     * <pre>
+     * E_i -> E_i + T_i | E_i - T_i | T_i
+     * T_i -> T_i * F_i | F_i
+     * F_i -> ( E_{i+1} ) | id | IntConst
+     * </pre>
+     * 最后一层的括号中是第 0 层的表达式, 起始产生式为 S -> E_0
+     */
+    private static void buildGrammar(int levels, List<Production> productions, HashSet<NonTerminal> nonTerminals) {
+        final var start = new NonTerminal("S");
+        final var es = new ArrayList<NonTerminal>();
+        final var ts = new ArrayList<NonTerminal>();
+        final var fs = new ArrayList<NonTerminal>();
+        for (int i = 0; i < levels; i++) {
+            es.add(new NonTerminal("E_" + i));
+            ts.add(new NonTerminal("T_" + i));
+            fs.add(new NonTerminal("F_" + i));
+        }
+        nonTerminals.add(start);
+        nonTerminals.addAll(es);
+        nonTerminals.addAll(ts);
+        nonTerminals.addAll(fs);
+
+        final var plus = TokenKind.fromString("+");
+        final var minus = TokenKind.fromString("-");
+        final var times = TokenKind.fromString("*");
+        final var lParen = TokenKind.fromString("(");
+        final var rParen = TokenKind.fromString(")");
+        final var id = TokenKind.fromString("id");
+        final var intConst = TokenKind.fromString("IntConst");
+
+        add(productions, start, List.of(es.get(0)));
+        for (int i = 0; i < levels; i++) {
+            final var e = es.get(i);
+            final var t = ts.get(i);
+            final var f = fs.get(i);
+            add(productions, e, List.of(e, plus, t));
+            add(productions, e, List.of(e, minus, t));
+            add(productions, e, List.of(t));
+            add(productions, t, List.of(t, times, f));
+            add(productions, t, List.of(f));
+            add(productions, f, List.of(lParen, es.get((i + 1) % levels), rParen));
+            add(productions, f, List.of(id));
+            add(productions, f, List.of(intConst));
+        }
+    }
+
+    private static void add(List<Production> productions, NonTerminal head, List<Term> body) {
+        productions.add(new Production(productions.size() + 1, head, body));
+    }
+}
@@ -1,6 +1,6 @@
 package cn.edu.hitsz.compiler.symtab;
 
-import cn.edu.hitsz.compiler.utils.FileUtils;
+import cn.edu.hitsz.compiler.utils.DumpWriter;
 
 import java.util.ArrayList;
 import java.util.Comparator;
@@ -8,7 +8,9 @@ import java.util.HashMap;
 import java.util.Map;
 
 /**
- * 符号表 (单例)
+ * 符号表
+ * <br>
+ * 每次编译使用自己的符号表实例, 条目不在编译之间共享.
  * <br>
  * 由于源语言比较简易, 加之 Java 中具有非常好用的通用数据结构类型, 本项目其实并不一定需要一个集中的 "符号表" 来存储源语言中的
  * <b>所有符号的所有信息</b>. 但为了切合理论课程教学, 提高实验实践技能的通用性, 我们按照一般编译器项目中符号表的设计设计了该符号表.
@@ -18,7 +20,7 @@ public class SymbolTable {
 
     // [ <"a", SymbolTableEntry{ text: "a", type: INT }>,
     // <"result", SymbolTableEntry{ text: "result", type: INT }> ]
-    private static final Map<String, SymbolTableEntry> entries = new HashMap<>(); // 符号表, 目前只会有变量
+    private final Map<String, SymbolTableEntry> entries = new HashMap<>(); // 符号表, 目前只会有变量
 
     /**
      * 获取符号表中已有的条目
@@ -78,12 +80,8 @@ public class SymbolTable {
         final ArrayList<SymbolTableEntry> entriesInOrder = new ArrayList<>(getAllEntries().values());
         entriesInOrder.sort(Comparator.comparing(SymbolTableEntry::getText));
 
-        final var lines = new ArrayList<String>();
-        for (final var entry : entriesInOrder) {
-            // null in %s will be "null"
-            lines.add("(%s, %s)".formatted(entry.getText(), entry.getType()));
-        }
-
-        FileUtils.writeLines(path, lines);
+        // 类型为 null 时输出 "null"
+        DumpWriter.writeLines(path, entriesInOrder,
+            (entry, out) -> out.append('(').append(entry.getText()).append(", ").append(entry.getType()).append(')'));
     }
 }
@@ -0,0 +1,73 @@
+package cn.edu.hitsz.compiler.utils;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 编译器的命令行选项
+ * <br>
+ * 选项分为两种: 形如 {@code --stream} 的开关, 以及形如 {@code --scanner=dfa} 的键值对.
+ * 未给出的选项一律取默认值. 注意默认会优化 IR: 模拟执行与汇编生成使用优化后的 IR, 优化后的 IR 另外输出到 optimized_code.txt,
+ * 所以不带任何参数运行时生成的汇编与原先不同 (返回值不变); 指定 {@code --no-opt} 时不做优化. 各选项见 README.
+ */
+public final class CompilerOptions {
+    /**
+     * @param args 命令行参数
+     * @return 解析出的选项
+     * @throws RuntimeException 参数不以 {@code --} 开头
+     */
+    public static CompilerOptions parse(String[] args) {
+        final var flags = new HashSet<String>();
+        final var values = new HashMap<String, String>();
+        for (final var arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new RuntimeException("Illegal option: " + arg);
+            }
+
+            final var option = arg.substring(2);
+            final var eq = option.indexOf('=');
+            if (eq < 0) {
+                flags.add(option);
+            } else {
+                values.put(option.substring(0, eq), option.substring(eq + 1));
+            }
+        }
+
+        return new CompilerOptions(flags, values);
+    }
+
+    /**
+     * @return 不带任何选项的默认配置
+     */
+    public static CompilerOptions defaults() {
+        return new CompilerOptions(Set.of(), Map.of());
+    }
+
+    /**
+     * @param flag 开关名, 不带 {@code --}
+     * @return 该开关是否被打开
+     */
+    public boolean has(String flag) {
+        return flags.contains(flag);
+    }
+
+    /**
+     * @param key          选项名, 不带 {@code --}
+     * @param defaultValue 未给出该选项时的默认值
+     * @return 选项的值
+     */
+    public String get(String key, String defaultValue) {
+        return values.getOrDefault(key, defaultValue);
+    }
+
+    private CompilerOptions(Set<String> flags, Map<String, String> values) {
+        this.flags = Collections.unmodifiableSet(flags);
+        this.values = Collections.unmodifiableMap(values);
+    }
+
+    private final Set<String> flags;
+    private final Map<String, String> values;
+}
@@ -0,0 +1,175 @@
+package cn.edu.hitsz.compiler.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.function.BiConsumer;
+
+/**
+ * 各阶段输出结果时使用的流式写入器
+ * <br>
+ * 内容直接追加到一个复用的字符缓冲区中, 缓冲区满时按 UTF-8 编码后写入文件, 因此输出时不需要先把所有行格式化成字符串列表,
+ * 也不会为每一行创建字符串. 各阶段按自己的格式逐项追加, 行尾与 {@link FileUtils#writeLines} 一样使用系统的换行符.
+ * <br>
+ * IO 错误一律以 RuntimeException 抛出. 用完后需要 close, 以写出缓冲区中剩余的内容.
+ */
+public final class DumpWriter implements AutoCloseable {
+    /**
+     * @param path 输出文件路径, 已存在时覆盖
+     * @return 写入该文件的 DumpWriter
+     */
+    public static DumpWriter open(String path) throws RuntimeException {
+        try {
+            return new DumpWriter(path, FileChannel.open(Paths.get(path),
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING));
+        } catch (IOException e) {
+            throw new RuntimeException("IO Exception for " + path, e);
+        }
+    }
+
+    /**
+     * 把 items 逐项写入文件, 每项一行
+     *
+     * @param path   输出文件路径
+     * @param items  要输出的各项
+     * @param format 把一项追加到写入器中, 不含换行
+     */
+    public static <T> void writeLines(String path, Iterable<? extends T> items, BiConsumer<T, DumpWriter> format) {
+        try (final var out = open(path)) {
+            for (final T item : items) {
+                format.accept(item, out);
+                out.newLine();
+            }
+        }
+    }
+
+    /**
+     * 不能编码的字符 (比如错误信息中落单的代理字符) 替换为 '?' 而不是抛出异常, 用于输出内容不完全受控的文件
+     *
+     * @return this
+     */
+    public DumpWriter replacingMalformed() {
+        encoder.onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+        return this;
+    }
+
+    public DumpWriter append(CharSequence text) {
+        final int length = text.length();
+        int offset = 0;
+        while (offset < length) {
+            if (!chars.hasRemaining()) {
+                drain(false);
+            }
+            final int count = Math.min(chars.remaining(), length - offset);
+            if (text instanceof String string) {
+                // 直接复制到缓冲区的底层数组中
+                string.getChars(offset, offset + count, chars.array(), chars.arrayOffset() + chars.position());
+                chars.position(chars.position() + count);
+            } else {
+                chars.append(text, offset, offset + count);
+            }
+            offset += count;
+        }
+        return this;
+    }
+
+    public DumpWriter append(char ch) {
+        if (!chars.hasRemaining()) {
+            drain(false);
+        }
+        chars.put(ch);
+        return this;
+    }
+
+    public DumpWriter append(int value) {
+        // 数字逐位写入, 不经过 Integer.toString
+        if (value < 0) {
+            append('-');
+            if (value == Integer.MIN_VALUE) {
+                return append("2147483648");
+            }
+            value = -value;
+        }
+        int divisor = 1;
+        while (value / divisor >= 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            append((char) ('0' + value / divisor % 10));
+        }
+        return this;
+    }
+
+    /**
+     * 追加 String.valueOf(object) 的内容
+     */
+    public DumpWriter append(Object object) {
+        return append(String.valueOf(object));
+    }
+
+    public DumpWriter newLine() {
+        return append(LINE_SEPARATOR);
+    }
+
+    @Override
+    public void close() throws RuntimeException {
+        try (channel) {
+            drain(true);
+            bytes.clear();
+            encoder.flush(bytes);
+            writeBytes();
+        } catch (IOException e) {
+            throw new RuntimeException("IO Exception for " + path, e);
+        }
+    }
+
+    //==================== 以下为实现相关代码 ==============================//
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    private final String path;
+    private final FileChannel channel;
+    private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+    private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE * 3); // 每个 UTF-16 字符至多编码为 3 个字节
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+
+    private DumpWriter(String path, FileChannel channel) {
+        this.path = path;
+        this.channel = channel;
+    }
+
+    /**
+     * 编码并写出字符缓冲区中的内容. 不是最后一次时, 缓冲区末尾落单的高代理字符留到下一次与低代理一起编码
+     *
+     * @param endOfInput 是否已没有更多的输入
+     */
+    private void drain(boolean endOfInput) {
+        chars.flip();
+        bytes.clear();
+        final CoderResult result = encoder.encode(chars, bytes, endOfInput);
+        if (result.isError()) {
+            throw new RuntimeException("Unmappable character for " + path);
+        }
+        chars.compact();
+        try {
+            writeBytes();
+        } catch (IOException e) {
+            throw new RuntimeException("IO Exception for " + path, e);
+        }
+    }
+
+    private void writeBytes() throws IOException {
+        bytes.flip();
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+}
@@ -53,6 +53,11 @@ public final class FilePathConfig {
      */
     public static final String INTERMEDIATE_CODE_PATH = "data/out/intermediate_code.txt";
 
+    /**
+     * 优化后的中间代码
+     */
+    public static final String OPTIMIZED_CODE_PATH = "data/out/optimized_code.txt";
+
     /**
      * IR 模拟执行的结果
      */
@@ -1,10 +1,13 @@
 package cn.edu.hitsz.compiler.utils;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
 import java.util.List;
 
@@ -36,6 +39,25 @@ public final class FileUtils {
         }
     }
 
+    /**
+     * 以只读方式把文件映射到内存中, 内容不会被读入堆中. 文件不能超过 2GB
+     *
+     * @param path 文件路径
+     * @return 映射的内容
+     */
+    public static ByteBuffer mapFile(String path) throws RuntimeException {
+        try (final var channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new RuntimeException("File too large: " + path);
+            }
+            // 映射在 channel 关闭后仍然有效, 直到 buffer 被回收
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } catch (IOException e) {
+            throw new RuntimeException("IO Exception on " + path, e);
+        }
+    }
+
     /**
      * 将内容写入指定文件
      *
@@ -1,10 +1,17 @@
 package cn.edu.hitsz.compiler.utils;
 
+import cn.edu.hitsz.compiler.ir.AssignmentAnalysis;
+import cn.edu.hitsz.compiler.ir.ControlFlowGraph;
 import cn.edu.hitsz.compiler.ir.IRImmediate;
+import cn.edu.hitsz.compiler.ir.IRLabel;
 import cn.edu.hitsz.compiler.ir.IRValue;
 import cn.edu.hitsz.compiler.ir.IRVariable;
 import cn.edu.hitsz.compiler.ir.Instruction;
+import cn.edu.hitsz.compiler.ir.InstructionKind;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -12,64 +19,409 @@ import java.util.Optional;
 
 /**
  * 用来模拟执行 IR 的类
+ * <br>
+ * 加载时先把指令列表翻译 (lower) 成一个紧凑的 int[] 代码数组, 之后的执行只是在这个数组上跑一个 switch 循环:
+ * <ul>
+ *     <li>每条指令固定占 4 个 int: 操作码, 结果槽位, 左操作数, 右操作数</li>
+ *     <li>IR 变量在加载时被分配到栈帧 (一个 int 数组) 中连续的槽位上, 操作数直接以槽位编号表示</li>
+ *     <li>立即数直接内联在操作数的位置上, 由操作码区分操作数是槽位还是立即数 (如 ADD_VI 表示左边是变量, 右边是立即数)</li>
+ * </ul>
+ * 执行过程中不再有 instanceof 判断, 装箱与哈希表访问. LABEL 不产生代码, 跳转的目标在加载时就被换成代码数组中的下标.
+ * <br>
+ * 与生成的汇编保持一致: 执行到第一条被执行的 RET 为止, 不可达的指令 (比如直线代码中第一条 RET 之后的指令) 在加载时就被丢弃;
+ * RET 一个尚未赋值的变量时返回值为空, 而用尚未赋值的变量参与运算则会抛出异常.
+ * <br>
+ * 变量在被读时是否已被赋值由 {@link AssignmentAnalysis} 在加载时确定. 直线代码中总能确定, 只有经过汇合点时才可能
+ * "可能但不一定已被赋值", 这时才为该变量生成执行时的检查 (CHECK) 与记录 (MARK).
+ * <br>
+ * 带跳转的程序可能永远不结束, 所以执行时统计向回跳转 (跳到当前指令或之前) 的次数, 超过上限
+ * (见 {@link #withLoopLimit}) 时抛出异常.
  */
 public class IREmulator {
     public static IREmulator load(List<Instruction> instructions) {
         return new IREmulator(instructions);
     }
 
+    /**
+     * @param loopLimit 执行中向回跳转的次数的上限, 默认为 {@link #DEFAULT_LOOP_LIMIT}
+     * @return this
+     */
+    public IREmulator withLoopLimit(int loopLimit) {
+        this.loopLimit = loopLimit;
+        return this;
+    }
+
     public Optional<Integer> execute() {
-        for (final var instruction : instructions) {
-            switch (instruction.getKind()) {
-                case MOV -> {
-                    final var from = eval(instruction.getFrom());
-                    environment.put(instruction.getResult(), from);
-                }
+        final int[] code = this.code;
+        final int[] frame = this.frame;
+        final boolean[] defined = this.defined;
+        Arrays.fill(defined, false);
+        executed = false;
+        int loops = loopLimit;
 
-                case ADD -> {
-                    final var lhs = eval(instruction.getLHS());
-                    final var rhs = eval(instruction.getRHS());
-                    environment.put(instruction.getResult(), lhs + rhs);
+        int pc = 0;
+        while (pc < code.length) {
+            final int dst = code[pc + 1];
+            final int a = code[pc + 2];
+            final int b = code[pc + 3];
+            int next = pc + 4;
+            switch (code[pc]) {
+                case MOV_V -> frame[dst] = frame[a];
+                case MOV_I -> frame[dst] = a;
+                case ADD_VV -> frame[dst] = frame[a] + frame[b];
+                case ADD_VI -> frame[dst] = frame[a] + b;
+                case ADD_IV -> frame[dst] = a + frame[b];
+                case ADD_II -> frame[dst] = a + b;
+                case SUB_VV -> frame[dst] = frame[a] - frame[b];
+                case SUB_VI -> frame[dst] = frame[a] - b;
+                case SUB_IV -> frame[dst] = a - frame[b];
+                case SUB_II -> frame[dst] = a - b;
+                case MUL_VV -> frame[dst] = frame[a] * frame[b];
+                case MUL_VI -> frame[dst] = frame[a] * b;
+                case MUL_IV -> frame[dst] = a * frame[b];
+                case MUL_II -> frame[dst] = a * b;
+                case RET_V -> {
+                    return exit(pc, frame[a]);
                 }
-
-                case SUB -> {
-                    final var lhs = eval(instruction.getLHS());
-                    final var rhs = eval(instruction.getRHS());
-                    environment.put(instruction.getResult(), lhs - rhs);
+                case RET_I -> {
+                    return exit(pc, a);
                 }
-
-                case MUL -> {
-                    final var lhs = eval(instruction.getLHS());
-                    final var rhs = eval(instruction.getRHS());
-                    environment.put(instruction.getResult(), lhs * rhs);
+                case RET_NONE -> {
+                    return exit(pc, null);
                 }
-
-                case RET -> this.returnValue = eval(instruction.getReturnValue());
-
-                default -> throw new RuntimeException("Unknown instruction kind: " + instruction.getKind());
+                case TRAP -> throw new RuntimeException("Variable used before assignment: " + trapMessages.get(a));
+                case JMP -> next = a;
+                case BEQZ_V -> next = frame[a] == 0 ? b : next;
+                case BEQZ_I -> next = a == 0 ? b : next;
+                case BGTZ_V -> next = frame[a] > 0 ? b : next;
+                case BGTZ_I -> next = a > 0 ? b : next;
+                case CHECK -> {
+                    if (!defined[a]) {
+                        throw new RuntimeException("Variable used before assignment: " + trapMessages.get(b));
+                    }
+                }
+                case MARK -> defined[dst] = true;
+                case RET_CHECKED -> {
+                    return exit(pc, defined[a] ? frame[a] : null);
+                }
+                default -> throw new RuntimeException("Unknown opcode: " + code[pc]);
             }
+            if (next <= pc && --loops < 0) {
+                throw new RuntimeException(LOOP_LIMIT_MESSAGE);
+            }
+            pc = next;
         }
 
-        return Optional.ofNullable(this.returnValue);
+        return exit(pc, null);
     }
 
+    /**
+     * @param value IR 值
+     * @return 立即数的值, 或变量在执行结束后的值 (未执行或未赋值时为 null)
+     */
     public Integer eval(IRValue value) {
         if (value instanceof IRImmediate immediate) {
             return immediate.getValue();
         } else if (value instanceof IRVariable variable) {
-            return environment.get(variable);
+            final int id = variable.getId();
+            if (!executed || id >= slotOf.length || slotOf[id] < 0) {
+                return null;
+            }
+
+            final int slot = slotOf[id];
+            final boolean assigned = exitAssigned.get(exitPc).get(id) || (tracked.get(id) && defined[slot]);
+            return assigned ? frame[slot] : null;
         } else {
             throw new RuntimeException("Unknown IR value type");
         }
     }
 
+    public static final int DEFAULT_LOOP_LIMIT = 100_000_000;
+
+    //==================== 以下为实现相关代码 ==============================//
+
+    // 与 IRJit 共用, 两者超过上限时的行为相同
+    static final String LOOP_LIMIT_MESSAGE = "Loop limit exceeded";
+
+    // 操作码. 后缀 V 表示操作数为栈帧槽位, I 表示操作数为内联的立即数
+    static final int MOV_V = 0;
+    static final int MOV_I = 1;
+    static final int ADD_VV = 2;
+    static final int ADD_VI = 3;
+    static final int ADD_IV = 4;
+    static final int ADD_II = 5;
+    static final int SUB_VV = 6;
+    static final int SUB_VI = 7;
+    static final int SUB_IV = 8;
+    static final int SUB_II = 9;
+    static final int MUL_VV = 10;
+    static final int MUL_VI = 11;
+    static final int MUL_IV = 12;
+    static final int MUL_II = 13;
+    static final int RET_V = 14;
+    static final int RET_I = 15;
+    static final int RET_NONE = 16; // RET 一个尚未赋值的变量
+    static final int TRAP = 17; // 用尚未赋值的变量参与运算, 执行到此处时抛出异常
+    // 以下为跳转相关的操作码, 跳转目标直接是代码数组中的下标. 只有带控制流的程序才会用到它们
+    static final int JMP = 18; // 跳转到 a
+    static final int BEQZ_V = 19; // a 为 0 时跳转到 b
+    static final int BEQZ_I = 20;
+    static final int BGTZ_V = 21; // a 大于 0 时跳转到 b
+    static final int BGTZ_I = 22;
+    static final int CHECK = 23; // 槽位 a 尚未被赋值时抛出异常, b 为变量名的下标
+    static final int MARK = 24; // 记录槽位 dst 已被赋值
+    static final int RET_CHECKED = 25; // 槽位 a 已被赋值时 RET 它, 否则 RET 空值
+
+    /**
+     * @return 翻译后的代码, 每条指令 4 个 int, 供 IRJit 使用
+     */
+    int[] code() {
+        return code;
+    }
+
+    /**
+     * @return 栈帧的槽位数
+     */
+    int frameSize() {
+        return frame.length;
+    }
+
+    /**
+     * @return TRAP 指令的操作数所指向的变量名
+     */
+    List<String> trapMessages() {
+        return trapMessages;
+    }
+
+    int loopLimit() {
+        return loopLimit;
+    }
+
+    private final int[] code;
+    private final int[] frame;
+    private final List<String> trapMessages = new ArrayList<>();
+
+    // 以 IRVariable 的 id 为下标的槽位编号, 没有出现过的变量为 -1
+    private int[] slotOf;
+    private boolean executed = false;
+    private int loopLimit = DEFAULT_LOOP_LIMIT;
+
+    // 需要在执行时记录是否已被赋值的变量, 以 IRVariable 的 id 为下标; 以槽位为下标, 这些变量在本次执行中是否已被赋值
+    private final BitSet tracked = new BitSet();
+    private final boolean[] defined;
+    // 以 RET 所在的 pc 或代码的末尾为键, 执行从该处结束时一定已被赋值的变量
+    private final Map<Integer, BitSet> exitAssigned = new HashMap<>();
+    private int exitPc;
+
     private IREmulator(List<Instruction> instructions) {
-        this.instructions = instructions;
-        this.environment = new HashMap<>();
-        this.returnValue = null;
+        slotOf = new int[IRVariable.idBound(instructions)];
+        Arrays.fill(slotOf, -1);
+
+        // 直线代码只有入口块可达, 入口处没有变量被赋值, 不必做赋值分析
+        final var graph = ControlFlowGraph.build(instructions);
+        final var analysis = ControlFlowGraph.hasControlFlow(instructions)
+            ? AssignmentAnalysis.analyze(instructions, graph) : null;
+
+        // 第一遍: 找出在被读处或在程序出口处可能但不一定已被赋值的变量, 只有它们需要在执行时记录是否已被赋值.
+        // 直线代码中没有这样的变量
+        for (final var block : graph.blocks()) {
+            if (analysis == null || !graph.isReachable(block.index())) {
+                continue;
+            }
+            final var must = analysis.definitelyAssigned(block.index());
+            final var may = analysis.possiblyAssigned(block.index());
+            for (int i = block.begin(); i < block.end(); i++) {
+                final var instruction = instructions.get(i);
+                for (final var operand : instruction.getOperands()) {
+                    if (operand instanceof IRVariable variable && !must.get(variable.getId()) && may.get(variable.getId())) {
+                        tracked.set(variable.getId());
+                    }
+                }
+                if (instruction.getKind().hasResult()) {
+                    must.set(instruction.getResult().getId());
+                    may.set(instruction.getResult().getId());
+                }
+            }
+            if (isExit(instructions, graph, block)) {
+                may.andNot(must);
+                tracked.or(may);
+            }
+        }
+
+        // 第二遍: 翻译. 不可达的基本块 (比如直线代码中第一条 RET 之后的指令) 直接丢弃, LABEL 不产生代码
+        final var labelPc = new HashMap<IRLabel, Integer>();
+        final var fixups = new HashMap<Integer, IRLabel>();
+        buffer = new int[instructions.size() * 4];
+        BitSet endAssigned = new BitSet();
+        for (final var block : graph.blocks()) {
+            if (!graph.isReachable(block.index())) {
+                continue;
+            }
+            final var must = analysis != null ? analysis.definitelyAssigned(block.index()) : new BitSet();
+            final var may = analysis != null ? analysis.possiblyAssigned(block.index()) : new BitSet();
+            for (int i = block.begin(); i < block.end(); i++) {
+                final var instruction = instructions.get(i);
+                final var kind = instruction.getKind();
+                switch (kind) {
+                    case LABEL -> labelPc.put(instruction.getLabel(), pc);
+                    case JMP -> {
+                        fixups.put(pc + 2, instruction.getLabel());
+                        emit(JMP, 0, 0, 0);
+                    }
+                    case BEQZ, BGTZ -> {
+                        final var condition = instruction.getCondition();
+                        final int a = encodeOperand(condition, must, may);
+                        final int opcode = kind == InstructionKind.BEQZ ? BEQZ_V : BGTZ_V;
+                        fixups.put(pc + 3, instruction.getLabel());
+                        if (unassigned != null) {
+                            emit(TRAP, 0, trap(), 0);
+                        } else {
+                            emit(opcode + (condition.isImmediate() ? 1 : 0), 0, a, 0);
+                        }
+                    }
+                    case RET -> {
+                        exitAssigned.put(pc, (BitSet) must.clone());
+                        // RET 一个尚未赋值的变量不会报错, 只是没有返回值, 所以不经过 encodeOperand
+                        if (instruction.getReturnValue() instanceof IRVariable variable) {
+                            final int id = variable.getId();
+                            final int opcode = must.get(id) ? RET_V : may.get(id) ? RET_CHECKED : RET_NONE;
+                            emit(opcode, 0, slotOf(variable), 0);
+                        } else {
+                            emit(RET_I, 0, ((IRImmediate) instruction.getReturnValue()).getValue(), 0);
+                        }
+                    }
+                    default -> {
+                        final var operands = instruction.getOperands();
+                        // 操作数: 立即数直接内联, 变量换成槽位编号; mode 的两位分别表示左右操作数是否为立即数
+                        final int a;
+                        int b = 0;
+                        final int mode;
+                        if (operands.size() == 1) {
+                            a = encodeOperand(operands.get(0), must, may);
+                            mode = operands.get(0).isImmediate() ? 1 : 0;
+                        } else {
+                            a = encodeOperand(operands.get(0), must, may);
+                            b = encodeOperand(operands.get(1), must, may);
+                            mode = (operands.get(0).isImmediate() ? 2 : 0) + (operands.get(1).isImmediate() ? 1 : 0);
+                        }
+                        final int opcode = switch (kind) {
+                            case MOV -> MOV_V + mode;
+                            case ADD -> ADD_VV + mode;
+                            case SUB -> SUB_VV + mode;
+                            case MUL -> MUL_VV + mode;
+                            default -> throw new RuntimeException("Unknown instruction kind: " + kind);
+                        };
+
+                        // TRAP 在执行时直接抛出异常, 不会真的给结果赋值, 但之后的指令也不会再被执行了
+                        final var result = instruction.getResult();
+                        final int dst = slotOf(result);
+                        if (unassigned != null) {
+                            emit(TRAP, dst, trap(), b);
+                        } else {
+                            emit(opcode, dst, a, b);
+                            if (tracked.get(result.getId())) {
+                                emit(MARK, dst, 0, 0);
+                            }
+                        }
+                    }
+                }
+
+                if (kind.hasResult()) {
+                    must.set(instruction.getResult().getId());
+                    may.set(instruction.getResult().getId());
+                }
+            }
+            if (isExit(instructions, graph, block)) {
+                endAssigned = must;
+            }
+        }
+
+        for (final var fixup : fixups.entrySet()) {
+            buffer[fixup.getKey()] = labelPc.get(fixup.getValue());
+        }
+        exitAssigned.put(pc, endAssigned);
+        this.code = pc == buffer.length ? buffer : Arrays.copyOf(buffer, pc);
+        this.frame = new int[slotCount];
+        this.defined = new boolean[tracked.isEmpty() ? 0 : slotCount];
+    }
+
+    // 翻译中的代码与下一条指令的位置
+    private int[] buffer;
+    private int pc = 0;
+    private int slotCount = 0;
+    private String unassigned; // 翻译时当前指令中一定尚未被赋值的变量
+
+    private Optional<Integer> exit(int pc, Integer value) {
+        executed = true;
+        exitPc = pc;
+        return Optional.ofNullable(value);
+    }
+
+    /**
+     * @return 执行是否可能从该基本块的末尾落到代码之外, 即程序末尾没有 RET 的情况
+     */
+    private static boolean isExit(List<Instruction> instructions, ControlFlowGraph graph, ControlFlowGraph.BasicBlock block) {
+        return block.index() == graph.blocks().size() - 1 && !instructions.get(block.end() - 1).getKind().isTerminator();
     }
 
-    private final List<Instruction> instructions;
-    private final Map<IRVariable, Integer> environment;
-    private Integer returnValue;
+    private void emit(int opcode, int dst, int a, int b) {
+        if (pc + 4 > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(16, buffer.length * 2));
+        }
+        buffer[pc] = opcode;
+        buffer[pc + 1] = dst;
+        buffer[pc + 2] = a;
+        buffer[pc + 3] = b;
+        pc += 4;
+    }
+
+    /**
+     * @return 当前指令的 TRAP 所报告的变量名的下标
+     */
+    private int trap() {
+        trapMessages.add(unassigned);
+        unassigned = null;
+        return trapMessages.size() - 1;
+    }
+
+    /**
+     * 把操作数编码为立即数或槽位. 变量一定尚未被赋值时记下其变量名, 当前指令将被翻译为 TRAP;
+     * 可能尚未被赋值时先生成一条 CHECK
+     */
+    private int encodeOperand(IRValue operand, BitSet must, BitSet may) {
+        if (operand instanceof IRImmediate immediate) {
+            return immediate.getValue();
+        } else if (operand instanceof IRVariable variable) {
+            final int slot = slotOf(variable);
+            final int id = variable.getId();
+            if (!must.get(id) && unassigned == null) {
+                if (may.get(id)) {
+                    emit(CHECK, 0, slot, trapMessages.size());
+                    trapMessages.add(variable.getName());
+                } else {
+                    unassigned = variable.getName();
+                }
+            }
+            return slot;
+        } else {
+            throw new RuntimeException("Unknown IR value type");
+        }
+    }
+
+    /**
+     * @return 变量的槽位, 若变量还没有槽位则为其分配一个新的
+     */
+    private int slotOf(IRVariable variable) {
+        final int id = variable.getId();
+        if (id >= slotOf.length) {
+            final int oldLength = slotOf.length;
+            slotOf = Arrays.copyOf(slotOf, Math.max(id + 1, oldLength * 2));
+            Arrays.fill(slotOf, oldLength, slotOf.length, -1);
+        }
+
+        if (slotOf[id] < 0) {
+            slotOf[id] = slotCount++;
+        }
+        return slotOf[id];
+    }
 }
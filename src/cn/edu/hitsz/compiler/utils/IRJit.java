@@ -0,0 +1,1097 @@
+package cn.edu.hitsz.compiler.utils;
+
+import cn.edu.hitsz.compiler.ir.Instruction;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * 把 IR 编译成 JVM 字节码来模拟执行的后端
+ * <br>
+ * 在 IREmulator 翻译出的 int[] 代码的基础上, 为每段 IR 生成一个隐藏类 (见 {@link MethodHandles.Lookup#defineHiddenClass}),
+ * 由 JVM 自己的 JIT 像优化普通 Java 方法一样优化我们的程序:
+ * <ul>
+ *     <li>HotSpot 不会编译字节码超过 8000 字节的方法, 所以 IR 被切成若干段, 每段生成一个静态方法 {@code void chunkN(int[] frame)}</li>
+ *     <li>段内每个用到的栈帧槽位对应一个 int 局部变量: 段开头从 frame 读入段内先读后写的槽位, 段末尾把段内写过的槽位写回 frame</li>
+ *     <li>每条 IR 指令对应几条 iload/iadd/istore 之类的字节码, 立即数直接作为常量</li>
+ *     <li>入口方法 {@code long run(int loopLimit)} 创建 frame 并依次调用各段. 返回值的高 32 位为 1 表示有返回值, 低 32 位为返回值</li>
+ *     <li>带跳转的程序在基本块的边界处分段, 每段生成 {@code int chunkN(int[] frame, int entry)}, 从给定的入口开始执行,
+ *     跳出段时返回下一个入口的编号; run 循环地调用入口所在的段. 跳转目标处带有 StackMapTable 帧.
+ *     向回跳转的剩余次数与槽位一样存放在 frame 中, 与 IREmulator 一样在每次向回跳转时减一</li>
+ * </ul>
+ * 生成的类以翻译后的代码为指纹缓存在进程内, 反复模拟同一段 IR 时只有第一次需要生成与加载类.
+ * 缓存按最近最少使用淘汰, 只保留有限个类.
+ * <br>
+ * IREmulator 仍然是参考实现: 大到无法放进一个类文件的程序退回 IREmulator 执行
+ * (见 {@link #isCompiled()}), 而 {@code --emulator=check} 会把两者的结果相互比对.
+ */
+public class IRJit {
+    public static IRJit load(List<Instruction> instructions) {
+        return new IRJit(IREmulator.load(instructions));
+    }
+
+    /**
+     * @param loopLimit 执行中向回跳转的次数的上限, 见 {@link IREmulator#withLoopLimit}
+     * @return this
+     */
+    public IRJit withLoopLimit(int loopLimit) {
+        interpreter.withLoopLimit(loopLimit);
+        return this;
+    }
+
+    public Optional<Integer> execute() {
+        if (handle == null) {
+            return interpreter.execute();
+        }
+
+        final long result;
+        try {
+            result = (long) handle.invokeExact(interpreter.loopLimit());
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new RuntimeException("Failed to run compiled IR", e);
+        }
+
+        return (result >>> 32) != 0 ? Optional.of((int) result) : Optional.empty();
+    }
+
+    /**
+     * @return 该程序是否真的被编译成了字节码 (而不是退回解释执行)
+     */
+    public boolean isCompiled() {
+        return handle != null;
+    }
+
+    //==================== 以下为实现相关代码 ==============================//
+
+    private static final String CLASS_NAME = "cn/edu/hitsz/compiler/utils/CompiledIR";
+    // 缓存的类数的上限. 被淘汰的隐藏类不再被引用后可以被卸载, 常驻的编译服务中缓存不会无限增长
+    private static final int CACHE_CAPACITY = 256;
+    private static final Map<Fingerprint, Optional<MethodHandle>> CACHE = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Fingerprint, Optional<MethodHandle>> eldest) {
+            return size() > CACHE_CAPACITY;
+        }
+    };
+
+    private final IREmulator interpreter;
+    private final MethodHandle handle;
+
+    private IRJit(IREmulator interpreter) {
+        this.interpreter = interpreter;
+        final var fingerprint = new Fingerprint(interpreter.code(), interpreter.frameSize(), interpreter.trapMessages());
+        this.handle = cached(fingerprint).orElse(null);
+    }
+
+    /**
+     * 在缓存中查找生成的类, 没有时生成并放入缓存. 生成在锁外进行, 并发生成同一段 IR 时只是多做一次
+     */
+    private static Optional<MethodHandle> cached(Fingerprint fingerprint) {
+        synchronized (CACHE) {
+            final var handle = CACHE.get(fingerprint);
+            if (handle != null) {
+                return handle;
+            }
+        }
+
+        final var handle = compile(fingerprint);
+        synchronized (CACHE) {
+            CACHE.put(fingerprint, handle);
+        }
+        return handle;
+    }
+
+    /**
+     * 翻译后的代码, 栈帧大小与 TRAP 的变量名一起唯一确定了生成的类
+     */
+    private static final class Fingerprint {
+        private final int[] code;
+        private final int frameSize;
+        private final List<String> trapMessages;
+        private final int hash;
+
+        private Fingerprint(int[] code, int frameSize, List<String> trapMessages) {
+            this.code = code;
+            this.frameSize = frameSize;
+            this.trapMessages = List.copyOf(trapMessages);
+            this.hash = (Arrays.hashCode(code) * 31 + frameSize) * 31 + this.trapMessages.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Fingerprint other && other.hash == hash && other.frameSize == frameSize
+                && Arrays.equals(other.code, code) && other.trapMessages.equals(trapMessages);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * @return 生成的类中 run 方法的句柄, 程序过大时为空
+     */
+    private static Optional<MethodHandle> compile(Fingerprint fingerprint) {
+        final var classFile = new ClassFileWriter(fingerprint.frameSize);
+        if (!classFile.emitProgram(fingerprint.code, fingerprint.trapMessages)) {
+            return Optional.empty();
+        }
+
+        try {
+            final var lookup = MethodHandles.lookup().defineHiddenClass(classFile.toByteArray(), true);
+            return Optional.of(lookup.findStatic(lookup.lookupClass(), "run", MethodType.methodType(long.class, int.class)));
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException("Failed to define compiled IR class", e);
+        }
+    }
+
+    /**
+     * 只够写出 "若干个方法体为直线代码的静态方法, 或若干个除 frame 外所有局部变量都是 int 的带跳转的静态方法" 的类的最小
+     * class 文件生成器. 直线代码不需要 StackMapTable.
+     */
+    private static final class ClassFileWriter {
+        // 用到的 JVM 指令
+        private static final int ICONST_0 = 0x03;
+        private static final int LCONST_0 = 0x09;
+        private static final int BIPUSH = 0x10;
+        private static final int SIPUSH = 0x11;
+        private static final int LDC = 0x12;
+        private static final int LDC_W = 0x13;
+        private static final int LDC2_W = 0x14;
+        private static final int ILOAD = 0x15;
+        private static final int ALOAD_0 = 0x2a;
+        private static final int IALOAD = 0x2e;
+        private static final int ISTORE = 0x36;
+        private static final int ASTORE_0 = 0x4b;
+        private static final int IASTORE = 0x4f;
+        private static final int DUP = 0x59;
+        private static final int IADD = 0x60;
+        private static final int ISUB = 0x64;
+        private static final int IMUL = 0x68;
+        private static final int LAND = 0x7f;
+        private static final int LOR = 0x81;
+        private static final int I2L = 0x85;
+        private static final int LRETURN = 0xad;
+        private static final int RETURN = 0xb1;
+        private static final int INVOKESTATIC = 0xb8;
+        private static final int INVOKESPECIAL = 0xb7;
+        private static final int NEW = 0xbb;
+        private static final int NEWARRAY = 0xbc;
+        private static final int T_INT = 10;
+        private static final int ATHROW = 0xbf;
+        private static final int IFEQ = 0x99;
+        private static final int IFNE = 0x9a;
+        private static final int IFGE = 0x9c;
+        private static final int IFGT = 0x9d;
+        private static final int IFLE = 0x9e;
+        private static final int IF_ICMPNE = 0xa0;
+        private static final int GOTO = 0xa7;
+        private static final int TABLESWITCH = 0xaa;
+        private static final int IRETURN = 0xac;
+        private static final int WIDE = 0xc4;
+
+        // 每段的字节码预算, 留出余量使加上首尾的读写之后仍在 HotSpot 的 8000 字节限制 (HugeMethodLimit) 之内
+        private static final int CHUNK_BUDGET = 6000;
+        private static final int MAX_CODE_LENGTH = 65535;
+        private static final int MAX_COUNT = 65535;
+
+        // 带跳转的程序中段的返回值: 非负数为下一个入口的编号, 负数表示程序返回了
+        private static final int RETURN_VALUE = -1;
+        private static final int RETURN_NONE = -2;
+
+        private final ByteArrayOutputStream constantPool = new ByteArrayOutputStream();
+        private final Map<String, Integer> constantIndex = new HashMap<>();
+        private int constantCount = 1; // 常量池下标从 1 开始
+
+        private final List<byte[]> methods = new ArrayList<>();
+        private final int frameSize;
+        private final int returnSlot;
+
+        // 当前正在生成的段: 段内字节码, 槽位到局部变量的映射 (局部变量 0 为 frame), 段内先读后写与写过的槽位
+        private ByteArrayOutputStream code;
+        private int firstLocal;
+        private final Map<Integer, Integer> localOf = new LinkedHashMap<>();
+        private final List<Integer> liveIn = new ArrayList<>();
+        private final Set<Integer> written = new LinkedHashSet<>();
+        // 带跳转的段: 跳转指令的位置与目标, 跳出段的 goto 的位置, 需要 StackMapTable 帧的位置
+        private final List<int[]> jumps = new ArrayList<>();
+        private final List<Integer> exits = new ArrayList<>();
+        private final Set<Integer> frames = new TreeSet<>();
+
+        private ClassFileWriter(int frameSize) {
+            this.frameSize = frameSize;
+            this.returnSlot = frameSize;
+        }
+
+        /**
+         * 生成所有段以及入口方法
+         *
+         * @return 程序是否能放进一个类文件
+         */
+        private boolean emitProgram(int[] program, List<String> trapMessages) {
+            for (int pc = 0; pc < program.length; pc += 4) {
+                if (program[pc] >= IREmulator.JMP) {
+                    // 段是按顺序调用的, 带跳转的程序放不进这个结构
+                    return emitBranchingProgram(program, trapMessages)
+                        && methods.size() <= MAX_COUNT && constantCount <= MAX_COUNT;
+                }
+            }
+
+            final var chunkNames = new ArrayList<String>();
+            boolean hasReturn = false;
+            boolean trapped = false;
+
+            beginChunk(1);
+            for (int pc = 0; pc < program.length && !trapped; pc += 4) {
+                final int opcode = program[pc];
+                final int dst = program[pc + 1];
+                final int a = program[pc + 2];
+                final int b = program[pc + 3];
+                if (opcode <= IREmulator.MUL_II) {
+                    emitArithmetic(opcode, dst, a, b);
+                } else {
+                    switch (opcode) {
+                        case IREmulator.RET_V -> {
+                            emitLoad(a);
+                            emitStore(returnSlot);
+                            hasReturn = true;
+                        }
+                        case IREmulator.RET_I -> {
+                            emitConstant(code, a);
+                            emitStore(returnSlot);
+                            hasReturn = true;
+                        }
+                        case IREmulator.RET_NONE -> hasReturn = false;
+                        case IREmulator.TRAP -> {
+                            emitTrap(trapMessages.get(a));
+                            // 之后的代码都不可达
+                            trapped = true;
+                        }
+                        default -> throw new RuntimeException("Unknown opcode: " + opcode);
+                    }
+                }
+
+                if (trapped) {
+                    break;
+                }
+
+                // 每个槽位的首尾读写至多 7 字节
+                if (code.size() + 7 * localOf.size() > CHUNK_BUDGET) {
+                    chunkNames.add(endChunk(chunkNames.size(), false));
+                    beginChunk(1);
+                }
+            }
+            chunkNames.add(endChunk(chunkNames.size(), trapped));
+
+            return emitRun(chunkNames, hasReturn && !trapped)
+                && methods.size() <= MAX_COUNT && constantCount <= MAX_COUNT;
+        }
+
+        /**
+         * 入口方法: 创建 frame, 依次调用各段, 最后读出返回值. 直线代码没有向回的跳转, 不需要参数中的次数上限
+         */
+        private boolean emitRun(List<String> chunkNames, boolean hasReturn) {
+            final var run = new ByteArrayOutputStream();
+            emitConstant(run, frameSize + 1);
+            run.write(NEWARRAY);
+            run.write(T_INT);
+            run.write(ASTORE_0);
+            for (final var name : chunkNames) {
+                run.write(ALOAD_0);
+                run.write(INVOKESTATIC);
+                writeShort(run, methodConstant(CLASS_NAME, name, "([I)V"));
+            }
+
+            if (hasReturn) {
+                run.write(ALOAD_0);
+                emitConstant(run, returnSlot);
+                run.write(IALOAD);
+            }
+            emitResult(run, hasReturn);
+
+            if (run.size() > MAX_CODE_LENGTH) {
+                return false;
+            }
+            methods.add(method("run", "(I)J", 4, 1, run));
+            return true;
+        }
+
+        /**
+         * 返回 run 方法的结果
+         *
+         * @param hasValue 是否有返回值, 有返回值时返回值已在操作数栈顶
+         */
+        private void emitResult(ByteArrayOutputStream out, boolean hasValue) {
+            if (hasValue) {
+                // (1L << 32) | (返回值 & 0xFFFFFFFFL)
+                out.write(I2L);
+                out.write(LDC2_W);
+                writeShort(out, longConstant(0xFFFFFFFFL));
+                out.write(LAND);
+                out.write(LDC2_W);
+                writeShort(out, longConstant(1L << 32));
+                out.write(LOR);
+            } else {
+                out.write(LCONST_0);
+            }
+            out.write(LRETURN);
+        }
+
+        /**
+         * 带跳转的程序在基本块的边界处分段, 每段生成一个静态方法 {@code int chunkN(int[] frame, int entry)}:
+         * <ul>
+         *     <li>入口是程序开头, 每个跳转目标与每段的开头, 按位置顺序编号. 段开头从 frame 读入段内用到的所有槽位,
+         *     再按 entry 跳到对应的入口</li>
+         *     <li>段内的跳转直接跳转; 跳出段时 (包括顺序执行到下一段) 把段内写过的槽位写回 frame, 返回目标的入口编号</li>
+         *     <li>返回时把返回值写入 frame, 返回 {@link #RETURN_VALUE} 或 {@link #RETURN_NONE}</li>
+         *     <li>需要记录是否已被赋值时, 每个槽位的标志也存放在 frame 中, 与槽位一样读写</li>
+         * </ul>
+         * 入口方法 run 循环地按入口编号调用对应的段, 直到段返回负数. 段内的局部变量在方法开头都已被初始化,
+         * 之后的每一处局部变量的类型都相同, 所以 StackMapTable 中所有的帧都相同, 只有位置不同.
+         *
+         * @return 程序是否能放进一个类文件
+         */
+        private boolean emitBranchingProgram(int[] program, List<String> trapMessages) {
+            final int count = program.length / 4;
+            final var isTarget = new boolean[count + 1];
+            for (int pc = 0; pc < program.length; pc += 4) {
+                switch (program[pc]) {
+                    case IREmulator.JMP -> isTarget[program[pc + 2] / 4] = true;
+                    case IREmulator.BEQZ_V, IREmulator.BEQZ_I, IREmulator.BGTZ_V, IREmulator.BGTZ_I ->
+                        isTarget[program[pc + 3] / 4] = true;
+                    default -> {
+                    }
+                }
+            }
+
+            // 先试着生成一遍来分段: 跳到当前指令之后的跳转都按跳出段估计, 每个入口在 tableswitch 中占 4 字节
+            final var starts = new ArrayList<Integer>();
+            starts.add(0);
+            beginChunk(2);
+            int entries = 1;
+            for (int pc = 0; pc < program.length; pc += 4) {
+                if (isTarget[pc / 4] && pc != starts.get(starts.size() - 1)) {
+                    entries++;
+                }
+                emitBranchingInstruction(program, pc, trapMessages, starts.get(starts.size() - 1), pc + 4, null);
+                // 段开头的读入与段末尾的写回每个槽位至多 9 字节
+                if (code.size() + 18 * localOf.size() + 4 * entries > CHUNK_BUDGET && pc + 4 < program.length) {
+                    starts.add(pc + 4);
+                    beginChunk(2);
+                    entries = 1;
+                }
+            }
+            starts.add(program.length);
+
+            // 每条指令 (以及代码末尾) 的入口编号, 不是入口的为 -1, 代码末尾相当于返回空值
+            final int[] entryOf = new int[count + 1];
+            Arrays.fill(entryOf, -1);
+            final int[] firstEntry = new int[starts.size()];
+            int entryCount = 0;
+            for (int chunk = 0; chunk + 1 < starts.size(); chunk++) {
+                firstEntry[chunk] = entryCount;
+                for (int pc = starts.get(chunk); pc < starts.get(chunk + 1); pc += 4) {
+                    if (pc == starts.get(chunk) || isTarget[pc / 4]) {
+                        entryOf[pc / 4] = entryCount++;
+                    }
+                }
+            }
+            firstEntry[starts.size() - 1] = entryCount;
+            entryOf[count] = RETURN_NONE;
+
+            for (int chunk = 0; chunk + 1 < starts.size(); chunk++) {
+                if (!emitBranchingChunk(program, trapMessages, chunk, starts.get(chunk), starts.get(chunk + 1), entryOf)) {
+                    return false;
+                }
+            }
+            return emitDispatchingRun(firstEntry);
+        }
+
+        /**
+         * 生成一段 [start, end) 的方法
+         *
+         * @return 段是否能放进一个方法
+         */
+        private boolean emitBranchingChunk(int[] program, List<String> trapMessages, int index, int start, int end,
+                                           int[] entryOf) {
+            beginChunk(2);
+            final int[] offsetOf = new int[(end - start) / 4];
+            boolean fallsThrough = true;
+            for (int pc = start; pc < end; pc += 4) {
+                offsetOf[(pc - start) / 4] = code.size();
+                fallsThrough = emitBranchingInstruction(program, pc, trapMessages, start, end, entryOf);
+            }
+            if (fallsThrough) {
+                emitExit(entryOf[end / 4]);
+            }
+
+            // 跳出段的代码都跳到末尾的写回
+            final int writeBack = code.size();
+            frames.add(writeBack);
+            for (final int slot : written) {
+                code.write(ALOAD_0);
+                emitConstant(code, slot);
+                emitLocal(code, ILOAD, localOf.get(slot));
+                code.write(IASTORE);
+            }
+            emitLocal(code, ILOAD, 1);
+            code.write(IRETURN);
+
+            // 回填跳转的偏移, 跳转目标处都需要帧. 目标为负数 -1 - x 时表示字节码位置 x, 否则是 IR 的 pc
+            final byte[] body = code.toByteArray();
+            for (final int[] jump : jumps) {
+                final int target = jump[1] < 0 ? -1 - jump[1] : offsetOf[(jump[1] - start) / 4];
+                patchShort(body, jump[0] + 1, target - jump[0]);
+                frames.add(target);
+            }
+            for (final int exit : exits) {
+                patchShort(body, exit + 1, writeBack - exit);
+            }
+
+            // 开头读入所有槽位, 再按入口编号跳转
+            final var header = new ByteArrayOutputStream();
+            for (final var entry : localOf.entrySet()) {
+                header.write(ALOAD_0);
+                emitConstant(header, entry.getKey());
+                header.write(IALOAD);
+                emitLocal(header, ISTORE, entry.getValue());
+            }
+            emitLocal(header, ILOAD, 1);
+            final var targets = new ArrayList<Integer>();
+            for (int pc = start; pc < end; pc += 4) {
+                if (entryOf[pc / 4] >= 0) {
+                    targets.add(offsetOf[(pc - start) / 4]);
+                }
+            }
+            final int switchAt = header.size();
+            final int headerLength = switchAt + 1 + (3 - switchAt % 4) + 12 + 4 * targets.size();
+            header.write(TABLESWITCH);
+            for (int i = 0; i < 3 - switchAt % 4; i++) {
+                header.write(0);
+            }
+            writeInt(header, headerLength + targets.get(0) - switchAt);
+            writeInt(header, entryOf[start / 4]);
+            writeInt(header, entryOf[start / 4] + targets.size() - 1);
+            for (final int target : targets) {
+                writeInt(header, headerLength + target - switchAt);
+                frames.add(target);
+            }
+
+            if (headerLength + body.length > MAX_CODE_LENGTH || localOf.size() + 2 > MAX_COUNT) {
+                return false;
+            }
+            header.writeBytes(body);
+            final var shifted = new TreeSet<Integer>();
+            for (final int frame : frames) {
+                shifted.add(headerLength + frame);
+            }
+            methods.add(method("chunk" + index, "([II)I", 4, localOf.size() + 2, header,
+                stackMapTable(shifted, localOf.size() + 2)));
+            return true;
+        }
+
+        /**
+         * 生成一条带跳转的程序中的 IR 指令. 跳转目标在 [start, end) 内时直接跳转, 否则跳出段
+         *
+         * @param entryOf 每条指令的入口编号, 为 null 时 (分段时的估计) 跳出段的代码按最长的算
+         * @return 执行完这条指令后是否可能顺序执行下一条
+         */
+        private boolean emitBranchingInstruction(int[] program, int pc, List<String> trapMessages, int start, int end,
+                                                 int[] entryOf) {
+            final int opcode = program[pc];
+            final int dst = program[pc + 1];
+            final int a = program[pc + 2];
+            final int b = program[pc + 3];
+            if (opcode <= IREmulator.MUL_II) {
+                emitArithmetic(opcode, dst, a, b);
+                return true;
+            }
+
+            switch (opcode) {
+                case IREmulator.RET_V -> {
+                    emitLoad(a);
+                    emitStore(returnSlot);
+                    emitExit(RETURN_VALUE);
+                }
+                case IREmulator.RET_I -> {
+                    emitConstant(code, a);
+                    emitStore(returnSlot);
+                    emitExit(RETURN_VALUE);
+                }
+                case IREmulator.RET_NONE -> emitExit(RETURN_NONE);
+                case IREmulator.RET_CHECKED -> {
+                    // 标志为 0 (变量未赋值) 时返回空值
+                    emitLoad(flagOf(a));
+                    final int skip = code.size();
+                    code.write(IFEQ);
+                    writeShort(code, 0);
+                    emitLoad(a);
+                    emitStore(returnSlot);
+                    emitExit(RETURN_VALUE);
+                    jumps.add(new int[] {skip, -1 - code.size()});
+                    emitExit(RETURN_NONE);
+                }
+                case IREmulator.TRAP -> emitTrap(trapMessages.get(a));
+                case IREmulator.JMP -> emitJump(GOTO, pc, a, start, end, entryOf);
+                case IREmulator.BEQZ_V, IREmulator.BGTZ_V -> {
+                    emitLoad(a);
+                    emitJump(opcode == IREmulator.BEQZ_V ? IFEQ : IFGT, pc, b, start, end, entryOf);
+                    return true;
+                }
+                case IREmulator.BEQZ_I, IREmulator.BGTZ_I -> {
+                    // 条件是常量, 要么总是跳转, 要么什么都不做
+                    if (opcode == IREmulator.BEQZ_I ? a == 0 : a > 0) {
+                        emitJump(GOTO, pc, b, start, end, entryOf);
+                    } else {
+                        return true;
+                    }
+                }
+                case IREmulator.CHECK -> {
+                    // 标志不为 0 时跳过抛出异常的代码
+                    emitLoad(flagOf(a));
+                    final int skip = code.size();
+                    code.write(IFNE);
+                    writeShort(code, 0);
+                    emitTrap(trapMessages.get(b));
+                    jumps.add(new int[] {skip, -1 - code.size()});
+                    return true;
+                }
+                case IREmulator.MARK -> {
+                    code.write(ICONST_0 + 1);
+                    emitStore(flagOf(dst));
+                    return true;
+                }
+                default -> throw new RuntimeException("Unknown opcode: " + opcode);
+            }
+
+            // 以上都以无条件的跳转, 返回或抛出异常结束, 紧随其后的代码只能经由跳转到达
+            frames.add(code.size());
+            return false;
+        }
+
+        /**
+         * @param pc     跳转指令的 pc
+         * @param target 跳转目标的 pc
+         */
+        private void emitJump(int opcode, int pc, int target, int start, int end, int[] entryOf) {
+            if (target <= pc && opcode != GOTO) {
+                // 向回的条件跳转: 条件不成立时跳过计数与跳转
+                final int skip = code.size();
+                code.write(opcode == IFEQ ? IFNE : IFLE);
+                writeShort(code, 0);
+                emitJump(GOTO, pc, target, start, end, entryOf);
+                jumps.add(new int[] {skip, -1 - code.size()});
+                return;
+            }
+            if (target <= pc) {
+                // 剩余次数减一, 减到负数时抛出异常
+                emitLoad(loopSlot());
+                code.write(ICONST_0 + 1);
+                code.write(ISUB);
+                emitStore(loopSlot());
+                emitLoad(loopSlot());
+                final int skip = code.size();
+                code.write(IFGE);
+                writeShort(code, 0);
+                emitThrow(IREmulator.LOOP_LIMIT_MESSAGE);
+                jumps.add(new int[] {skip, -1 - code.size()});
+            }
+
+            if (target >= start && target < end) {
+                jumps.add(new int[] {code.size(), target});
+                code.write(opcode);
+                writeShort(code, 0);
+                return;
+            }
+
+            final int exit = entryOf != null ? entryOf[target / 4] : Short.MAX_VALUE;
+            if (opcode == GOTO) {
+                emitExit(exit);
+                return;
+            }
+            // 条件跳转到段外: 条件不成立时跳过跳出段的代码
+            final int skip = code.size();
+            code.write(opcode == IFEQ ? IFNE : IFLE);
+            writeShort(code, 0);
+            emitExit(exit);
+            jumps.add(new int[] {skip, -1 - code.size()});
+        }
+
+        /**
+         * 跳出段: 把段的返回值放进局部变量 1, 跳到段末尾的写回
+         */
+        private void emitExit(int result) {
+            emitConstant(code, result);
+            emitLocal(code, ISTORE, 1);
+            exits.add(code.size());
+            code.write(GOTO);
+            writeShort(code, 0);
+        }
+
+        /**
+         * @return 槽位的标志在 frame 中的位置, 在所有槽位与返回值之后
+         */
+        private int flagOf(int slot) {
+            return frameSize + 1 + slot;
+        }
+
+        /**
+         * @return 向回跳转的剩余次数在 frame 中的位置, 在所有标志之后
+         */
+        private int loopSlot() {
+            return 2 * frameSize + 1;
+        }
+
+        /**
+         * 带跳转的程序的入口方法: 创建 frame 并放入向回跳转的次数上限, 从入口 0 开始循环调用入口所在的段, 直到段返回负数, 最后读出返回值
+         *
+         * @param firstEntry 每段的第一个入口编号, 最后一个元素为入口总数
+         */
+        private boolean emitDispatchingRun(int[] firstEntry) {
+            final int chunkCount = firstEntry.length - 1;
+            final var run = new ByteArrayOutputStream();
+            emitConstant(run, 2 * frameSize + 2);
+            run.write(NEWARRAY);
+            run.write(T_INT);
+            run.write(DUP);
+            emitConstant(run, loopSlot());
+            emitLocal(run, ILOAD, 0);
+            run.write(IASTORE);
+            run.write(ASTORE_0);
+            run.write(ICONST_0);
+            emitLocal(run, ISTORE, 1);
+
+            final var offsets = new TreeSet<Integer>();
+            final int loop = run.size();
+            offsets.add(loop);
+            emitLocal(run, ILOAD, 1);
+            final int switchAt = run.size();
+            final int switchLength = 1 + (3 - switchAt % 4) + 12 + 4 * firstEntry[chunkCount];
+            // 每段的调用: aload_0, iload_1, invokestatic, istore_1, goto
+            final int callLength = 9;
+            final int end = switchAt + switchLength + callLength * chunkCount;
+            run.write(TABLESWITCH);
+            for (int i = 0; i < 3 - switchAt % 4; i++) {
+                run.write(0);
+            }
+            writeInt(run, end - switchAt);
+            writeInt(run, 0);
+            writeInt(run, firstEntry[chunkCount] - 1);
+            for (int chunk = 0; chunk < chunkCount; chunk++) {
+                for (int entry = firstEntry[chunk]; entry < firstEntry[chunk + 1]; entry++) {
+                    writeInt(run, switchLength + callLength * chunk);
+                }
+            }
+            for (int chunk = 0; chunk < chunkCount; chunk++) {
+                offsets.add(run.size());
+                run.write(ALOAD_0);
+                emitLocal(run, ILOAD, 1);
+                run.write(INVOKESTATIC);
+                writeShort(run, methodConstant(CLASS_NAME, "chunk" + chunk, "([II)I"));
+                emitLocal(run, ISTORE, 1);
+                run.write(GOTO);
+                writeShort(run, loop - (run.size() - 1));
+            }
+
+            // 段返回负数时程序结束
+            offsets.add(run.size());
+            emitLocal(run, ILOAD, 1);
+            emitConstant(run, RETURN_VALUE);
+            final int skip = run.size();
+            run.write(IF_ICMPNE);
+            writeShort(run, 0);
+            run.write(ALOAD_0);
+            emitConstant(run, returnSlot);
+            run.write(IALOAD);
+            emitResult(run, true);
+            final int none = run.size();
+            offsets.add(none);
+            emitResult(run, false);
+
+            final byte[] body = run.toByteArray();
+            patchShort(body, skip + 1, none - skip);
+            if (body.length > MAX_CODE_LENGTH) {
+                return false;
+            }
+            final var patched = new ByteArrayOutputStream();
+            patched.writeBytes(body);
+            methods.add(method("run", "(I)J", 4, 2, patched, stackMapTable(offsets, 2)));
+            return true;
+        }
+
+        /**
+         * 第一帧写出全部局部变量 (局部变量 0 为 frame, 其余都是 int), 之后的帧与前一帧相同 (same_frame), 只记录位置的增量
+         *
+         * @param offsets 需要帧的字节码位置
+         */
+        private byte[] stackMapTable(Set<Integer> offsets, int localCount) {
+            final var bytes = new ByteArrayOutputStream();
+            writeShort(bytes, offsets.size());
+            int previous = -1;
+            for (final int offset : offsets) {
+                final int delta = offset - previous - 1;
+                if (previous < 0) {
+                    bytes.write(255); // full_frame
+                    writeShort(bytes, delta);
+                    writeShort(bytes, localCount);
+                    bytes.write(7); // ITEM_Object
+                    writeShort(bytes, classConstant("[I"));
+                    for (int i = 1; i < localCount; i++) {
+                        bytes.write(1); // ITEM_Integer
+                    }
+                    writeShort(bytes, 0);
+                } else if (delta < 64) {
+                    bytes.write(delta); // same_frame
+                } else {
+                    bytes.write(251); // same_frame_extended
+                    writeShort(bytes, delta);
+                }
+                previous = offset;
+            }
+            return bytes.toByteArray();
+        }
+
+        /**
+         * MOV, ADD, SUB 与 MUL: 压入操作数, 运算, 写入结果
+         */
+        private void emitArithmetic(int opcode, int dst, int a, int b) {
+            switch (opcode) {
+                case IREmulator.MOV_V -> emitLoad(a);
+                case IREmulator.MOV_I -> emitConstant(code, a);
+                case IREmulator.ADD_VV, IREmulator.SUB_VV, IREmulator.MUL_VV -> {
+                    emitLoad(a);
+                    emitLoad(b);
+                }
+                case IREmulator.ADD_VI, IREmulator.SUB_VI, IREmulator.MUL_VI -> {
+                    emitLoad(a);
+                    emitConstant(code, b);
+                }
+                case IREmulator.ADD_IV, IREmulator.SUB_IV, IREmulator.MUL_IV -> {
+                    emitConstant(code, a);
+                    emitLoad(b);
+                }
+                case IREmulator.ADD_II, IREmulator.SUB_II, IREmulator.MUL_II -> {
+                    emitConstant(code, a);
+                    emitConstant(code, b);
+                }
+                default -> throw new RuntimeException("Unknown opcode: " + opcode);
+            }
+
+            if (opcode >= IREmulator.ADD_VV && opcode <= IREmulator.ADD_II) {
+                code.write(IADD);
+            } else if (opcode >= IREmulator.SUB_VV && opcode <= IREmulator.SUB_II) {
+                code.write(ISUB);
+            } else if (opcode >= IREmulator.MUL_VV && opcode <= IREmulator.MUL_II) {
+                code.write(IMUL);
+            }
+            emitStore(dst);
+        }
+
+        /**
+         * 抛出与 IREmulator 相同的 "用了尚未赋值的变量" 的异常
+         */
+        private void emitTrap(String variable) {
+            emitThrow("Variable used before assignment: " + variable);
+        }
+
+        private void emitThrow(String message) {
+            code.write(NEW);
+            writeShort(code, classConstant("java/lang/RuntimeException"));
+            code.write(DUP);
+            emitLdc(code, stringConstant(message));
+            code.write(INVOKESPECIAL);
+            writeShort(code, methodConstant("java/lang/RuntimeException", "<init>", "(Ljava/lang/String;)V"));
+            code.write(ATHROW);
+        }
+
+        /**
+         * @param firstLocal 第一个槽位对应的局部变量, 之前的局部变量是方法的参数
+         */
+        private void beginChunk(int firstLocal) {
+            code = new ByteArrayOutputStream();
+            this.firstLocal = firstLocal;
+            localOf.clear();
+            liveIn.clear();
+            written.clear();
+            jumps.clear();
+            exits.clear();
+            frames.clear();
+        }
+
+        /**
+         * 给段加上首尾的读写, 生成一个方法
+         *
+         * @return 方法名
+         */
+        private String endChunk(int index, boolean trapped) {
+            final var body = new ByteArrayOutputStream();
+            for (final int slot : liveIn) {
+                body.write(ALOAD_0);
+                emitConstant(body, slot);
+                body.write(IALOAD);
+                emitLocal(body, ISTORE, localOf.get(slot));
+            }
+
+            body.writeBytes(code.toByteArray());
+
+            if (!trapped) {
+                for (final int slot : written) {
+                    body.write(ALOAD_0);
+                    emitConstant(body, slot);
+                    emitLocal(body, ILOAD, localOf.get(slot));
+                    body.write(IASTORE);
+                }
+                body.write(RETURN);
+            }
+
+            final var name = "chunk" + index;
+            methods.add(method(name, "([I)V", 4, localOf.size() + 1, body));
+            return name;
+        }
+
+        private void emitLoad(int slot) {
+            if (!localOf.containsKey(slot)) {
+                localOf.put(slot, firstLocal + localOf.size());
+                liveIn.add(slot);
+            }
+            emitLocal(code, ILOAD, localOf.get(slot));
+        }
+
+        private void emitStore(int slot) {
+            if (!localOf.containsKey(slot)) {
+                localOf.put(slot, firstLocal + localOf.size());
+            }
+            written.add(slot);
+            emitLocal(code, ISTORE, localOf.get(slot));
+        }
+
+        private static void emitLocal(ByteArrayOutputStream out, int opcode, int local) {
+            if (local <= 3) {
+                // iload_0 ~ iload_3 与 istore_0 ~ istore_3
+                out.write((opcode == ILOAD ? 0x1a : 0x3b) + local);
+            } else if (local <= 0xff) {
+                out.write(opcode);
+                out.write(local);
+            } else {
+                out.write(WIDE);
+                out.write(opcode);
+                writeShort(out, local);
+            }
+        }
+
+        private void emitConstant(ByteArrayOutputStream out, int value) {
+            if (value >= -1 && value <= 5) {
+                out.write(ICONST_0 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                out.write(BIPUSH);
+                out.write(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                out.write(SIPUSH);
+                writeShort(out, value);
+            } else {
+                emitLdc(out, intConstant(value));
+            }
+        }
+
+        private static void emitLdc(ByteArrayOutputStream out, int index) {
+            if (index <= 0xff) {
+                out.write(LDC);
+                out.write(index);
+            } else {
+                out.write(LDC_W);
+                writeShort(out, index);
+            }
+        }
+
+        //============================== 常量池 ==============================
+
+        private int utf8Constant(String value) {
+            return constant("Utf8:" + value, 1, out -> {
+                out.writeByte(1);
+                out.writeUTF(value);
+            });
+        }
+
+        private int intConstant(int value) {
+            return constant("Integer:" + value, 1, out -> {
+                out.writeByte(3);
+                out.writeInt(value);
+            });
+        }
+
+        private int longConstant(long value) {
+            // long 常量占两个常量池下标
+            return constant("Long:" + value, 2, out -> {
+                out.writeByte(5);
+                out.writeLong(value);
+            });
+        }
+
+        private int classConstant(String name) {
+            final int nameIndex = utf8Constant(name);
+            return constant("Class:" + name, 1, out -> {
+                out.writeByte(7);
+                out.writeShort(nameIndex);
+            });
+        }
+
+        private int stringConstant(String value) {
+            final int valueIndex = utf8Constant(value);
+            return constant("String:" + value, 1, out -> {
+                out.writeByte(8);
+                out.writeShort(valueIndex);
+            });
+        }
+
+        private int methodConstant(String owner, String name, String descriptor) {
+            final int classIndex = classConstant(owner);
+            final int nameIndex = utf8Constant(name);
+            final int descriptorIndex = utf8Constant(descriptor);
+            final int nameAndTypeIndex = constant("NameAndType:" + name + descriptor, 1, out -> {
+                out.writeByte(12);
+                out.writeShort(nameIndex);
+                out.writeShort(descriptorIndex);
+            });
+            return constant("Methodref:" + owner + "." + name + descriptor, 1, out -> {
+                out.writeByte(10);
+                out.writeShort(classIndex);
+                out.writeShort(nameAndTypeIndex);
+            });
+        }
+
+        private interface ConstantWriter {
+            void write(DataOutputStream out) throws IOException;
+        }
+
+        private int constant(String key, int size, ConstantWriter writer) {
+            final var existing = constantIndex.get(key);
+            if (existing != null) {
+                return existing;
+            }
+
+            try {
+                final var out = new DataOutputStream(constantPool);
+                writer.write(out);
+                out.flush();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+
+            final int index = constantCount;
+            constantCount += size;
+            constantIndex.put(key, index);
+            return index;
+        }
+
+        //============================== class 文件 ==============================
+
+        /**
+         * @return 序列化后的 public static 方法
+         */
+        private byte[] method(String name, String descriptor, int maxStack, int maxLocals, ByteArrayOutputStream body) {
+            return method(name, descriptor, maxStack, maxLocals, body, null);
+        }
+
+        /**
+         * @param stackMapTable StackMapTable 属性的内容, 直线代码不需要, 为 null
+         */
+        private byte[] method(String name, String descriptor, int maxStack, int maxLocals, ByteArrayOutputStream body,
+                              byte[] stackMapTable) {
+            final int nameIndex = utf8Constant(name);
+            final int descriptorIndex = utf8Constant(descriptor);
+            final int codeName = utf8Constant("Code");
+            final int stackMapName = stackMapTable != null ? utf8Constant("StackMapTable") : 0;
+            final int attributesLength = stackMapTable != null ? 2 + 4 + stackMapTable.length : 0;
+
+            final var bytes = new ByteArrayOutputStream();
+            try (final var out = new DataOutputStream(bytes)) {
+                out.writeShort(0x0009); // ACC_PUBLIC | ACC_STATIC
+                out.writeShort(nameIndex);
+                out.writeShort(descriptorIndex);
+                out.writeShort(1); // attributes_count
+
+                // Code 属性
+                out.writeShort(codeName);
+                out.writeInt(2 + 2 + 4 + body.size() + 2 + 2 + attributesLength);
+                out.writeShort(maxStack);
+                out.writeShort(maxLocals);
+                out.writeInt(body.size());
+                body.writeTo(out);
+                out.writeShort(0); // exception_table_length
+                if (stackMapTable != null) {
+                    out.writeShort(1); // attributes_count
+                    out.writeShort(stackMapName);
+                    out.writeInt(stackMapTable.length);
+                    out.write(stackMapTable);
+                } else {
+                    out.writeShort(0); // attributes_count
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return bytes.toByteArray();
+        }
+
+        private byte[] toByteArray() {
+            // 先把要用到的常量都放进常量池, 再写出整个文件
+            final int thisClass = classConstant(CLASS_NAME);
+            final int superClass = classConstant("java/lang/Object");
+
+            final var bytes = new ByteArrayOutputStream();
+            try (final var out = new DataOutputStream(bytes)) {
+                out.writeInt(0xCAFEBABE);
+                out.writeShort(0); // minor_version
+                out.writeShort(52); // major_version, Java 8: 带跳转的方法需要 StackMapTable
+                out.writeShort(constantCount);
+                constantPool.writeTo(out);
+
+                out.writeShort(0x0031); // ACC_PUBLIC | ACC_FINAL | ACC_SUPER
+                out.writeShort(thisClass);
+                out.writeShort(superClass);
+                out.writeShort(0); // interfaces_count
+                out.writeShort(0); // fields_count
+
+                out.writeShort(methods.size());
+                for (final var method : methods) {
+                    out.write(method);
+                }
+
+                out.writeShort(0); // class attributes_count
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return bytes.toByteArray();
+        }
+
+        private static void writeShort(ByteArrayOutputStream out, int value) {
+            out.write((value >>> 8) & 0xff);
+            out.write(value & 0xff);
+        }
+
+        private static void writeInt(ByteArrayOutputStream out, int value) {
+            writeShort(out, value >>> 16);
+            writeShort(out, value);
+        }
+
+        private static void patchShort(byte[] bytes, int position, int value) {
+            bytes[position] = (byte) (value >>> 8);
+            bytes[position + 1] = (byte) value;
+        }
+    }
+}